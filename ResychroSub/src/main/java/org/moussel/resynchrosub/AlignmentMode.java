@@ -0,0 +1,32 @@
+package org.moussel.resynchrosub;
+
+/**
+ * Unit of the text diff of the same language matching.
+ */
+public enum AlignmentMode {
+	/**
+	 * Cues are aligned at the cue texts unique to both tracks, recursively, and
+	 * only the spans left are diffed, within a time budget, see
+	 * {@link AnchoredMatcher}
+	 */
+	ANCHORED,
+	/**
+	 * Cues are aligned by the hash of their normalized text within a band of
+	 * compatible times, see {@link TimeBandedMatcher}
+	 */
+	BANDED,
+	/**
+	 * The normalized texts are diffed character by character
+	 */
+	CHARACTER,
+	/**
+	 * Cues are diffed by the hash of their normalized text, characters only in
+	 * the regions that differ, see {@link CueHashMatcher}
+	 */
+	CUE,
+	/**
+	 * Cues are aligned as sequences, with the matches as operations of the
+	 * alignment, see {@link CueAligner}
+	 */
+	SEQUENCE
+}
@@ -0,0 +1,39 @@
+package org.moussel.resynchrosub;
+
+import java.util.List;
+
+/**
+ * The matches of an alignment, and whether some of its regions could not be
+ * diffed in time: the cues of such regions may be reported as missing while
+ * they match.
+ */
+public class AlignmentResult {
+	private final int degradedCueCount;
+	private final int degradedRegionCount;
+	private final List<SubtitleMatch> matchList;
+
+	public AlignmentResult(List<SubtitleMatch> matchList, int degradedRegionCount, int degradedCueCount) {
+		this.matchList = matchList;
+		this.degradedRegionCount = degradedRegionCount;
+		this.degradedCueCount = degradedCueCount;
+	}
+
+	/**
+	 * @return the number of cues of both tracks in degraded regions
+	 */
+	public int getDegradedCueCount() {
+		return degradedCueCount;
+	}
+
+	public int getDegradedRegionCount() {
+		return degradedRegionCount;
+	}
+
+	public List<SubtitleMatch> getMatchList() {
+		return matchList;
+	}
+
+	public boolean isDegraded() {
+		return degradedRegionCount > 0;
+	}
+}
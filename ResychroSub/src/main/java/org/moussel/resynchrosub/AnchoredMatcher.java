@@ -0,0 +1,261 @@
+package org.moussel.resynchrosub;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Same language matching without a global diff timeout, in the way of the
+ * patience diff: the cues whose normalized text is unique in both tracks are
+ * aligned (longest increasing subsequence), and the spans between these
+ * anchors are aligned again the same way. Equal cues at the ends of a span are
+ * matched directly; a span with no anchor left is a region, diffed character
+ * by character.
+ *
+ * The regions share the time budget: each one gets the same floor, and the
+ * rest in proportion to its length, the shares adding up to the budget. The
+ * shares are set from the lengths of all the regions before any of them is
+ * diffed, so the matches do not depend on the order in which the regions are
+ * diffed, sequentially or in parallel. A region whose diff runs out of its
+ * share is degraded: its cues may be reported missing, the other regions are
+ * not affected. With more regions than the budget has milliseconds, the
+ * regions left with no time at all are degraded without being diffed. The
+ * budget only bounds the region diffs: finding the anchors and mapping the
+ * matches to the cues take their own time, growing with the length of the
+ * tracks.
+ */
+public class AnchoredMatcher {
+	public static final long DEFAULT_TIME_BUDGET_MILLIS = Long.getLong("resynchrosub.alignmentTimeBudget", 10000L);
+
+	/**
+	 * The share of the time budget of each region before the rest is split in
+	 * proportion to their lengths, unless the budget is too short for it
+	 */
+	private static final long MIN_REGION_TIMEOUT_MILLIS = 100;
+
+	/**
+	 * @return the anchors of a span: the pairs of cues unique to both sides of
+	 *         it, in order on both sides
+	 */
+	static List<int[]> anchors(long[] hashes1, int from1, int to1, long[] hashes2, int from2, int to2) {
+		// Count and last index on each side
+		Map<Long, int[]> occurrences = new HashMap<>();
+		for (int i = from1; i < to1; i++) {
+			int[] occurrence = occurrences.computeIfAbsent(hashes1[i], k -> new int[4]);
+			occurrence[0]++;
+			occurrence[1] = i;
+		}
+		for (int i = from2; i < to2; i++) {
+			int[] occurrence = occurrences.get(hashes2[i]);
+			if (occurrence != null) {
+				occurrence[2]++;
+				occurrence[3] = i;
+			}
+		}
+		List<int[]> candidates = new ArrayList<>();
+		for (int i = from1; i < to1; i++) {
+			int[] occurrence = occurrences.get(hashes1[i]);
+			if (occurrence[0] == 1 && occurrence[2] == 1) {
+				candidates.add(new int[]{i, occurrence[3]});
+			}
+		}
+		return longestIncreasingSubsequence(candidates);
+	}
+
+	/**
+	 * @return the hash of the normalized text of each cue
+	 */
+	static long[] hashes(SubtitleTrack track) {
+		long[] hashes = new long[track.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = track.normalizedTextHash(i);
+		}
+		return hashes;
+	}
+
+	/**
+	 * @return the longest subsequence of the pairs (in increasing first index)
+	 *         with increasing second index, by patience sorting
+	 */
+	private static List<int[]> longestIncreasingSubsequence(List<int[]> pairs) {
+		int[] pileTops = new int[pairs.size()];
+		int[] previous = new int[pairs.size()];
+		int pileCount = 0;
+		for (int i = 0; i < pairs.size(); i++) {
+			int value = pairs.get(i)[1];
+			int low = 0;
+			int high = pileCount;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (pairs.get(pileTops[middle])[1] < value) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			previous[i] = low > 0 ? pileTops[low - 1] : -1;
+			pileTops[low] = i;
+			if (low == pileCount) {
+				pileCount++;
+			}
+		}
+		List<int[]> subsequence = new ArrayList<>(pileCount);
+		for (int i = pileCount > 0 ? pileTops[pileCount - 1] : -1; i >= 0; i = previous[i]) {
+			subsequence.add(0, pairs.get(i));
+		}
+		return subsequence;
+	}
+
+	private final long timeBudgetMillis;
+
+	/**
+	 * @param timeBudgetMillis
+	 *            the time the diffs of all the regions may take
+	 */
+	public AnchoredMatcher(long timeBudgetMillis) {
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	/**
+	 * Align a span and, in turn, the spans between its anchors. The spans left
+	 * are kept on an explicit stack rather than by recursion, however deeply
+	 * they are nested.
+	 */
+	private void align(long[] hashes1, int from1, int to1, long[] hashes2, int from2, int to2,
+			CueHashMatcher.CueRuns runs) {
+		// Spans to align {from1, to1, from2, to2} and equal runs to add {-1, length}, in order from the top
+		Deque<int[]> stack = new ArrayDeque<>();
+		stack.push(new int[]{from1, to1, from2, to2});
+		while (!stack.isEmpty()) {
+			int[] span = stack.pop();
+			if (span[0] < 0) {
+				runs.equal(span[1]);
+				continue;
+			}
+			from1 = span[0];
+			to1 = span[1];
+			from2 = span[2];
+			to2 = span[3];
+			int prefix = 0;
+			while (from1 + prefix < to1 && from2 + prefix < to2
+					&& hashes1[from1 + prefix] == hashes2[from2 + prefix]) {
+				prefix++;
+			}
+			runs.equal(prefix);
+			from1 += prefix;
+			from2 += prefix;
+			int suffix = 0;
+			while (to1 - suffix > from1 && to2 - suffix > from2
+					&& hashes1[to1 - 1 - suffix] == hashes2[to2 - 1 - suffix]) {
+				suffix++;
+			}
+			to1 -= suffix;
+			to2 -= suffix;
+			List<int[]> anchors = from1 < to1 && from2 < to2 ? anchors(hashes1, from1, to1, hashes2, from2, to2)
+					: new ArrayList<>();
+			if (anchors.isEmpty()) {
+				runs.region(to1 - from1, to2 - from2);
+				runs.equal(suffix);
+				continue;
+			}
+			// Pushed backwards: the span before the first anchor is aligned first
+			stack.push(new int[]{-1, suffix});
+			for (int k = anchors.size(); k >= 0; k--) {
+				int spanFrom1 = k > 0 ? anchors.get(k - 1)[0] + 1 : from1;
+				int spanFrom2 = k > 0 ? anchors.get(k - 1)[1] + 1 : from2;
+				int spanTo1 = k < anchors.size() ? anchors.get(k)[0] : to1;
+				int spanTo2 = k < anchors.size() ? anchors.get(k)[1] : to2;
+				if (k < anchors.size()) {
+					stack.push(new int[]{-1, 1});
+				}
+				stack.push(new int[]{spanFrom1, spanTo1, spanFrom2, spanTo2});
+			}
+		}
+	}
+
+	public AlignmentResult computeMatchSameLanguage(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack) {
+		CueHashMatcher.CueRuns runs = new CueHashMatcher.CueRuns();
+		align(hashes(srcTrack), 0, srcTrack.size(), hashes(reSyncSrcTrack), 0, reSyncSrcTrack.size(), runs);
+		runs.end();
+		RegionDiff regionDiff = new RegionDiff(timeBudgetMillis);
+		List<SubtitleMatch> matchList = CueHashMatcher.matchRuns(srcTrack, reSyncSrcTrack, runs, regionDiff);
+		return new AlignmentResult(matchList, regionDiff.degradedRegionCount, regionDiff.degradedCueCount);
+	}
+
+	public long getTimeBudgetMillis() {
+		return timeBudgetMillis;
+	}
+
+	/**
+	 * Character diff of the regions, each one with its share of the time budget
+	 * (regions may be diffed concurrently).
+	 */
+	private static class RegionDiff implements CueHashMatcher.RegionMatcher {
+		private int degradedCueCount;
+		private int degradedRegionCount;
+		private int regionCount;
+		private long regionLength;
+		private final long timeBudgetMillis;
+
+		RegionDiff(long timeBudgetMillis) {
+			this.timeBudgetMillis = timeBudgetMillis;
+		}
+
+		/**
+		 * Count a region as degraded.
+		 */
+		private synchronized void degrade(int cueCount) {
+			degradedRegionCount++;
+			degradedCueCount += cueCount;
+		}
+
+		@Override
+		public List<SubtitleMatch> match(String srcText, String reSyncSrcText, List<Subtitle> srcSubList,
+				List<Subtitle> reSyncSrcSubList) {
+			long timeout = timeout(CueHashMatcher.textLength(srcSubList, 0, srcSubList.size())
+					+ CueHashMatcher.textLength(reSyncSrcSubList, 0, reSyncSrcSubList.size()));
+			if (timeout <= 0) {
+				degrade(srcSubList.size() + reSyncSrcSubList.size());
+				List<SubtitleMatch> matchList = new ArrayList<>();
+				for (Subtitle sub : srcSubList) {
+					matchList.add(new SubtitleMatch(sub, MatchingMode.MISSING_B));
+				}
+				for (Subtitle sub : reSyncSrcSubList) {
+					matchList.add(new SubtitleMatch(sub, MatchingMode.MISSING_A));
+				}
+				return matchList;
+			}
+			CharArrayDiff dmp = new CharArrayDiff();
+			dmp.Diff_Timeout = timeout / 1000f;
+			List<SubtitleMatch> matchList = ResynchroCore.computeMatchSameLanguage(srcText, reSyncSrcText, srcSubList,
+					reSyncSrcSubList, dmp);
+			if (dmp.isTimedOut()) {
+				// The diff gave up on what was left when it ran out of time
+				degrade(srcSubList.size() + reSyncSrcSubList.size());
+			}
+			return matchList;
+		}
+
+		@Override
+		public void plan(int regionCount, long textLength) {
+			this.regionCount = regionCount;
+			this.regionLength = textLength;
+		}
+
+		/**
+		 * @return the share of the time budget of a region of the given length,
+		 *         the same whenever the region is diffed; the shares of all the
+		 *         regions add up to the budget at most
+		 */
+		private long timeout(long length) {
+			if (timeBudgetMillis <= 0 || regionCount == 0) {
+				return 0;
+			}
+			long floor = Math.min(MIN_REGION_TIMEOUT_MILLIS, timeBudgetMillis / regionCount);
+			return floor + (timeBudgetMillis - floor * regionCount) * length / Math.max(regionLength, length);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package org.moussel.resynchrosub;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A subtitle file inside a compressed archive: an entry of a <code>.zip</code>,
+ * or the content of a <code>.gz</code> file. The entry is decompressed while
+ * being parsed, it is never extracted.
+ */
+public class ArchiveEntrySource implements SubtitleSource {
+	private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+	private static final String GZIP_EXTENSION = ".gz";
+	private static final String ZIP_EXTENSION = ".zip";
+
+	public static boolean isArchive(String fileName) {
+		String lowerCase = fileName.toLowerCase(Locale.ROOT);
+		return lowerCase.endsWith(ZIP_EXTENSION) || lowerCase.endsWith(GZIP_EXTENSION);
+	}
+
+	private static boolean isGzip(Path archive) {
+		return archive.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(GZIP_EXTENSION);
+	}
+
+	/**
+	 * @return the entries of the archive in a supported subtitle format, read
+	 *         from the zip central directory (or the gzip file name) only
+	 */
+	public static List<ArchiveEntrySource> listEntries(Path archive) throws IOException {
+		List<ArchiveEntrySource> entries = new ArrayList<>();
+		if (isGzip(archive)) {
+			String fileName = archive.getFileName().toString();
+			String entryName = fileName.substring(0, fileName.length() - GZIP_EXTENSION.length());
+			if (SubtitleFormats.isSupported(entryName)) {
+				entries.add(new ArchiveEntrySource(archive, entryName));
+			}
+		} else {
+			try (ZipFile zipFile = new ZipFile(archive.toFile())) {
+				Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+				while (zipEntries.hasMoreElements()) {
+					ZipEntry entry = zipEntries.nextElement();
+					if (!entry.isDirectory() && SubtitleFormats.isSupported(entry.getName())) {
+						entries.add(new ArchiveEntrySource(archive, entry.getName()));
+					}
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return the archive may contain an entry whose name starts with the
+	 *         prefix: a gzip file is named after its entry, a zip file is
+	 *         expected to be named after its entries or after a shorter part of
+	 *         their name (such as the film title)
+	 */
+	public static boolean mayContain(String archiveName, String prefix) {
+		String lowerCase = archiveName.toLowerCase(Locale.ROOT);
+		if (lowerCase.endsWith(GZIP_EXTENSION)) {
+			return archiveName.startsWith(prefix);
+		}
+		if (!lowerCase.endsWith(ZIP_EXTENSION)) {
+			return false;
+		}
+		String baseName = archiveName.substring(0, archiveName.length() - ZIP_EXTENSION.length());
+		return !baseName.isEmpty() && (baseName.startsWith(prefix) || prefix.startsWith(baseName));
+	}
+
+	private final Path archive;
+	private Charset charset = Charset.defaultCharset();
+	private final String entryName;
+	private final SubtitleFormat format;
+
+	/**
+	 * @param entryName
+	 *            the name of the zip entry, or the name of the compressed file
+	 *            for a gzip file
+	 */
+	public ArchiveEntrySource(Path archive, String entryName) {
+		this.archive = archive;
+		this.entryName = entryName;
+		SubtitleFormat entryFormat = SubtitleFormats.forFileName(entryName);
+		this.format = entryFormat != null ? entryFormat : SubtitleFormats.SRT;
+	}
+
+	public Path getArchive() {
+		return archive;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public String getEntryName() {
+		return entryName;
+	}
+
+	/**
+	 * @return the name of the entry, without its directory in the archive
+	 */
+	public String getFileName() {
+		return entryName.substring(entryName.lastIndexOf('/') + 1);
+	}
+
+	public SubtitleFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public String getName() {
+		return isGzip(archive) ? archive.toString() : archive + "!/" + entryName;
+	}
+
+	@Override
+	public SubtitleTrack load(boolean normalizeText) throws IOException {
+		try (InputStream in = openStream()) {
+			return format.read(Channels.newChannel(in), charset, normalizeText);
+		}
+	}
+
+	/**
+	 * @return the decompressed content of the entry
+	 */
+	public InputStream openStream() throws IOException {
+		if (isGzip(archive)) {
+			return new GZIPInputStream(Files.newInputStream(archive), GZIP_BUFFER_SIZE);
+		}
+		ZipFile zipFile = new ZipFile(archive.toFile());
+		try {
+			ZipEntry entry = zipFile.getEntry(entryName);
+			if (entry == null) {
+				throw new IOException("No entry " + entryName + " in " + archive);
+			}
+			return new FilterInputStream(zipFile.getInputStream(entry)) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						zipFile.close();
+					}
+				}
+			};
+		} catch (IOException | RuntimeException e) {
+			zipFile.close();
+			throw e;
+		}
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -0,0 +1,117 @@
+package org.moussel.resynchrosub;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Advanced SubStation Alpha / SubStation Alpha (<code>.ass</code>,
+ * <code>.ssa</code>) format.
+ *
+ * Only the Dialogue lines of the [Events] section are read, following its
+ * Format line; override blocks (<code>{...}</code>) are dropped and
+ * <code>\N</code> line breaks become new lines. Tracks are written as ASS
+ * (v4.00+) with a minimal header and a single Default style.
+ */
+public class AssFormat extends LineSubtitleFormat {
+	private static final List<String> DEFAULT_EVENT_FORMAT = Arrays.asList("layer", "start", "end", "style", "name",
+			"marginl", "marginr", "marginv", "effect", "text");
+	private static final String[] HEADER = { "[Script Info]", "ScriptType: v4.00+", "", "[V4+ Styles]",
+			"Format: Name, Fontname, Fontsize, PrimaryColour, SecondaryColour, OutlineColour, BackColour, Bold, Italic, "
+					+ "Underline, StrikeOut, ScaleX, ScaleY, Spacing, Angle, BorderStyle, Outline, Shadow, Alignment, "
+					+ "MarginL, MarginR, MarginV, Encoding",
+			"Style: Default,Arial,20,&H00FFFFFF,&H000000FF,&H00000000,&H00000000,0,0,0,0,100,100,0,0,1,2,2,2,10,10,10,1",
+			"", "[Events]", "Format: Layer, Start, End, Style, Name, MarginL, MarginR, MarginV, Effect, Text" };
+	private static final Pattern HTML_TAG = Pattern.compile("<(/?)([ibu])>|<[^>]*>", Pattern.CASE_INSENSITIVE);
+	private static final Pattern LINE_BREAK = Pattern.compile("\\r\\n|[\\r\\n]");
+	private static final Pattern OVERRIDE_BLOCK = Pattern.compile("\\{[^}]*\\}");
+
+	private static String toAssText(CharSequence text) {
+		// <i>, <b>, <u> become override tags, other tags are dropped
+		StringBuilder sb = new StringBuilder(text.length());
+		Matcher ma = HTML_TAG.matcher(text);
+		int last = 0;
+		while (ma.find()) {
+			sb.append(text, last, ma.start());
+			if (ma.group(2) != null) {
+				sb.append("{\\").append(ma.group(2).toLowerCase(Locale.ROOT)).append(ma.group(1).isEmpty() ? '1' : '0')
+						.append('}');
+			}
+			last = ma.end();
+		}
+		sb.append(text, last, text.length());
+		return LINE_BREAK.matcher(sb).replaceAll("\\\\N");
+	}
+
+	private static String toTrackText(String assText) {
+		return OVERRIDE_BLOCK.matcher(assText).replaceAll("").replace("\\N", NEW_LINE).replace("\\n", NEW_LINE)
+				.replace("\\h", " ");
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return Arrays.asList("ass", "ssa");
+	}
+
+	@Override
+	public String getName() {
+		return "ASS";
+	}
+
+	@Override
+	SubtitleTrack readTrack(BufferedReader reader, TextNormalizer normalizer) throws IOException {
+		SubtitleTrack track = new SubtitleTrack();
+		List<String> format = DEFAULT_EVENT_FORMAT;
+		boolean inEvents = false;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			String trimmed = line.trim();
+			if (trimmed.startsWith("[")) {
+				inEvents = trimmed.equalsIgnoreCase("[Events]");
+			} else if (inEvents && trimmed.regionMatches(true, 0, "Format:", 0, 7)) {
+				String[] fields = trimmed.substring(7).split(",");
+				for (int i = 0; i < fields.length; i++) {
+					fields[i] = fields[i].trim().toLowerCase(Locale.ROOT);
+				}
+				format = Arrays.asList(fields);
+			} else if (inEvents && trimmed.regionMatches(true, 0, "Dialogue:", 0, 9)) {
+				String[] values = trimmed.substring(9).split(",", format.size());
+				int startIndex = format.indexOf("start");
+				int endIndex = format.indexOf("end");
+				int textIndex = format.indexOf("text");
+				if (values.length < format.size() || startIndex < 0 || endIndex < 0 || textIndex < 0) {
+					continue;
+				}
+				long start = parseClockMillis(values[startIndex], '.');
+				long end = parseClockMillis(values[endIndex], '.');
+				if (start >= 0 && end >= 0) {
+					addCue(track, start, end, toTrackText(values[textIndex]), normalizer);
+				}
+			}
+		}
+		// Events are not required to be in chronological order
+		return track.sortedByStart();
+	}
+
+	@Override
+	void writeTrack(SubtitleTrack track, Writer writer) throws IOException {
+		for (String headerLine : HEADER) {
+			writer.write(headerLine);
+			writer.write(NEW_LINE);
+		}
+		for (int i = 0; i < track.size(); i++) {
+			writer.write("Dialogue: 0,");
+			writer.write(formatClock(track.getStartMillis(i), 1, '.', 2));
+			writer.write(',');
+			writer.write(formatClock(track.getEndMillis(i), 1, '.', 2));
+			writer.write(",Default,,0,0,0,,");
+			writer.write(toAssText(track.getTextSequence(i)));
+			writer.write(NEW_LINE);
+		}
+	}
+}
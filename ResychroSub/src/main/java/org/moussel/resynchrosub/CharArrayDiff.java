@@ -0,0 +1,510 @@
+package org.moussel.resynchrosub;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Map;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+
+/**
+ * The diff of {@link diff_match_patch#diff_main(String, String, boolean)}, with
+ * the same results, computed on one char array holding both texts: the
+ * prefix, suffix, half match and bisection steps work on offsets in the array
+ * instead of cutting the texts into substrings at each step, and the line mode
+ * maps the lines back to the array instead of joining their texts. Only the
+ * texts of the resulting diffs are copied out of the array.
+ *
+ * The V arrays of the bisection are allocated once per thread and reused by
+ * the following bisections, up to {@link #MAX_SCRATCH_LENGTH} ints.
+ */
+final class CharArrayDiff extends diff_match_patch {
+	/**
+	 * Longest V arrays kept for the next bisections of a thread
+	 */
+	static final int MAX_SCRATCH_LENGTH = 1 << 20;
+
+	private static final ThreadLocal<int[][]> SCRATCH = ThreadLocal
+			.withInitial(() -> new int[][]{new int[0], new int[0]});
+
+	private boolean timedOut;
+
+	@Override
+	public LinkedList<Diff> diff_main(String text1, String text2, boolean checklines) {
+		if (text1 == null || text2 == null) {
+			throw new IllegalArgumentException("Null inputs. (diff_main)");
+		}
+		long deadline = Diff_Timeout <= 0 ? Long.MAX_VALUE
+				: System.currentTimeMillis() + (long) (Diff_Timeout * 1000);
+		char[] chars = new char[text1.length() + text2.length()];
+		text1.getChars(0, text1.length(), chars, 0);
+		text2.getChars(0, text2.length(), chars, text1.length());
+		return new Texts(chars, deadline).diff(0, text1.length(), text1.length(), chars.length, checklines);
+	}
+
+	/**
+	 * @return a bisection of this diff ran out of time: the diff gave up on what
+	 *         was left, as one deletion and one insertion
+	 */
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	/**
+	 * The texts of a diff in one array: each step works on a range of the first
+	 * text and a range of the second one.
+	 */
+	private final class Texts {
+		private final char[] chars;
+		private final long deadline;
+
+		Texts(char[] chars, long deadline) {
+			this.chars = chars;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * See diff_bisect.
+		 */
+		private LinkedList<Diff> bisect(int start1, int end1, int start2, int end2) {
+			int length1 = end1 - start1;
+			int length2 = end2 - start2;
+			int maxD = (length1 + length2 + 1) / 2;
+			int vOffset = maxD;
+			int vLength = 2 * maxD;
+			int[][] scratch = SCRATCH.get();
+			int[] v1 = scratch[0];
+			int[] v2 = scratch[1];
+			if (v1.length < vLength) {
+				v1 = new int[vLength];
+				v2 = new int[vLength];
+				if (vLength <= MAX_SCRATCH_LENGTH) {
+					scratch[0] = v1;
+					scratch[1] = v2;
+				}
+			}
+			Arrays.fill(v1, 0, vLength, -1);
+			Arrays.fill(v2, 0, vLength, -1);
+			v1[vOffset + 1] = 0;
+			v2[vOffset + 1] = 0;
+			int delta = length1 - length2;
+			// If the total number of characters is odd, the front path collides with the reverse path
+			boolean front = delta % 2 != 0;
+			// Offsets for start and end of k loop, preventing mapping of space beyond the grid
+			int k1start = 0;
+			int k1end = 0;
+			int k2start = 0;
+			int k2end = 0;
+			for (int d = 0; d < maxD; d++) {
+				if (System.currentTimeMillis() > deadline) {
+					timedOut = true;
+					break;
+				}
+
+				// Walk the front path one step
+				for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+					int k1Offset = vOffset + k1;
+					int x1;
+					if (k1 == -d || k1 != d && v1[k1Offset - 1] < v1[k1Offset + 1]) {
+						x1 = v1[k1Offset + 1];
+					} else {
+						x1 = v1[k1Offset - 1] + 1;
+					}
+					int y1 = x1 - k1;
+					while (x1 < length1 && y1 < length2 && chars[start1 + x1] == chars[start2 + y1]) {
+						x1++;
+						y1++;
+					}
+					v1[k1Offset] = x1;
+					if (x1 > length1) {
+						// Ran off the right of the graph
+						k1end += 2;
+					} else if (y1 > length2) {
+						// Ran off the bottom of the graph
+						k1start += 2;
+					} else if (front) {
+						int k2Offset = vOffset + delta - k1;
+						if (k2Offset >= 0 && k2Offset < vLength && v2[k2Offset] != -1) {
+							// Mirror x2 onto top-left coordinate system
+							int x2 = length1 - v2[k2Offset];
+							if (x1 >= x2) {
+								return bisectSplit(start1, end1, start2, end2, x1, y1);
+							}
+						}
+					}
+				}
+
+				// Walk the reverse path one step
+				for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+					int k2Offset = vOffset + k2;
+					int x2;
+					if (k2 == -d || k2 != d && v2[k2Offset - 1] < v2[k2Offset + 1]) {
+						x2 = v2[k2Offset + 1];
+					} else {
+						x2 = v2[k2Offset - 1] + 1;
+					}
+					int y2 = x2 - k2;
+					while (x2 < length1 && y2 < length2 && chars[end1 - x2 - 1] == chars[end2 - y2 - 1]) {
+						x2++;
+						y2++;
+					}
+					v2[k2Offset] = x2;
+					if (x2 > length1) {
+						// Ran off the left of the graph
+						k2end += 2;
+					} else if (y2 > length2) {
+						// Ran off the top of the graph
+						k2start += 2;
+					} else if (!front) {
+						int k1Offset = vOffset + delta - k2;
+						if (k1Offset >= 0 && k1Offset < vLength && v1[k1Offset] != -1) {
+							int x1 = v1[k1Offset];
+							int y1 = vOffset + x1 - k1Offset;
+							// Mirror x2 onto top-left coordinate system
+							x2 = length1 - x2;
+							if (x1 >= x2) {
+								return bisectSplit(start1, end1, start2, end2, x1, y1);
+							}
+						}
+					}
+				}
+			}
+			// Out of time, or no commonality at all
+			LinkedList<Diff> diffs = new LinkedList<>();
+			diffs.add(new Diff(Operation.DELETE, text(start1, end1)));
+			diffs.add(new Diff(Operation.INSERT, text(start2, end2)));
+			return diffs;
+		}
+
+		private LinkedList<Diff> bisectSplit(int start1, int end1, int start2, int end2, int x, int y) {
+			// The V arrays are free again
+			LinkedList<Diff> diffs = diff(start1, start1 + x, start2, start2 + y, false);
+			diffs.addAll(diff(start1 + x, end1, start2 + y, end2, false));
+			return diffs;
+		}
+
+		private int commonPrefix(int start1, int end1, int start2, int end2) {
+			int n = Math.min(end1 - start1, end2 - start2);
+			for (int i = 0; i < n; i++) {
+				if (chars[start1 + i] != chars[start2 + i]) {
+					return i;
+				}
+			}
+			return n;
+		}
+
+		private int commonSuffix(int start1, int end1, int start2, int end2) {
+			int n = Math.min(end1 - start1, end2 - start2);
+			for (int i = 1; i <= n; i++) {
+				if (chars[end1 - i] != chars[end2 - i]) {
+					return i - 1;
+				}
+			}
+			return n;
+		}
+
+		/**
+		 * See diff_compute: the ranges have no common prefix or suffix.
+		 */
+		private LinkedList<Diff> compute(int start1, int end1, int start2, int end2, boolean checklines) {
+			LinkedList<Diff> diffs = new LinkedList<>();
+			int length1 = end1 - start1;
+			int length2 = end2 - start2;
+			if (length1 == 0) {
+				diffs.add(new Diff(Operation.INSERT, text(start2, end2)));
+				return diffs;
+			}
+			if (length2 == 0) {
+				diffs.add(new Diff(Operation.DELETE, text(start1, end1)));
+				return diffs;
+			}
+
+			boolean longer1 = length1 > length2;
+			int longStart = longer1 ? start1 : start2;
+			int longEnd = longer1 ? end1 : end2;
+			int shortStart = longer1 ? start2 : start1;
+			int shortEnd = longer1 ? end2 : end1;
+			int i = indexOf(longStart, longEnd, shortStart, shortEnd, longStart);
+			if (i != -1) {
+				// Shorter text is inside the longer text
+				Operation operation = longer1 ? Operation.DELETE : Operation.INSERT;
+				diffs.add(new Diff(operation, text(longStart, i)));
+				diffs.add(new Diff(Operation.EQUAL, text(shortStart, shortEnd)));
+				diffs.add(new Diff(operation, text(i + shortEnd - shortStart, longEnd)));
+				return diffs;
+			}
+			if (shortEnd - shortStart == 1) {
+				// After the previous check, the character can't be an equality
+				diffs.add(new Diff(Operation.DELETE, text(start1, end1)));
+				diffs.add(new Diff(Operation.INSERT, text(start2, end2)));
+				return diffs;
+			}
+
+			int[] halfMatch = halfMatch(start1, end1, start2, end2);
+			if (halfMatch != null) {
+				int common1 = halfMatch[0];
+				int common2 = halfMatch[1];
+				int commonLength = halfMatch[2];
+				diffs = diff(start1, common1, start2, common2, checklines);
+				LinkedList<Diff> diffsB = diff(common1 + commonLength, end1, common2 + commonLength, end2, checklines);
+				diffs.add(new Diff(Operation.EQUAL, text(common2, common2 + commonLength)));
+				diffs.addAll(diffsB);
+				return diffs;
+			}
+
+			if (checklines && length1 > 100 && length2 > 100) {
+				return lineMode(start1, end1, start2, end2);
+			}
+			return bisect(start1, end1, start2, end2);
+		}
+
+		/**
+		 * See diff_main: the diff of a range of the first text and one of the
+		 * second text.
+		 */
+		LinkedList<Diff> diff(int start1, int end1, int start2, int end2, boolean checklines) {
+			LinkedList<Diff> diffs;
+			int prefixLength = commonPrefix(start1, end1, start2, end2);
+			if (prefixLength == end1 - start1 && prefixLength == end2 - start2) {
+				diffs = new LinkedList<>();
+				if (prefixLength != 0) {
+					diffs.add(new Diff(Operation.EQUAL, text(start1, end1)));
+				}
+				return diffs;
+			}
+
+			int suffixLength = commonSuffix(start1 + prefixLength, end1, start2 + prefixLength, end2);
+			diffs = compute(start1 + prefixLength, end1 - suffixLength, start2 + prefixLength, end2 - suffixLength,
+					checklines);
+			if (prefixLength != 0) {
+				diffs.addFirst(new Diff(Operation.EQUAL, text(start1, start1 + prefixLength)));
+			}
+			if (suffixLength != 0) {
+				diffs.addLast(new Diff(Operation.EQUAL, text(end1 - suffixLength, end1)));
+			}
+			diff_cleanupMerge(diffs);
+			return diffs;
+		}
+
+		/**
+		 * See diff_halfMatch.
+		 *
+		 * @return the start of the common middle in both ranges and its length,
+		 *         <code>null</code> if there is none at least half as long as
+		 *         the longer range
+		 */
+		private int[] halfMatch(int start1, int end1, int start2, int end2) {
+			if (Diff_Timeout <= 0) {
+				// Don't risk returning a non-optimal diff with unlimited time
+				return null;
+			}
+			boolean longer1 = end1 - start1 > end2 - start2;
+			int longStart = longer1 ? start1 : start2;
+			int longEnd = longer1 ? end1 : end2;
+			int shortStart = longer1 ? start2 : start1;
+			int shortEnd = longer1 ? end2 : end1;
+			int longLength = longEnd - longStart;
+			if (longLength < 4 || (shortEnd - shortStart) * 2 < longLength) {
+				return null;
+			}
+
+			// Seeds in the second and third quarters
+			int[] halfMatch1 = halfMatch(longStart, longEnd, shortStart, shortEnd, (longLength + 3) / 4);
+			int[] halfMatch2 = halfMatch(longStart, longEnd, shortStart, shortEnd, (longLength + 1) / 2);
+			int[] halfMatch;
+			if (halfMatch1 == null && halfMatch2 == null) {
+				return null;
+			} else if (halfMatch2 == null) {
+				halfMatch = halfMatch1;
+			} else if (halfMatch1 == null) {
+				halfMatch = halfMatch2;
+			} else {
+				halfMatch = halfMatch1[2] > halfMatch2[2] ? halfMatch1 : halfMatch2;
+			}
+			return longer1 ? halfMatch : new int[]{halfMatch[1], halfMatch[0], halfMatch[2]};
+		}
+
+		/**
+		 * See diff_halfMatchI.
+		 *
+		 * @return the start of the common middle in the longer and shorter
+		 *         ranges and its length, <code>null</code> if it is not at least
+		 *         half as long as the longer range
+		 */
+		private int[] halfMatch(int longStart, int longEnd, int shortStart, int shortEnd, int i) {
+			int seedStart = longStart + i;
+			int seedEnd = seedStart + (longEnd - longStart) / 4;
+			int bestLength = 0;
+			int bestLongStart = 0;
+			int bestShortStart = 0;
+			int j = shortStart - 1;
+			while ((j = indexOf(shortStart, shortEnd, seedStart, seedEnd, j + 1)) != -1) {
+				int prefixLength = commonPrefix(seedStart, longEnd, j, shortEnd);
+				int suffixLength = commonSuffix(longStart, seedStart, shortStart, j);
+				if (bestLength < suffixLength + prefixLength) {
+					bestLength = suffixLength + prefixLength;
+					bestLongStart = seedStart - suffixLength;
+					bestShortStart = j - suffixLength;
+				}
+			}
+			return bestLength * 2 >= longEnd - longStart ? new int[]{bestLongStart, bestShortStart, bestLength} : null;
+		}
+
+		/**
+		 * @return the first index of a range in another one from an index,
+		 *         <code>-1</code> if none
+		 */
+		private int indexOf(int start, int end, int patternStart, int patternEnd, int from) {
+			int patternLength = patternEnd - patternStart;
+			if (patternLength == 0) {
+				return from <= end ? from : -1;
+			}
+			char first = chars[patternStart];
+			int max = end - patternLength;
+			for (int i = from; i <= max; i++) {
+				if (chars[i] != first) {
+					while (++i <= max && chars[i] != first) {
+						// Look for the first char
+					}
+				}
+				if (i <= max) {
+					int j = i + 1;
+					int k = patternStart + 1;
+					while (k < patternEnd && chars[j] == chars[k]) {
+						j++;
+						k++;
+					}
+					if (k == patternEnd) {
+						return i;
+					}
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * See diff_lineMode: the lines are diffed as one char each, the line diff
+		 * is mapped back to the ranges of the lines, and the replaced blocks are
+		 * diffed again char by char, from their ranges.
+		 */
+		private LinkedList<Diff> lineMode(int start1, int end1, int start2, int end2) {
+			Map<String, Integer> lineIds = new HashMap<>();
+			int lineCount1 = lineCount(start1, end1);
+			int lineCount2 = lineCount(start2, end2);
+			char[] lines = new char[lineCount1 + lineCount2];
+			int[] lineStarts1 = lineStarts(start1, end1, lines, 0, lineCount1, lineIds);
+			int[] lineStarts2 = lineStarts(start2, end2, lines, lineCount1, lineCount2, lineIds);
+			LinkedList<Diff> diffs = new Texts(lines, deadline).diff(0, lineCount1, lineCount1, lines.length, false);
+
+			// Convert the diff back to the texts
+			int line1 = 0;
+			int line2 = 0;
+			for (Diff diff : diffs) {
+				int count = diff.text.length();
+				if (diff.operation == Operation.INSERT) {
+					diff.text = text(lineStarts2[line2], lineStarts2[line2 + count]);
+					line2 += count;
+				} else {
+					diff.text = text(lineStarts1[line1], lineStarts1[line1 + count]);
+					line1 += count;
+					if (diff.operation == Operation.EQUAL) {
+						line2 += count;
+					}
+				}
+			}
+			// Eliminate freak matches (e.g. blank lines)
+			diff_cleanupSemantic(diffs);
+
+			// Rediff any replacement blocks, this time char by char, with a dummy entry at the end
+			diffs.add(new Diff(Operation.EQUAL, ""));
+			int deleteCount = 0;
+			int insertCount = 0;
+			int offset1 = start1;
+			int offset2 = start2;
+			int blockStart1 = start1;
+			int blockStart2 = start2;
+			ListIterator<Diff> pointer = diffs.listIterator();
+			while (pointer.hasNext()) {
+				Diff diff = pointer.next();
+				int length = diff.text.length();
+				switch (diff.operation) {
+					case INSERT :
+						insertCount++;
+						offset2 += length;
+						break;
+					case DELETE :
+						deleteCount++;
+						offset1 += length;
+						break;
+					default : // EQUAL
+						if (deleteCount >= 1 && insertCount >= 1) {
+							pointer.previous();
+							for (int j = 0; j < deleteCount + insertCount; j++) {
+								pointer.previous();
+								pointer.remove();
+							}
+							for (Diff newDiff : diff(blockStart1, offset1, blockStart2, offset2, false)) {
+								pointer.add(newDiff);
+							}
+							// Back after the equality
+							pointer.next();
+						}
+						insertCount = 0;
+						deleteCount = 0;
+						offset1 += length;
+						offset2 += length;
+						blockStart1 = offset1;
+						blockStart2 = offset2;
+						break;
+				}
+			}
+			diffs.removeLast();
+			return diffs;
+		}
+
+		private int lineCount(int start, int end) {
+			int count = 0;
+			for (int i = start; i < end; i++) {
+				if (chars[i] == '\n') {
+					count++;
+				}
+			}
+			return end > start && chars[end - 1] != '\n' ? count + 1 : count;
+		}
+
+		/**
+		 * Encode the lines of a range as one char each, the same line as the same
+		 * char, from 1 (see diff_linesToChars).
+		 *
+		 * @return the start of each line of the range, and its end
+		 */
+		private int[] lineStarts(int start, int end, char[] lines, int offset, int lineCount,
+				Map<String, Integer> lineIds) {
+			int[] lineStarts = new int[lineCount + 1];
+			int lineStart = start;
+			for (int line = 0; line < lineCount; line++) {
+				int lineEnd = lineStart;
+				while (lineEnd < end - 1 && chars[lineEnd] != '\n') {
+					lineEnd++;
+				}
+				// The line and its line break
+				String text = text(lineStart, lineEnd + 1);
+				Integer lineId = lineIds.get(text);
+				if (lineId == null) {
+					lineId = lineIds.size() + 1;
+					lineIds.put(text, lineId);
+				}
+				lines[offset + line] = (char) lineId.intValue();
+				lineStarts[line] = lineStart;
+				lineStart = lineEnd + 1;
+			}
+			lineStarts[lineCount] = end;
+			return lineStarts;
+		}
+
+		private String text(int start, int end) {
+			return new String(chars, start, end - start);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package org.moussel.resynchrosub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Same language matching of long tracks in bounded memory: the tracks are
+ * matched window by window instead of diffing their whole texts at once.
+ *
+ * Each window of the source track is matched with the cues of the other track
+ * in the same time range (shifted by the offset found at the previous anchor).
+ * The matches are kept up to the last {@link MatchingMode#PERFECT_MATCH} of the
+ * first part of the window, the anchor, and the next window starts right after
+ * it: the end of each window is matched again in the next one. A window with
+ * no anchor is doubled and matched again, up to the memory budget. A window of
+ * the whole budget with no anchor is kept up to the end of its first part
+ * anyway (its cues matched across that limit are reported missing), and the
+ * next window starts there.
+ *
+ * The memory budget (in bytes, <code>resynchrosub.memoryBudget</code> system
+ * property) bounds the texts diffed at once, not the resulting matches.
+ */
+class ChunkedMatcher {
+	/**
+	 * Estimated memory used by the text diff per character of the compared texts
+	 */
+	static final int BYTES_PER_CHAR = 16;
+	static final Logger LOGGER = Logger.getLogger(ChunkedMatcher.class.getName());
+	static final long MEMORY_BUDGET = Long.getLong("resynchrosub.memoryBudget", 64L * 1024 * 1024);
+
+	private static final int WINDOW_SLACK_MILLIS = 5 * 60 * 1000;
+
+	/**
+	 * Add the matches whose cues are all before the given cue indexes
+	 * (exclusive), the cues before them of the other matches as missing.
+	 */
+	private static void addMatchesBefore(List<SubtitleMatch> windowMatchList, int srcLimit, int reSyncSrcLimit,
+			List<SubtitleMatch> matchList) {
+		for (SubtitleMatch match : windowMatchList) {
+			boolean before = true;
+			for (Subtitle sub : match.getSubAList()) {
+				before &= index(sub) < srcLimit;
+			}
+			for (Subtitle sub : match.getSubBList()) {
+				before &= index(sub) < reSyncSrcLimit;
+			}
+			if (before) {
+				matchList.add(match);
+				continue;
+			}
+			for (Subtitle sub : match.getSubAList()) {
+				if (index(sub) < srcLimit) {
+					matchList.add(new SubtitleMatch(sub, MatchingMode.MISSING_B));
+				}
+			}
+			for (Subtitle sub : match.getSubBList()) {
+				if (index(sub) < reSyncSrcLimit) {
+					matchList.add(new SubtitleMatch(sub, MatchingMode.MISSING_A));
+				}
+			}
+		}
+	}
+
+	static long estimatedMemory(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack) {
+		return (textLength(srcTrack, 0, srcTrack.size()) + textLength(reSyncSrcTrack, 0, reSyncSrcTrack.size()))
+				* BYTES_PER_CHAR;
+	}
+
+	/**
+	 * @return the index in its track of a materialized cue (its number is the
+	 *         index plus one)
+	 */
+	private static int index(Subtitle sub) {
+		return sub.getSubNumber() - 1;
+	}
+
+	/**
+	 * @return the index of the last perfect match of both tracks before the
+	 *         given cue indexes (exclusive), -1 if none
+	 */
+	private static int lastAnchor(List<SubtitleMatch> matchList, int srcLimit, int reSyncSrcLimit) {
+		int anchor = -1;
+		for (int i = 0; i < matchList.size(); i++) {
+			SubtitleMatch match = matchList.get(i);
+			if (match.getMode() == MatchingMode.PERFECT_MATCH) {
+				if (index(match.getLastA()) >= srcLimit || index(match.getLastB()) >= reSyncSrcLimit) {
+					break;
+				}
+				anchor = i;
+			}
+		}
+		return anchor;
+	}
+
+	/**
+	 * @return the end (exclusive) of the first part of a window, at least one
+	 *         cue past its start when the window has cues
+	 */
+	private static int limit(int from, int to) {
+		return from + Math.max(Math.min(1, to - from), (to - from) * 3 / 4);
+	}
+
+	private static List<Subtitle> materialize(SubtitleTrack track, int from, int to) {
+		return new ArrayList<>(track.asSubtitleList().subList(from, to));
+	}
+
+	private static long textLength(SubtitleTrack track, int from, int to) {
+		long length = 0;
+		for (int i = from; i < to; i++) {
+			length += track.getTextLength(i) + ResynchroCore.SUB_SEPARATOR.length();
+		}
+		return length;
+	}
+
+	/**
+	 * @return the end (exclusive) of a window starting at a cue, at least one
+	 *         cue long, whose texts fit in the given length
+	 */
+	private static int windowEnd(SubtitleTrack track, int from, long maxLength) {
+		int to = from;
+		long length = 0;
+		while (to < track.size() && (to == from || length + track.getTextLength(to) < maxLength)) {
+			length += track.getTextLength(to) + ResynchroCore.SUB_SEPARATOR.length();
+			to++;
+		}
+		return to;
+	}
+
+	private final long memoryBudget;
+
+	ChunkedMatcher(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	List<SubtitleMatch> computeMatchSameLanguage(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack) {
+		List<SubtitleMatch> matchList = new ArrayList<>();
+		// The other track gets twice the length of the source window, for the time slack
+		long maxWindowLength = Math.max(1, memoryBudget / BYTES_PER_CHAR / 3);
+		// Room to widen the window twice within the budget
+		long baseWindowLength = Math.max(1, maxWindowLength / 4);
+		long windowLength = baseWindowLength;
+		long offsetMillis = 0;
+		int srcFrom = 0;
+		int reSyncSrcFrom = 0;
+		while (srcFrom < srcTrack.size() || reSyncSrcFrom < reSyncSrcTrack.size()) {
+			int srcTo = windowEnd(srcTrack, srcFrom, windowLength);
+			int reSyncSrcTo = windowEnd(reSyncSrcTrack, reSyncSrcFrom, 2 * windowLength);
+			if (srcTo < srcTrack.size()) {
+				long windowEndMillis = srcTrack.getEndMillis(srcTo - 1) + offsetMillis + WINDOW_SLACK_MILLIS;
+				int reSyncSrcTimeTo = reSyncSrcFrom;
+				while (reSyncSrcTimeTo < reSyncSrcTo
+						&& reSyncSrcTrack.getStartMillis(reSyncSrcTimeTo) <= windowEndMillis) {
+					reSyncSrcTimeTo++;
+				}
+				reSyncSrcTo = reSyncSrcTimeTo;
+			}
+			List<SubtitleMatch> windowMatchList = ResynchroCore.computeMatchSameLanguage(
+					ResynchroCore.joinTextToCompare(srcTrack, srcFrom, srcTo),
+					ResynchroCore.joinTextToCompare(reSyncSrcTrack, reSyncSrcFrom, reSyncSrcTo),
+					materialize(srcTrack, srcFrom, srcTo), materialize(reSyncSrcTrack, reSyncSrcFrom, reSyncSrcTo));
+			if (srcTo == srcTrack.size() && reSyncSrcTo == reSyncSrcTrack.size()) {
+				matchList.addAll(windowMatchList);
+				break;
+			}
+			int srcLimit = limit(srcFrom, srcTo);
+			int reSyncSrcLimit = limit(reSyncSrcFrom, reSyncSrcTo);
+			int anchor = lastAnchor(windowMatchList, srcLimit, reSyncSrcLimit);
+			if (anchor < 0 && windowLength < maxWindowLength) {
+				LOGGER.fine("No anchor in window from cues " + (srcFrom + 1) + "/" + (reSyncSrcFrom + 1)
+						+ ", widening it");
+				windowLength = Math.min(2 * windowLength, maxWindowLength);
+				continue;
+			}
+			if (anchor < 0) {
+				LOGGER.fine("No anchor in window from cues " + (srcFrom + 1) + "/" + (reSyncSrcFrom + 1)
+						+ " within the memory budget, keeping its matches up to cues " + srcLimit + "/"
+						+ reSyncSrcLimit);
+				addMatchesBefore(windowMatchList, srcLimit, reSyncSrcLimit, matchList);
+				srcFrom = srcLimit;
+				reSyncSrcFrom = reSyncSrcLimit;
+			} else {
+				matchList.addAll(windowMatchList.subList(0, anchor + 1));
+				SubtitleMatch anchorMatch = windowMatchList.get(anchor);
+				srcFrom = index(anchorMatch.getLastA()) + 1;
+				reSyncSrcFrom = index(anchorMatch.getLastB()) + 1;
+				offsetMillis = anchorMatch.getLastB().getStartMillis() - anchorMatch.getLastA().getStartMillis();
+			}
+			windowLength = baseWindowLength;
+		}
+		return matchList;
+	}
+}
@@ -0,0 +1,431 @@
+package org.moussel.resynchrosub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Same language matching as one alignment of the cue sequences, in the way of
+ * Needleman-Wunsch: each operation of the alignment is a match, the path of
+ * best score gives the matches directly.
+ * <ul>
+ * <li>one cue of each track: a perfect match when their normalized texts
+ * differ at most by blanks, otherwise an approximate match when they are
+ * similar enough</li>
+ * <li>one cue of a track and two of the other one: a split, when the texts
+ * differ at most by blanks</li>
+ * <li>one cue of a track alone: a missing match</li>
+ * </ul>
+ * The texts are compared by their hash without blanks (the hash of two joined
+ * cues is computed from theirs) and the similarity by a bit set of their
+ * character bigrams: each operation is scored in constant time.
+ *
+ * The cues are aligned within the time band of
+ * {@link TimeBandedMatcher#band(long[], long[], long)}, widened the same way,
+ * and in linear memory (Hirschberg): the best path is split where it crosses
+ * the middle cue of the first track, and both halves are aligned again. Parts
+ * of the band small enough are aligned with the move of each cell kept for the
+ * path. The crossing is followed along the scores from the start, by the same
+ * moves as the path, so that the path is the same between equal scores
+ * whether the band is split or not.
+ */
+final class CueAligner {
+	static final Logger LOGGER = Logger.getLogger(CueAligner.class.getName());
+
+	/**
+	 * Minimum similarity of an approximate match, in percent of the bigrams of
+	 * both cues
+	 */
+	private static final int APPROX_MIN_SIMILARITY = 50;
+	/**
+	 * Parts of the band with at most this number of cells are aligned with the
+	 * moves kept
+	 */
+	static final int BASE_CELL_COUNT = 1 << 16;
+	private static final int GAP_SCORE = 0;
+	private static final long HASH_MULTIPLIER = 0x100000001b3L;
+	private static final int INVALID = Integer.MIN_VALUE / 2;
+	/**
+	 * Bounds the time of an alignment: a wider band is not aligned
+	 */
+	private static final long MAX_CELL_COUNT = 1L << 27;
+
+	/**
+	 * Operations, in the order preferred between equal scores, with the number
+	 * of cues of each track they align
+	 */
+	private static final byte PAIR = 0;
+	private static final byte SPLIT_2B_IS_1A = 1;
+	private static final byte SPLIT_2A_IS_1B = 2;
+	private static final byte MISSING_B = 3;
+	private static final byte MISSING_A = 4;
+	private static final int[] OPERATION_LENGTHS1 = {1, 1, 2, 1, 0};
+	private static final int[] OPERATION_LENGTHS2 = {1, 2, 1, 0, 1};
+
+	private static final int PERFECT_SCORE = 200;
+	private static final int SPLIT_SCORE = 300;
+
+	/**
+	 * @return the matches of both tracks, <code>null</code> if the band would be
+	 *         too wide
+	 */
+	static List<SubtitleMatch> computeMatchSameLanguage(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack) {
+		return computeMatchSameLanguage(srcTrack, reSyncSrcTrack, BASE_CELL_COUNT);
+	}
+
+	/**
+	 * @param baseCellCount
+	 *            parts of the band with at most this number of cells are
+	 *            aligned with the moves kept, the others are split
+	 */
+	static List<SubtitleMatch> computeMatchSameLanguage(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack,
+			int baseCellCount) {
+		long[] hashes1 = AnchoredMatcher.hashes(srcTrack);
+		long[] hashes2 = AnchoredMatcher.hashes(reSyncSrcTrack);
+		List<int[]> anchors = AnchoredMatcher.anchors(hashes1, 0, hashes1.length, hashes2, 0, hashes2.length);
+		long[] mappedStarts = TimeBandedMatcher.mappedStarts(srcTrack, reSyncSrcTrack, anchors);
+		long[] starts2 = TimeBandedMatcher.starts(reSyncSrcTrack);
+		long fullCellCount = (hashes1.length + 1L) * (hashes2.length + 1L);
+		CueAligner aligner = new CueAligner(srcTrack, reSyncSrcTrack, hashes1, hashes2, baseCellCount);
+		for (long width = Math.max(1, TimeBandedMatcher.BAND_WIDTH_MILLIS);; width *= 2) {
+			int[][] band = TimeBandedMatcher.band(mappedStarts, starts2, width);
+			long cellCount = TimeBandedMatcher.cellCount(band);
+			if (cellCount > MAX_CELL_COUNT) {
+				LOGGER.info("Time band of " + width + " ms too wide for a cue alignment (" + cellCount + " cells)");
+				return null;
+			}
+			List<SubtitleMatch> matchList = new ArrayList<>();
+			int score = aligner.align(band[0], band[1], matchList);
+			// The anchors alone, as perfect matches, are a path of the whole graph
+			if (score >= anchors.size() * PERFECT_SCORE || cellCount == fullCellCount) {
+				LOGGER.fine("Aligned " + hashes1.length + " and " + hashes2.length + " cues in a time band of " + width
+						+ " ms (" + cellCount + " cells)");
+				return matchList;
+			}
+			LOGGER.fine("Time band of " + width + " ms too narrow, score " + score + " for " + anchors.size()
+					+ " anchors");
+		}
+	}
+
+	/**
+	 * Compute the hash of the normalized text of each cue without its blanks,
+	 * the power of {@link #HASH_MULTIPLIER} to its length, and the bit set of
+	 * its character bigrams.
+	 */
+	private static void features(SubtitleTrack track, long[] compactHashes, long[] powers, long[] signatures) {
+		for (int i = 0; i < compactHashes.length; i++) {
+			String text = track.getNormalizedText(i);
+			long hash = 0;
+			long power = 1;
+			long signature = 0;
+			char previous = 0;
+			for (int k = 0; k < text.length(); k++) {
+				char c = text.charAt(k);
+				if (Character.isWhitespace(c)) {
+					continue;
+				}
+				hash = hash * HASH_MULTIPLIER + c;
+				power *= HASH_MULTIPLIER;
+				if (previous != 0) {
+					signature |= 1L << ((previous * 31 + c) * 0x9e3779b9 >>> 26);
+				}
+				previous = c;
+			}
+			compactHashes[i] = hash;
+			powers[i] = power;
+			signatures[i] = signature;
+		}
+	}
+
+	private static int plus(int score1, int score2) {
+		return score1 == INVALID || score2 == INVALID ? INVALID : score1 + score2;
+	}
+
+	private final int baseCellCount;
+	/** Moves and path of the parts aligned with the moves kept */
+	private byte[] baseMoves = new byte[0];
+	private byte[] basePath = new byte[0];
+	private int[] baseRowStarts = new int[0];
+	private final long[] compactHashes1;
+	private final long[] compactHashes2;
+	/** Crossings of the middle row of the current split, see forward */
+	private final ScoreRows crossingRows = new ScoreRows();
+	private final ScoreRows forwardRows = new ScoreRows();
+	private final long[] hashes1;
+	private final long[] hashes2;
+	/** The band of the current alignment */
+	private int[] high;
+	private int[] low;
+	private final long[] powers1;
+	private final long[] powers2;
+	private final long[] signatures1;
+	private final long[] signatures2;
+	private final List<Subtitle> subList1;
+	private final List<Subtitle> subList2;
+
+	private CueAligner(SubtitleTrack track1, SubtitleTrack track2, long[] hashes1, long[] hashes2,
+			int baseCellCount) {
+		this.baseCellCount = baseCellCount;
+		this.hashes1 = hashes1;
+		this.hashes2 = hashes2;
+		subList1 = ResynchroCore.materialize(track1);
+		subList2 = ResynchroCore.materialize(track2);
+		compactHashes1 = new long[hashes1.length];
+		powers1 = new long[hashes1.length];
+		signatures1 = new long[hashes1.length];
+		features(track1, compactHashes1, powers1, signatures1);
+		compactHashes2 = new long[hashes2.length];
+		powers2 = new long[hashes2.length];
+		signatures2 = new long[hashes2.length];
+		features(track2, compactHashes2, powers2, signatures2);
+	}
+
+	/**
+	 * Add the match of an operation from the given cues.
+	 */
+	private void addMatch(byte operation, int i, int j, List<SubtitleMatch> matchList) {
+		switch (operation) {
+			case PAIR :
+				matchList.add(new SubtitleMatch(subList1.get(i), subList2.get(j),
+						isPerfect(i, j) ? MatchingMode.PERFECT_MATCH : MatchingMode.APPROX_MATCH));
+				break;
+			case SPLIT_2B_IS_1A :
+				matchList.add(new SubtitleMatch(subList1.get(i), new Subtitle[]{subList2.get(j), subList2.get(j + 1)},
+						MatchingMode.SPLIT_2B_IS_1A));
+				break;
+			case SPLIT_2A_IS_1B :
+				matchList.add(new SubtitleMatch(new Subtitle[]{subList1.get(i), subList1.get(i + 1)}, subList2.get(j),
+						MatchingMode.SPLIT_2A_IS_1B));
+				break;
+			case MISSING_B :
+				matchList.add(new SubtitleMatch(subList1.get(i), MatchingMode.MISSING_B));
+				break;
+			default : // MISSING_A
+				matchList.add(new SubtitleMatch(subList2.get(j), MatchingMode.MISSING_A));
+				break;
+		}
+	}
+
+	/**
+	 * @return the score of the best path of the band, whose matches are added
+	 *         to the list
+	 */
+	private int align(int[] low, int[] high, List<SubtitleMatch> matchList) {
+		this.low = low;
+		this.high = high;
+		return align(0, 0, low.length - 1, high[high.length - 1], matchList);
+	}
+
+	/**
+	 * Add the matches of the best path from a cell to another one.
+	 *
+	 * @return the score of the path
+	 */
+	private int align(int i0, int j0, int i1, int j1, List<SubtitleMatch> matchList) {
+		long cellCount = 0;
+		for (int i = i0; i <= i1; i++) {
+			cellCount += Math.max(0, Math.min(high[i], j1) - Math.max(low[i], j0) + 1);
+		}
+		if (i1 - i0 <= 1 || cellCount <= baseCellCount) {
+			return alignBase(i0, j0, i1, j1, (int) cellCount, matchList);
+		}
+		int middle = (i0 + i1) >>> 1;
+		forward(i0, j0, i1, j1, null, middle);
+		int score = forwardRows.get(0, j1);
+		if (score == INVALID) {
+			throw new IllegalStateException("No path from " + i0 + "," + j0 + " to " + i1 + "," + j1);
+		}
+		int crossing = crossingRows.get(0, j1);
+		if (crossing < 0) {
+			// Over the middle row, with a split of two cues of the first track
+			int j = -1 - crossing;
+			align(i0, j0, middle - 1, j, matchList);
+			addMatch(SPLIT_2A_IS_1B, middle - 1, j, matchList);
+			align(middle + 1, j + 1, i1, j1, matchList);
+		} else {
+			align(i0, j0, middle, crossing, matchList);
+			align(middle, crossing, i1, j1, matchList);
+		}
+		return score;
+	}
+
+	/**
+	 * Align a part of the band with the move to each cell kept.
+	 */
+	private int alignBase(int i0, int j0, int i1, int j1, int cellCount, List<SubtitleMatch> matchList) {
+		if (baseMoves.length < cellCount) {
+			baseMoves = new byte[Math.max(cellCount, 2 * baseMoves.length)];
+		}
+		if (baseRowStarts.length < i1 - i0 + 1) {
+			baseRowStarts = new int[Math.max(i1 - i0 + 1, 2 * baseRowStarts.length)];
+		}
+		if (basePath.length < i1 - i0 + j1 - j0) {
+			basePath = new byte[Math.max(i1 - i0 + j1 - j0, 2 * basePath.length)];
+		}
+		forward(i0, j0, i1, j1, baseMoves, -1);
+		int score = forwardRows.get(0, j1);
+		if (score == INVALID) {
+			throw new IllegalStateException("No path from " + i0 + "," + j0 + " to " + i1 + "," + j1);
+		}
+		int length = 0;
+		for (int i = i1, j = j1; i > i0 || j > j0;) {
+			byte operation = baseMoves[baseRowStarts[i - i0] + j - Math.max(low[i], j0)];
+			basePath[length++] = operation;
+			i -= OPERATION_LENGTHS1[operation];
+			j -= OPERATION_LENGTHS2[operation];
+		}
+		for (int k = length - 1, i = i0, j = j0; k >= 0; k--) {
+			byte operation = basePath[k];
+			addMatch(operation, i, j, matchList);
+			i += OPERATION_LENGTHS1[operation];
+			j += OPERATION_LENGTHS2[operation];
+		}
+		return score;
+	}
+
+	/**
+	 * Compute the best scores from the first cell to each cell of the rows
+	 * <code>i1 - 1</code> and <code>i1</code>, and the best move to each cell
+	 * when <code>moves</code> is given.
+	 *
+	 * @param middle
+	 *            when not negative, each cell from this row on also gets where
+	 *            the path of its best moves crosses the row: the column of the
+	 *            cell of the path in the row, or <code>-1 - j</code> when the
+	 *            path goes over it by a split of the cues <code>middle - 1</code>
+	 *            and <code>middle</code> matching the cue <code>j</code>
+	 */
+	private void forward(int i0, int j0, int i1, int j1, byte[] moves, int middle) {
+		forwardRows.clear();
+		crossingRows.clear();
+		int rowStart = 0;
+		for (int i = i0; i <= i1; i++) {
+			int from = Math.max(low[i], j0);
+			int to = Math.min(high[i], j1);
+			forwardRows.next(from, to);
+			if (middle >= 0 && i >= middle) {
+				crossingRows.next(from, to);
+			}
+			if (moves != null) {
+				baseRowStarts[i - i0] = rowStart;
+				rowStart += Math.max(0, to - from + 1);
+			}
+			for (int j = from; j <= to; j++) {
+				int best = i == i0 && j == j0 ? 0 : INVALID;
+				byte move = 0;
+				for (byte operation = PAIR; operation <= MISSING_A; operation++) {
+					int length1 = OPERATION_LENGTHS1[operation];
+					int length2 = OPERATION_LENGTHS2[operation];
+					if (i - length1 >= i0) {
+						int score = forwardRows.get(length1, j - length2);
+						if (score != INVALID) {
+							score = plus(score, score(operation, i - length1, j - length2));
+							if (score > best) {
+								best = score;
+								move = operation;
+							}
+						}
+					}
+				}
+				forwardRows.set(j, best);
+				if (middle >= 0 && i >= middle) {
+					int fromI = i - OPERATION_LENGTHS1[move];
+					int fromJ = j - OPERATION_LENGTHS2[move];
+					crossingRows.set(j, i == middle || best == INVALID ? j
+							: fromI < middle ? -1 - fromJ : crossingRows.get(OPERATION_LENGTHS1[move], fromJ));
+				}
+				if (moves != null) {
+					moves[baseRowStarts[i - i0] + j - from] = move;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return both cues differ at most by blanks
+	 */
+	private boolean isPerfect(int i, int j) {
+		return hashes1[i] == hashes2[j] || compactHashes1[i] == compactHashes2[j];
+	}
+
+	/**
+	 * @return the score of an operation from the given cues, {@link #INVALID}
+	 *         if it does not apply to them
+	 */
+	private int score(byte operation, int i, int j) {
+		switch (operation) {
+			case PAIR :
+				if (isPerfect(i, j)) {
+					return PERFECT_SCORE;
+				}
+				long union = signatures1[i] | signatures2[j];
+				int similarity = union == 0 ? 0
+						: 100 * Long.bitCount(signatures1[i] & signatures2[j]) / Long.bitCount(union);
+				return similarity >= APPROX_MIN_SIMILARITY
+						? Math.min(PERFECT_SCORE - 1, PERFECT_SCORE * similarity / 100)
+						: INVALID;
+			case SPLIT_2B_IS_1A :
+				// Cues without text (power 1) are not split parts
+				return powers2[j] != 1 && powers2[j + 1] != 1
+						&& compactHashes1[i] == compactHashes2[j] * powers2[j + 1] + compactHashes2[j + 1]
+								? SPLIT_SCORE
+								: INVALID;
+			case SPLIT_2A_IS_1B :
+				return powers1[i] != 1 && powers1[i + 1] != 1
+						&& compactHashes2[j] == compactHashes1[i] * powers1[i + 1] + compactHashes1[i + 1]
+								? SPLIT_SCORE
+								: INVALID;
+			default : // MISSING_A, MISSING_B
+				return GAP_SCORE;
+		}
+	}
+
+	/**
+	 * The scores (or crossings) of the last three rows of a pass: row 0 is the
+	 * current one, rows 1 and 2 the one and two rows before. Each row has the
+	 * cells of its range only.
+	 */
+	private static final class ScoreRows {
+		private final int[] rowFrom = new int[3];
+		private final int[][] rows = {new int[0], new int[0], new int[0]};
+		private final int[] rowTo = new int[3];
+
+		void clear() {
+			for (int k = 0; k < 3; k++) {
+				rowFrom[k] = 0;
+				rowTo[k] = -1;
+			}
+		}
+
+		/**
+		 * @return the score of a cell, {@link CueAligner#INVALID} out of the range
+		 *         of its row
+		 */
+		int get(int row, int j) {
+			return j >= rowFrom[row] && j <= rowTo[row] ? rows[row][j - rowFrom[row]] : INVALID;
+		}
+
+		/**
+		 * Start a new current row, of the cells from <code>from</code> to
+		 * <code>to</code>.
+		 */
+		void next(int from, int to) {
+			int[] row = rows[2];
+			for (int k = 2; k > 0; k--) {
+				rows[k] = rows[k - 1];
+				rowFrom[k] = rowFrom[k - 1];
+				rowTo[k] = rowTo[k - 1];
+			}
+			if (row.length < to - from + 1) {
+				row = new int[Math.max(to - from + 1, 2 * row.length)];
+			}
+			rows[0] = row;
+			rowFrom[0] = from;
+			rowTo[0] = to;
+		}
+
+		void set(int j, int score) {
+			rows[0][j - rowFrom[0]] = score;
+		}
+	}
+}
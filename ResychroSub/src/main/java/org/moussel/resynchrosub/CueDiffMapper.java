@@ -0,0 +1,208 @@
+package org.moussel.resynchrosub;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+
+/**
+ * Matches of the cues of two texts from their diff, the texts being the cues
+ * joined with {@link ResynchroCore#SUB_SEPARATOR}. The offset of the end of
+ * each cue is computed once, and each diff is mapped to the cues it covers by
+ * comparing offsets: the diff texts are not split.
+ *
+ * Walking the diff, the cues of both texts are grouped between the points
+ * where both are at the start of a cue. A group of one cue on each side is a
+ * perfect match, or an approximate match if they differ by more than blanks;
+ * a group of two cues on one side and one on the other that differ only by
+ * blanks is a split; the cues of any other group are missing, in the order of
+ * the diff (see {@link ResynchroCore#mergeMissingMatches(List)}).
+ */
+final class CueDiffMapper {
+	private static final int SEPARATOR_LENGTH = ResynchroCore.SUB_SEPARATOR.length();
+
+	/**
+	 * @return the offset of the separator ending each cue
+	 */
+	private static int[] cueEnds(String text, int cueCount) {
+		int[] cueEnds = new int[cueCount];
+		int end = -SEPARATOR_LENGTH;
+		for (int i = 0; i < cueCount; i++) {
+			end = text.indexOf(ResynchroCore.SUB_SEPARATOR, end + SEPARATOR_LENGTH);
+			if (end < 0) {
+				throw new IllegalArgumentException("Text of " + i + " cues, " + cueCount + " expected");
+			}
+			cueEnds[i] = end;
+		}
+		return cueEnds;
+	}
+
+	/**
+	 * @return the text has more than blanks between two offsets
+	 */
+	private static boolean hasText(String text, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (!Character.isWhitespace(text.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static List<SubtitleMatch> computeMatches(List<Diff> diffList, String text1, String text2,
+			List<Subtitle> subList1, List<Subtitle> subList2) {
+		return new CueDiffMapper(text1, text2, subList1, subList2).map(diffList);
+	}
+
+	private final int[] cueEnds1;
+	private final int[] cueEnds2;
+	private int groupCount1;
+	private int groupCount2;
+	/** The current group has more than blank differences */
+	private boolean groupEdited;
+	/** Cues of the current group that ended, as missing matches */
+	private final List<SubtitleMatch> groupList = new ArrayList<>();
+	private final List<SubtitleMatch> matchList = new ArrayList<>();
+	/** Index of the next cue to end */
+	private int next1;
+	private int next2;
+	/** Offset in the texts */
+	private int offset1;
+	private int offset2;
+	private final List<Subtitle> subList1;
+	private final List<Subtitle> subList2;
+	private final String text1;
+	private final String text2;
+
+	private CueDiffMapper(String text1, String text2, List<Subtitle> subList1, List<Subtitle> subList2) {
+		this.text1 = text1;
+		this.text2 = text2;
+		this.subList1 = subList1;
+		this.subList2 = subList2;
+		this.cueEnds1 = cueEnds(text1, subList1.size());
+		this.cueEnds2 = cueEnds(text2, subList2.size());
+	}
+
+	/**
+	 * @return the offset in the first text is at the start of a cue
+	 */
+	private boolean atCueStart1() {
+		return offset1 == (next1 == 0 ? 0 : cueEnds1[next1 - 1] + SEPARATOR_LENGTH);
+	}
+
+	private boolean atCueStart2() {
+		return offset2 == (next2 == 0 ? 0 : cueEnds2[next2 - 1] + SEPARATOR_LENGTH);
+	}
+
+	/**
+	 * Add the matches of the current group, and start the next one.
+	 */
+	private void closeGroup() {
+		if (groupCount1 == 1 && groupCount2 == 1) {
+			matchList.add(new SubtitleMatch(subList1.get(next1 - 1), subList2.get(next2 - 1),
+					groupEdited ? MatchingMode.APPROX_MATCH : MatchingMode.PERFECT_MATCH));
+		} else if (groupCount1 == 2 && groupCount2 == 1 && !groupEdited) {
+			matchList.add(new SubtitleMatch(new Subtitle[]{subList1.get(next1 - 2), subList1.get(next1 - 1)},
+					subList2.get(next2 - 1), MatchingMode.SPLIT_2A_IS_1B));
+		} else if (groupCount1 == 1 && groupCount2 == 2 && !groupEdited) {
+			matchList.add(new SubtitleMatch(subList1.get(next1 - 1),
+					new Subtitle[]{subList2.get(next2 - 2), subList2.get(next2 - 1)}, MatchingMode.SPLIT_2B_IS_1A));
+		} else {
+			matchList.addAll(groupList);
+		}
+		groupList.clear();
+		groupCount1 = 0;
+		groupCount2 = 0;
+		groupEdited = false;
+	}
+
+	/**
+	 * Add the next cue of the first text to the current group.
+	 */
+	private void endCue1() {
+		groupList.add(new SubtitleMatch(subList1.get(next1++), MatchingMode.MISSING_B));
+		groupCount1++;
+	}
+
+	private void endCue2() {
+		groupList.add(new SubtitleMatch(subList2.get(next2++), MatchingMode.MISSING_A));
+		groupCount2++;
+	}
+
+	private List<SubtitleMatch> map(List<Diff> diffList) {
+		for (Diff diff : diffList) {
+			int length = diff.text.length();
+			switch (diff.operation) {
+				case DELETE :
+					mapDelete(offset1 + length);
+					break;
+				case INSERT :
+					mapInsert(offset2 + length);
+					break;
+				default : // EQUAL
+					mapEqual(length);
+					break;
+			}
+		}
+		// Cues not covered by the diff, if the texts were not fully diffed, are not matched
+		groupEdited |= offset1 < text1.length() || offset2 < text2.length();
+		while (next1 < cueEnds1.length) {
+			endCue1();
+		}
+		while (next2 < cueEnds2.length) {
+			endCue2();
+		}
+		closeGroup();
+		return ResynchroCore.mergeMissingMatches(matchList);
+	}
+
+	private void mapDelete(int end) {
+		while (next1 < cueEnds1.length && cueEnds1[next1] < end) {
+			groupEdited |= hasText(text1, offset1, cueEnds1[next1]);
+			offset1 = cueEnds1[next1] + SEPARATOR_LENGTH;
+			endCue1();
+			if (atCueStart2()) {
+				closeGroup();
+			}
+		}
+		groupEdited |= hasText(text1, offset1, end);
+		offset1 = end;
+	}
+
+	private void mapEqual(int length) {
+		int end1 = offset1 + length;
+		int end2 = offset2 + length;
+		while (next1 < cueEnds1.length && cueEnds1[next1] < end1) {
+			int end = cueEnds1[next1] - offset1;
+			// Both texts are equal: the separators are at the same place
+			while (next2 < cueEnds2.length && cueEnds2[next2] < offset2 + end) {
+				endCue2();
+			}
+			endCue1();
+			if (next2 < cueEnds2.length && cueEnds2[next2] == offset2 + end) {
+				endCue2();
+			}
+			offset1 += end + SEPARATOR_LENGTH;
+			offset2 += end + SEPARATOR_LENGTH;
+			closeGroup();
+		}
+		while (next2 < cueEnds2.length && cueEnds2[next2] < end2) {
+			endCue2();
+		}
+		offset1 = end1;
+		offset2 = end2;
+	}
+
+	private void mapInsert(int end) {
+		while (next2 < cueEnds2.length && cueEnds2[next2] < end) {
+			groupEdited |= hasText(text2, offset2, cueEnds2[next2]);
+			offset2 = cueEnds2[next2] + SEPARATOR_LENGTH;
+			endCue2();
+			if (atCueStart1()) {
+				closeGroup();
+			}
+		}
+		groupEdited |= hasText(text2, offset2, end);
+		offset2 = end;
+	}
+}
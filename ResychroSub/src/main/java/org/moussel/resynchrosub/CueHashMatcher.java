@@ -0,0 +1,363 @@
+package org.moussel.resynchrosub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+
+/**
+ * Same language matching in two stages: the tracks are first diffed cue by
+ * cue, each cue being one char standing for the hash of its normalized text
+ * (see {@link SubtitleTrack#normalizedTextHash(int)}). Equal cues are perfect
+ * matches; only the regions between them, where cues were split, merged or
+ * edited, are diffed character by character, along with the equal cue before
+ * and after them for context.
+ */
+final class CueHashMatcher {
+	/**
+	 * Regions with fewer cues are matched in the same task
+	 */
+	private static final int MIN_TASK_CUE_COUNT = 64;
+
+	/**
+	 * @return the matches of both tracks, <code>null</code> if they have more
+	 *         distinct cues than chars to encode them
+	 */
+	static List<SubtitleMatch> computeMatchSameLanguage(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack) {
+		Map<Long, Character> cueIds = new HashMap<>();
+		String cues1 = encode(srcTrack, cueIds);
+		String cues2 = cues1 != null ? encode(reSyncSrcTrack, cueIds) : null;
+		if (cues2 == null) {
+			return null;
+		}
+		CueRuns runs = new CueRuns();
+		for (Diff cueDiff : new CharArrayDiff().diff_main(cues1, cues2, false)) {
+			int length = cueDiff.text.length();
+			switch (cueDiff.operation) {
+				case DELETE :
+					runs.region(length, 0);
+					break;
+				case INSERT :
+					runs.region(0, length);
+					break;
+				default : // EQUAL
+					runs.equal(length);
+					break;
+			}
+		}
+		runs.end();
+		return matchRuns(srcTrack, reSyncSrcTrack, runs, ResynchroCore::computeMatchSameLanguage);
+	}
+
+	/**
+	 * @return one char per cue, <code>null</code> if there are too many distinct
+	 *         cues
+	 */
+	private static String encode(SubtitleTrack track, Map<Long, Character> cueIds) {
+		StringBuilder cues = new StringBuilder(track.size());
+		for (int i = 0; i < track.size(); i++) {
+			Long hash = track.normalizedTextHash(i);
+			Character cueId = cueIds.get(hash);
+			if (cueId == null) {
+				if (cueIds.size() > Character.MAX_VALUE) {
+					return null;
+				}
+				cueId = (char) cueIds.size();
+				cueIds.put(hash, cueId);
+			}
+			cues.append(cueId.charValue());
+		}
+		return cues.toString();
+	}
+
+	/**
+	 * @return <code>false</code> if the system property
+	 *         <code>resynchrosub.parallelAlignment</code> is
+	 *         <code>false</code>, read on each alignment
+	 */
+	static boolean isParallel() {
+		return Boolean.parseBoolean(System.getProperty("resynchrosub.parallelAlignment", Boolean.TRUE.toString()));
+	}
+
+	/**
+	 * Match the cues of a region where the tracks differ: missing cues when one
+	 * side is empty, otherwise with the region matcher.
+	 */
+	private static void matchRegion(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack, List<Subtitle> srcSubList,
+			List<Subtitle> reSyncSrcSubList, int from1, int to1, int from2, int to2, RegionMatcher regionMatcher,
+			List<SubtitleMatch> matchList) {
+		if (from1 == to1) {
+			for (int i = from2; i < to2; i++) {
+				matchList.add(new SubtitleMatch(reSyncSrcSubList.get(i), MatchingMode.MISSING_A));
+			}
+		} else if (from2 == to2) {
+			for (int i = from1; i < to1; i++) {
+				matchList.add(new SubtitleMatch(srcSubList.get(i), MatchingMode.MISSING_B));
+			}
+		} else {
+			matchList.addAll(regionMatcher.match(ResynchroCore.joinTextToCompare(srcTrack, from1, to1),
+					ResynchroCore.joinTextToCompare(reSyncSrcTrack, from2, to2),
+					new ArrayList<>(srcSubList.subList(from1, to1)),
+					new ArrayList<>(reSyncSrcSubList.subList(from2, to2))));
+		}
+	}
+
+	/**
+	 * Match both tracks from the runs of their cue diff: equal cues are perfect
+	 * matches, the regions in between are matched with the region matcher,
+	 * along with the equal cue before and after them for context.
+	 *
+	 * The regions are independent: unless
+	 * <code>resynchrosub.parallelAlignment</code> is <code>false</code>, they are
+	 * matched as fork-join tasks in the common pool. Their matches are put back
+	 * in the order of the runs, the result is the same as a sequential match.
+	 */
+	static List<SubtitleMatch> matchRuns(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack, CueRuns runs,
+			RegionMatcher regionMatcher) {
+		List<Subtitle> srcSubList = ResynchroCore.materialize(srcTrack);
+		List<Subtitle> reSyncSrcSubList = ResynchroCore.materialize(reSyncSrcTrack);
+		// Perfect matches and regions, in order
+		List<List<SubtitleMatch>> parts = new ArrayList<>();
+		List<Region> regions = new ArrayList<>();
+		List<SubtitleMatch> perfectMatchList = new ArrayList<>();
+		int index1 = 0;
+		int index2 = 0;
+		// The last match is a perfect match that can be the context of the next region
+		boolean leadingContext = false;
+		for (int run = 0; run < runs.size(); run++) {
+			int regionLength1 = runs.getRegionLength1(run);
+			int regionLength2 = runs.getRegionLength2(run);
+			int equalLength = runs.getEqualLength(run);
+			int skipped = 0;
+			if (regionLength1 > 0 || regionLength2 > 0) {
+				// The equal cues around the region are matched again with it
+				int lead = leadingContext ? 1 : 0;
+				int trail = equalLength > 0 ? 1 : 0;
+				if (leadingContext) {
+					perfectMatchList.remove(perfectMatchList.size() - 1);
+				}
+				parts.add(perfectMatchList);
+				perfectMatchList = new ArrayList<>();
+				Region region = new Region(index1 - lead, index1 + regionLength1 + trail, index2 - lead,
+						index2 + regionLength2 + trail);
+				regions.add(region);
+				parts.add(region.matchList);
+				skipped = trail;
+				index1 += regionLength1;
+				index2 += regionLength2;
+			}
+			for (int i = 0; i < equalLength; i++, index1++, index2++) {
+				if (i >= skipped) {
+					perfectMatchList.add(new SubtitleMatch(srcSubList.get(index1), reSyncSrcSubList.get(index2),
+							MatchingMode.PERFECT_MATCH));
+				}
+			}
+			leadingContext = equalLength > skipped;
+		}
+		parts.add(perfectMatchList);
+		int matchedRegionCount = 0;
+		long textLength = 0;
+		for (Region region : regions) {
+			if (region.from1 < region.to1 && region.from2 < region.to2) {
+				matchedRegionCount++;
+				textLength += textLength(srcSubList, region.from1, region.to1)
+						+ textLength(reSyncSrcSubList, region.from2, region.to2);
+			}
+		}
+		regionMatcher.plan(matchedRegionCount, textLength);
+		RegionTask task = new RegionTask(srcTrack, reSyncSrcTrack, srcSubList, reSyncSrcSubList, regionMatcher,
+				regions, 0, regions.size());
+		if (isParallel() && regions.size() > 1) {
+			ForkJoinPool.commonPool().invoke(task);
+		} else {
+			task.compute();
+		}
+		List<SubtitleMatch> matchList = new ArrayList<>(srcSubList.size());
+		for (List<SubtitleMatch> part : parts) {
+			matchList.addAll(part);
+		}
+		return ResynchroCore.mergeMissingMatches(matchList);
+	}
+
+	/**
+	 * @return the length of the texts of the cues from an index (inclusive) to
+	 *         another (exclusive)
+	 */
+	static long textLength(List<Subtitle> subList, int from, int to) {
+		long length = 0;
+		for (int i = from; i < to; i++) {
+			length += subList.get(i).getText().length();
+		}
+		return length;
+	}
+
+	private CueHashMatcher() {
+	}
+
+	/**
+	 * The cue diff of two tracks, as runs of a region where they differ (possibly
+	 * empty) followed by equal cues.
+	 */
+	static final class CueRuns {
+		private int pendingLength1;
+		private int pendingLength2;
+		private int[] runs = new int[3 * 16];
+		private int size;
+
+		private void add(int regionLength1, int regionLength2, int equalLength) {
+			if (3 * size == runs.length) {
+				runs = Arrays.copyOf(runs, runs.length * 2);
+			}
+			runs[3 * size] = regionLength1;
+			runs[3 * size + 1] = regionLength2;
+			runs[3 * size + 2] = equalLength;
+			size++;
+		}
+
+		/**
+		 * Add the region pending at the end, if any.
+		 */
+		void end() {
+			if (pendingLength1 > 0 || pendingLength2 > 0) {
+				add(pendingLength1, pendingLength2, 0);
+				pendingLength1 = 0;
+				pendingLength2 = 0;
+			}
+		}
+
+		void equal(int length) {
+			if (length == 0) {
+				return;
+			}
+			if (pendingLength1 == 0 && pendingLength2 == 0 && size > 0) {
+				runs[3 * size - 1] += length;
+			} else {
+				add(pendingLength1, pendingLength2, length);
+				pendingLength1 = 0;
+				pendingLength2 = 0;
+			}
+		}
+
+		int getEqualLength(int run) {
+			return runs[3 * run + 2];
+		}
+
+		int getRegionLength1(int run) {
+			return runs[3 * run];
+		}
+
+		int getRegionLength2(int run) {
+			return runs[3 * run + 1];
+		}
+
+		void region(int length1, int length2) {
+			pendingLength1 += length1;
+			pendingLength2 += length2;
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Cues of both tracks matched together, with their matches once done.
+	 */
+	private static final class Region {
+		final int from1;
+		final int from2;
+		final List<SubtitleMatch> matchList = new ArrayList<>();
+		final int to1;
+		final int to2;
+
+		Region(int from1, int to1, int from2, int to2) {
+			this.from1 = from1;
+			this.to1 = to1;
+			this.from2 = from2;
+			this.to2 = to2;
+		}
+
+		int cueCount() {
+			return to1 - from1 + to2 - from2;
+		}
+	}
+
+	/**
+	 * Matches the cues of a region where both tracks differ, from their texts to
+	 * compare joined with {@link ResynchroCore#SUB_SEPARATOR}. Distinct regions
+	 * may be matched concurrently.
+	 */
+	@FunctionalInterface
+	interface RegionMatcher {
+		List<SubtitleMatch> match(String srcText, String reSyncSrcText, List<Subtitle> srcSubList,
+				List<Subtitle> reSyncSrcSubList);
+
+		/**
+		 * Called once before any region is matched.
+		 *
+		 * @param regionCount
+		 *            the number of regions the matcher will match
+		 * @param textLength
+		 *            the length of the texts of their cues, on both sides
+		 */
+		default void plan(int regionCount, long textLength) {
+		}
+	}
+
+	/**
+	 * Matches a range of regions, split in two halves forked in parallel while
+	 * it has enough cues.
+	 */
+	private static final class RegionTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int from;
+		private final RegionMatcher regionMatcher;
+		private final List<Region> regions;
+		private final List<Subtitle> reSyncSrcSubList;
+		private final SubtitleTrack reSyncSrcTrack;
+		private final List<Subtitle> srcSubList;
+		private final SubtitleTrack srcTrack;
+		private final int to;
+
+		RegionTask(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack, List<Subtitle> srcSubList,
+				List<Subtitle> reSyncSrcSubList, RegionMatcher regionMatcher, List<Region> regions, int from,
+				int to) {
+			this.srcTrack = srcTrack;
+			this.reSyncSrcTrack = reSyncSrcTrack;
+			this.srcSubList = srcSubList;
+			this.reSyncSrcSubList = reSyncSrcSubList;
+			this.regionMatcher = regionMatcher;
+			this.regions = regions;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			int cueCount = 0;
+			for (int i = from; i < to && cueCount < MIN_TASK_CUE_COUNT; i++) {
+				cueCount += regions.get(i).cueCount();
+			}
+			if (to - from > 1 && cueCount >= MIN_TASK_CUE_COUNT) {
+				int middle = (from + to) >>> 1;
+				invokeAll(
+						new RegionTask(srcTrack, reSyncSrcTrack, srcSubList, reSyncSrcSubList, regionMatcher, regions,
+								from, middle),
+						new RegionTask(srcTrack, reSyncSrcTrack, srcSubList, reSyncSrcSubList, regionMatcher, regions,
+								middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				Region region = regions.get(i);
+				matchRegion(srcTrack, reSyncSrcTrack, srcSubList, reSyncSrcSubList, region.from1, region.to1,
+						region.from2, region.to2, regionMatcher, region.matchList);
+			}
+		}
+	}
+}
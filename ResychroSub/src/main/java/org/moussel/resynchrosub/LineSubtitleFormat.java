@@ -0,0 +1,138 @@
+package org.moussel.resynchrosub;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Base class of the line oriented text formats: the input is decoded and read
+ * line by line, the output is buffered and encoded, both with the explicit
+ * charset.
+ */
+abstract class LineSubtitleFormat implements SubtitleFormat {
+	static final String NEW_LINE = "\r\n";
+
+	/**
+	 * Add a cue to the track, normalizing its text if a normalizer is given.
+	 */
+	static void addCue(SubtitleTrack track, long startMillis, long endMillis, CharSequence text,
+			TextNormalizer normalizer) {
+		String normalizedText = null;
+		if (normalizer != null) {
+			normalizedText = normalizer.append(text, 0, text.length()).finish();
+		}
+		track.add(startMillis, endMillis, text, normalizedText);
+	}
+
+	private static StringBuilder appendPadded(StringBuilder sb, long value, int digits) {
+		String text = Long.toString(value);
+		for (int i = text.length(); i < digits; i++) {
+			sb.append('0');
+		}
+		return sb.append(text);
+	}
+
+	/**
+	 * Format a <code>H:MM:SS.f</code> clock time, rounded to the number of
+	 * fraction digits.
+	 */
+	static String formatClock(long millis, int hourDigits, char fractionSeparator, int fractionDigits) {
+		long unit = fractionDigits == 1 ? 100 : (fractionDigits == 2 ? 10 : 1);
+		long rounded = Math.max(0, (millis + unit / 2) / unit * unit);
+		StringBuilder sb = new StringBuilder(16);
+		appendPadded(sb, rounded / 3600000, hourDigits).append(':');
+		appendPadded(sb, (rounded / 60000) % 60, 2).append(':');
+		appendPadded(sb, (rounded / 1000) % 60, 2).append(fractionSeparator);
+		return appendPadded(sb, (rounded % 1000) / unit, fractionDigits).toString();
+	}
+
+	static BufferedReader newReader(ReadableByteChannel channel, Charset charset) {
+		return new BufferedReader(Channels.newReader(channel, charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), -1));
+	}
+
+	static Writer newWriter(WritableByteChannel channel, Charset charset) {
+		return new BufferedWriter(Channels.newWriter(channel, charset.newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE), -1));
+	}
+
+	/**
+	 * Parse a <code>[H:]M:S.f</code> clock time, the fraction being a decimal
+	 * fraction of a second (so <code>.5</code>, <code>.50</code> and
+	 * <code>.500</code> are all 500 ms).
+	 *
+	 * @return the time in milliseconds, -1 if the text is not a clock time
+	 */
+	static long parseClockMillis(String text, char fractionSeparator) {
+		String[] parts = text.trim().split(":", -1);
+		if (parts.length < 2 || parts.length > 3) {
+			return -1;
+		}
+		String secondsPart = parts[parts.length - 1];
+		int separator = secondsPart.indexOf(fractionSeparator);
+		String fraction = separator < 0 ? "" : secondsPart.substring(separator + 1);
+		long millis = 0;
+		for (int i = 0; i < parts.length; i++) {
+			String field = i == parts.length - 1 && separator >= 0 ? secondsPart.substring(0, separator) : parts[i];
+			long fieldValue = parseDigits(field);
+			if (fieldValue < 0) {
+				return -1;
+			}
+			millis = millis * 60 + fieldValue;
+		}
+		millis *= 1000;
+		if (!fraction.isEmpty()) {
+			long fractionValue = parseDigits(fraction.length() > 3 ? fraction.substring(0, 3) : fraction);
+			if (fractionValue < 0) {
+				return -1;
+			}
+			for (int i = fraction.length(); i < 3; i++) {
+				fractionValue *= 10;
+			}
+			millis += fractionValue;
+		}
+		return millis;
+	}
+
+	private static long parseDigits(String text) {
+		if (text.isEmpty() || text.length() > 9) {
+			return -1;
+		}
+		long result = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			result = result * 10 + (c - '0');
+		}
+		return result;
+	}
+
+	@Override
+	public SubtitleTrack read(ReadableByteChannel channel, Charset charset, boolean normalizeText)
+			throws IOException {
+		// Not closed, that would close the channel
+		BufferedReader reader = newReader(channel, charset);
+		SubtitleTrack track = readTrack(reader, normalizeText ? new TextNormalizer() : null);
+		track.trimToSize();
+		return track;
+	}
+
+	abstract SubtitleTrack readTrack(BufferedReader reader, TextNormalizer normalizer) throws IOException;
+
+	@Override
+	public void write(SubtitleTrack track, WritableByteChannel channel, Charset charset) throws IOException {
+		Writer writer = newWriter(channel, charset);
+		writeTrack(track, writer);
+		writer.flush();
+	}
+
+	abstract void writeTrack(SubtitleTrack track, Writer writer) throws IOException;
+}
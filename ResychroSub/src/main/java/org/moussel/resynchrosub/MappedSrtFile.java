@@ -0,0 +1,260 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * SRT file mapped in memory and scanned at the byte level: the cue timings are
+ * parsed, the cue texts are only kept as byte ranges of the mapping. Used when
+ * the texts are copied verbatim to the output, so they are never decoded nor
+ * re-encoded (see {@link SrtWriter#writeCue(int, long, long, ByteBuffer)}).
+ *
+ * Cues are recognized like {@link SrtTokenizer} does, which requires a charset
+ * encoding digits, <code>:,-&gt; </code> and line breaks as single ASCII bytes
+ * that never occur inside other characters (see {@link #isSupported(Charset)}).
+ */
+class MappedSrtFile {
+	private static final String ASCII_SAMPLE = "0123456789:, -->\r\n";
+
+	private static boolean isDigit(byte c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * @return true for the charsets compatible with ASCII, such as UTF-8 and the
+	 *         single byte charsets
+	 */
+	static boolean isSupported(Charset charset) {
+		CharsetEncoder encoder = charset.newEncoder();
+		if (encoder.maxBytesPerChar() > 4) {
+			// Stateful encodings, like ISO-2022
+			return false;
+		}
+		try {
+			ByteBuffer encoded = encoder.encode(CharBuffer.wrap(ASCII_SAMPLE));
+			return encoded.equals(StandardCharsets.US_ASCII.encode(ASCII_SAMPLE));
+		} catch (CharacterCodingException e) {
+			return false;
+		}
+	}
+
+	static MappedSrtFile map(Path file, Charset charset) throws IOException {
+		if (!isSupported(charset)) {
+			throw new IOException("Charset not supported for mapping: " + charset);
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("File too large to be mapped: " + file);
+			}
+			MappedSrtFile mapped = new MappedSrtFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()),
+					charset);
+			mapped.scan();
+			return mapped;
+		}
+	}
+
+	private final ByteBuffer buffer;
+	private final Charset charset;
+	private long endMillis;
+	private final int limit;
+	private long startMillis;
+	private final byte[][] terminators;
+	private int[] textEnds = new int[256];
+	private int[] textStarts = new int[256];
+	private long time;
+	private final SubtitleTrack track = new SubtitleTrack(1);
+	private int value;
+
+	private MappedSrtFile(ByteBuffer buffer, Charset charset) {
+		this.buffer = buffer;
+		this.charset = charset;
+		this.limit = buffer.limit();
+		List<byte[]> encodedTerminators = new ArrayList<>();
+		CharsetEncoder encoder = charset.newEncoder().onUnmappableCharacter(CodingErrorAction.REPORT);
+		for (String terminator : new String[]{"\r\n", "\n", "\r", "\u0085", "\u2028", "\u2029"}) {
+			try {
+				ByteBuffer encoded = encoder.encode(CharBuffer.wrap(terminator));
+				byte[] bytes = new byte[encoded.remaining()];
+				encoded.get(bytes);
+				encodedTerminators.add(bytes);
+			} catch (CharacterCodingException e) {
+				// Not a line terminator in this charset
+			}
+		}
+		this.terminators = encodedTerminators.toArray(new byte[0][]);
+	}
+
+	Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * Decode the text of a cue, for the occasional use; the bulk of the texts is
+	 * meant to be written with {@link #getTextBytes(int)}.
+	 */
+	String getText(int index) {
+		return charset.decode(getTextBytes(index)).toString();
+	}
+
+	/**
+	 * @return a read-only view of the encoded text of a cue in the mapping
+	 */
+	ByteBuffer getTextBytes(int index) {
+		ByteBuffer text = buffer.asReadOnlyBuffer();
+		text.limit(textEnds[index]);
+		text.position(textStarts[index]);
+		return text;
+	}
+
+	/**
+	 * @return the cue timings, the texts of this track are all empty
+	 */
+	SubtitleTrack getTrack() {
+		return track;
+	}
+
+	private boolean isFinalTerminator(int offset) {
+		for (byte[] terminator : terminators) {
+			if (limit - offset == terminator.length && matchBytes(offset, terminator)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean matchBytes(int offset, byte[] expected) {
+		for (int i = 0; i < expected.length; i++) {
+			if (buffer.get(offset + i) != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int matchDigits(int offset, int max) {
+		if (offset < 0 || offset >= limit || !isDigit(buffer.get(offset))) {
+			return -1;
+		}
+		value = 0;
+		int count = 0;
+		while (count < max && offset + count < limit && isDigit(buffer.get(offset + count))) {
+			value = value * 10 + (buffer.get(offset + count) - '0');
+			count++;
+		}
+		return offset + count;
+	}
+
+	/**
+	 * @return the end offset of the cue header at the offset, or -1 if there is
+	 *         no cue header there
+	 */
+	private int matchHeader(int offset) {
+		while (offset < limit && isDigit(buffer.get(offset))) {
+			offset++;
+		}
+		offset = matchLiteral(offset, "\r\n");
+		offset = matchTime(offset);
+		long start = time;
+		offset = matchLiteral(offset, " --> ");
+		offset = matchTime(offset);
+		long end = time;
+		offset = matchLiteral(offset, "\r\n");
+		if (offset < 0) {
+			return -1;
+		}
+		startMillis = start;
+		endMillis = end;
+		return offset;
+	}
+
+	private int matchLiteral(int offset, String literal) {
+		if (offset < 0 || offset + literal.length() > limit) {
+			return -1;
+		}
+		for (int i = 0; i < literal.length(); i++) {
+			if (buffer.get(offset + i) != literal.charAt(i)) {
+				return -1;
+			}
+		}
+		return offset + literal.length();
+	}
+
+	private int matchTime(int offset) {
+		offset = matchDigits(offset, 2);
+		long hours = value;
+		offset = matchLiteral(offset, ":");
+		offset = matchDigits(offset, 2);
+		long minutes = value;
+		offset = matchLiteral(offset, ":");
+		offset = matchDigits(offset, 2);
+		long seconds = value;
+		offset = matchLiteral(offset, ",");
+		offset = matchDigits(offset, 3);
+		time = ((hours * 60 + minutes) * 60 + seconds) * 1000 + value;
+		return offset;
+	}
+
+	private void scan() {
+		int pos = 0;
+		while (pos < limit) {
+			if (!isDigit(buffer.get(pos))) {
+				pos++;
+				continue;
+			}
+			int textStart = matchHeader(pos);
+			if (textStart < 0) {
+				// No cue starts anywhere in this run of digits
+				while (pos < limit && isDigit(buffer.get(pos))) {
+					pos++;
+				}
+				continue;
+			}
+			pos = textEnd(textStart);
+			int index = track.size();
+			if (index == textStarts.length) {
+				textStarts = Arrays.copyOf(textStarts, index * 2);
+				textEnds = Arrays.copyOf(textEnds, index * 2);
+			}
+			textStarts[index] = textStart;
+			textEnds[index] = pos;
+			track.add(startMillis, endMillis, "");
+		}
+		textStarts = Arrays.copyOf(textStarts, track.size());
+		textEnds = Arrays.copyOf(textEnds, track.size());
+		track.trimToSize();
+	}
+
+	int size() {
+		return track.size();
+	}
+
+	/**
+	 * @return the end offset of the text starting at the offset: the next blank
+	 *         line, or the end of the file ignoring a single trailing line
+	 *         terminator
+	 */
+	private int textEnd(int offset) {
+		for (int i = offset; i < limit; i++) {
+			if (limit - i <= 4 && isFinalTerminator(i)) {
+				return i;
+			}
+			if (buffer.get(i) == '\r' && i + 3 < limit && buffer.get(i + 1) == '\n' && buffer.get(i + 2) == '\r'
+					&& buffer.get(i + 3) == '\n') {
+				return i;
+			}
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,696 @@
+package org.moussel.resynchrosub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streaming reader of the text subtitle tracks (<code>S_TEXT/UTF8</code>) of a
+ * Matroska file.
+ *
+ * Only the top level element headers are read in sequence, and only up to the
+ * first cluster when the SeekHead locates the rest. The subtitle blocks the
+ * Cues point to are read first, with positional reads. The Cues may index only
+ * some of the blocks of a track, or none, so the clusters are then walked for
+ * the others: the element headers and the track number of each block are
+ * read, the payload of the other tracks' blocks is skipped, and the blocks
+ * already read from the Cues are not read again. The clusters are never read
+ * as a whole.
+ */
+class MatroskaReader implements Closeable {
+	static final String TEXT_CODEC = "S_TEXT/UTF8";
+
+	private static final int BLOCK = 0xA1;
+	private static final int BLOCK_DURATION = 0x9B;
+	private static final int BLOCK_GROUP = 0xA0;
+	private static final int CLUSTER = 0x1F43B675;
+	private static final int CLUSTER_TIMESTAMP = 0xE7;
+	private static final int CODEC_ID = 0x86;
+	private static final int CONTENT_COMP_ALGO = 0x4254;
+	private static final int CONTENT_COMP_SETTINGS = 0x4255;
+	private static final int CONTENT_COMPRESSION = 0x5034;
+	private static final int CONTENT_ENCODING = 0x6240;
+	private static final int CONTENT_ENCODINGS = 0x6D80;
+	private static final int CONTENT_ENCRYPTION = 0x5035;
+	private static final int CUE_CLUSTER_POSITION = 0xF1;
+	private static final int CUE_POINT = 0xBB;
+	private static final int CUE_RELATIVE_POSITION = 0xF0;
+	private static final int CUE_TRACK = 0xF7;
+	private static final int CUE_TRACK_POSITIONS = 0xB7;
+	private static final int CUES = 0x1C53BB6B;
+	private static final int DEFAULT_DURATION = 0x23E383;
+	private static final int DOC_TYPE = 0x4282;
+	private static final int EBML = 0x1A45DFA3;
+	private static final int INFO = 0x1549A966;
+	private static final int LANGUAGE = 0x22B59C;
+	private static final int LANGUAGE_IETF = 0x22B59D;
+	private static final Logger LOGGER = Logger.getLogger(MatroskaReader.class.getName());
+	private static final int MAX_ELEMENT_SIZE = 64 * 1024 * 1024;
+	private static final int NAME = 0x536E;
+	private static final int SEEK = 0x4DBB;
+	private static final int SEEK_HEAD = 0x114D9B74;
+	private static final int SEEK_ID = 0x53AB;
+	private static final int SEEK_POSITION = 0x53AC;
+	private static final int SEGMENT = 0x18538067;
+	private static final int SIMPLE_BLOCK = 0xA3;
+	private static final int TAGS = 0x1254C367;
+	private static final int TIMESTAMP_SCALE = 0x2AD7B1;
+	private static final int TRACK_ENTRY = 0xAE;
+	private static final int TRACK_NUMBER = 0xD7;
+	private static final int TRACKS = 0x1654AE6B;
+	private static final long UNKNOWN_SIZE = -1;
+
+	private static List<Element> children(ByteBuffer data) throws IOException {
+		List<Element> children = new ArrayList<>();
+		try {
+			while (data.hasRemaining()) {
+				int childId = (int) readVint(data, true);
+				long childSize = readVint(data, false);
+				if (childSize == UNKNOWN_SIZE || childSize > data.remaining()) {
+					childSize = data.remaining();
+				}
+				ByteBuffer childData = data.slice();
+				childData.limit((int) childSize);
+				data.position(data.position() + (int) childSize);
+				children.add(new Element(childId, childData));
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated Matroska element");
+		}
+		return children;
+	}
+
+	private static boolean isTopLevel(int elementId) {
+		return elementId == CLUSTER || elementId == CUES || elementId == INFO || elementId == SEEK_HEAD
+				|| elementId == TAGS || elementId == TRACKS;
+	}
+
+	private static String readString(ByteBuffer data) {
+		byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get(bytes);
+		int length = bytes.length;
+		while (length > 0 && bytes[length - 1] == 0) {
+			length--;
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private static long readUnsigned(ByteBuffer data) {
+		long value = 0;
+		for (int i = data.position(); i < data.limit(); i++) {
+			value = (value << 8) | (data.get(i) & 0xFF);
+		}
+		return value;
+	}
+
+	/**
+	 * Read an EBML variable size integer: an element id (keeping its length
+	 * marker) or an element size.
+	 *
+	 * @return the value, {@link #UNKNOWN_SIZE} for a size with all bits set
+	 */
+	private static long readVint(ByteBuffer data, boolean keepMarker) throws IOException {
+		int first = data.get() & 0xFF;
+		if (first == 0) {
+			throw new IOException("Invalid EBML variable size integer");
+		}
+		int length = Integer.numberOfLeadingZeros(first) - 23;
+		long value = keepMarker ? first : first & (0xFF >> length);
+		boolean allOnes = value == (0xFF >> length);
+		for (int i = 1; i < length; i++) {
+			int b = data.get() & 0xFF;
+			value = (value << 8) | b;
+			allOnes &= b == 0xFF;
+		}
+		return !keepMarker && allOnes ? UNKNOWN_SIZE : value;
+	}
+
+	/**
+	 * @return the text with <code>\r\n</code> line breaks, as in the other
+	 *         formats
+	 */
+	private static String toCueText(byte[] payload) {
+		String text = new String(payload, StandardCharsets.UTF_8);
+		int length = text.length();
+		while (length > 0 && text.charAt(length - 1) == 0) {
+			length--;
+		}
+		return text.substring(0, length).replace("\r\n", "\n").replace('\r', '\n').replace("\n", "\r\n");
+	}
+
+	private final FileChannel channel;
+	private final Map<Long, Long> clusterTimestamps = new HashMap<>();
+	private long cuesPosition = -1;
+	private final Path file;
+	private long firstClusterPosition = -1;
+	private final ByteBuffer header = ByteBuffer.allocate(12);
+	private int headerLength;
+	private int id;
+	private long segmentEnd;
+	private long segmentStart;
+	private long size;
+	private final List<TextTrack> textTracks = new ArrayList<>();
+	private long timestampScale = 1000000;
+	private boolean tracksRead;
+
+	MatroskaReader(Path file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			readHeaders();
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private long clusterTimestamp(long clusterPosition) throws IOException {
+		Long timestamp = clusterTimestamps.get(clusterPosition);
+		if (timestamp == null) {
+			timestamp = 0L;
+			if (!readHeader(clusterPosition) || id != CLUSTER) {
+				throw new IOException("No cluster at " + clusterPosition + " in " + file);
+			}
+			long clusterEnd = size == UNKNOWN_SIZE ? segmentEnd : clusterPosition + headerLength + size;
+			long position = clusterPosition + headerLength;
+			while (position < clusterEnd && readHeader(position) && size != UNKNOWN_SIZE) {
+				if (id == CLUSTER_TIMESTAMP) {
+					timestamp = readUnsigned(load(position + headerLength, size));
+					break;
+				}
+				position += headerLength + size;
+			}
+			clusterTimestamps.put(clusterPosition, timestamp);
+		}
+		return timestamp;
+	}
+
+	/**
+	 * @return the text tracks of the file, in file order
+	 */
+	List<TextTrack> getTextTracks() {
+		return Collections.unmodifiableList(textTracks);
+	}
+
+	private ByteBuffer load(long position, long length) throws IOException {
+		if (length < 0 || length > MAX_ELEMENT_SIZE) {
+			throw new IOException("Matroska element too large (" + length + " bytes) in " + file);
+		}
+		ByteBuffer data = ByteBuffer.allocate((int) length);
+		while (data.hasRemaining()) {
+			if (channel.read(data, position + data.position()) < 0) {
+				throw new IOException("Truncated Matroska file: " + file);
+			}
+		}
+		data.flip();
+		return data;
+	}
+
+	/**
+	 * @return why the track content cannot be decoded, <code>null</code> if it
+	 *         can
+	 */
+	private String parseContentEncodings(ByteBuffer data, TextTrack track) throws IOException {
+		for (Element encoding : children(data)) {
+			if (encoding.id != CONTENT_ENCODING) {
+				continue;
+			}
+			for (Element element : children(encoding.data)) {
+				if (element.id == CONTENT_ENCRYPTION) {
+					return "encrypted";
+				}
+				if (element.id == CONTENT_COMPRESSION) {
+					track.compression = TextTrack.COMPRESSION_ZLIB;
+					for (Element setting : children(element.data)) {
+						if (setting.id == CONTENT_COMP_ALGO) {
+							track.compression = (int) readUnsigned(setting.data);
+						} else if (setting.id == CONTENT_COMP_SETTINGS) {
+							track.compressionSettings = new byte[setting.data.remaining()];
+							setting.data.duplicate().get(track.compressionSettings);
+						}
+					}
+					if (track.compression != TextTrack.COMPRESSION_ZLIB
+							&& track.compression != TextTrack.COMPRESSION_HEADER_STRIPPING) {
+						// Such as bzlib (1) or lzo1x (2)
+						return "compressed with unsupported algorithm " + track.compression;
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	private void parseInfo(ByteBuffer data) throws IOException {
+		for (Element element : children(data)) {
+			if (element.id == TIMESTAMP_SCALE) {
+				timestampScale = readUnsigned(element.data);
+			}
+		}
+	}
+
+	private void parseSeekHead(ByteBuffer data, Map<Integer, Long> seekPositions) throws IOException {
+		for (Element seek : children(data)) {
+			if (seek.id != SEEK) {
+				continue;
+			}
+			long seekId = -1;
+			long seekPosition = -1;
+			for (Element element : children(seek.data)) {
+				if (element.id == SEEK_ID) {
+					seekId = readUnsigned(element.data);
+				} else if (element.id == SEEK_POSITION) {
+					seekPosition = readUnsigned(element.data);
+				}
+			}
+			if (seekId >= 0 && seekPosition >= 0) {
+				seekPositions.putIfAbsent((int) seekId, segmentStart + seekPosition);
+			}
+		}
+	}
+
+	private void parseTracks(ByteBuffer data) throws IOException {
+		tracksRead = true;
+		for (Element entry : children(data)) {
+			if (entry.id != TRACK_ENTRY) {
+				continue;
+			}
+			TextTrack track = new TextTrack();
+			String codecId = null;
+			String language = "eng";
+			String languageIetf = null;
+			String unsupported = null;
+			for (Element element : children(entry.data)) {
+				switch (element.id) {
+					case TRACK_NUMBER :
+						track.number = readUnsigned(element.data);
+						break;
+					case CODEC_ID :
+						codecId = readString(element.data);
+						break;
+					case LANGUAGE :
+						language = readString(element.data);
+						break;
+					case LANGUAGE_IETF :
+						languageIetf = readString(element.data);
+						break;
+					case NAME :
+						track.name = readString(element.data);
+						break;
+					case DEFAULT_DURATION :
+						track.defaultDuration = readUnsigned(element.data);
+						break;
+					case CONTENT_ENCODINGS :
+						unsupported = parseContentEncodings(element.data, track);
+						break;
+					default :
+						break;
+				}
+			}
+			track.language = languageIetf != null ? languageIetf : language;
+			if (TEXT_CODEC.equals(codecId)) {
+				if (unsupported == null) {
+					textTracks.add(track);
+				} else {
+					LOGGER.warning("Skipping subtitle track " + track.number + " of " + file + ", " + unsupported);
+				}
+			}
+		}
+	}
+
+	private long peekTrackNumber(long position) throws IOException {
+		ByteBuffer data = ByteBuffer.allocate(8);
+		channel.read(data, position);
+		data.flip();
+		try {
+			return readVint(data, false);
+		} catch (BufferUnderflowException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Read a SimpleBlock or a BlockGroup, adding it to the cues if it belongs to
+	 * the track.
+	 */
+	private void readBlock(long position, long clusterTimestamp, TextTrack track, List<BlockCue> cues)
+			throws IOException {
+		if (!readHeader(position) || size == UNKNOWN_SIZE) {
+			return;
+		}
+		if (id == SIMPLE_BLOCK) {
+			readBlockData(load(position + headerLength, size), clusterTimestamp, -1, track, cues);
+		} else if (id == BLOCK_GROUP) {
+			ByteBuffer block = null;
+			long duration = -1;
+			for (Element element : children(load(position + headerLength, size))) {
+				if (element.id == BLOCK) {
+					block = element.data;
+				} else if (element.id == BLOCK_DURATION) {
+					duration = readUnsigned(element.data);
+				}
+			}
+			if (block != null) {
+				readBlockData(block, clusterTimestamp, duration, track, cues);
+			}
+		}
+	}
+
+	private void readBlockData(ByteBuffer data, long clusterTimestamp, long duration, TextTrack track,
+			List<BlockCue> cues) throws IOException {
+		try {
+			if (readVint(data, false) != track.number) {
+				return;
+			}
+			long timestamp = clusterTimestamp + data.getShort();
+			int flags = data.get() & 0xFF;
+			if ((flags & 0x06) != 0) {
+				LOGGER.warning("Skipping laced subtitle block of track " + track.number + " in " + file);
+				return;
+			}
+			byte[] payload = new byte[data.remaining()];
+			data.get(payload);
+			BlockCue cue = new BlockCue();
+			cue.startMillis = timestamp * timestampScale / 1000000;
+			if (duration >= 0) {
+				cue.endMillis = (timestamp + duration) * timestampScale / 1000000;
+			} else if (track.defaultDuration > 0) {
+				cue.endMillis = cue.startMillis + track.defaultDuration / 1000000;
+			} else {
+				cue.endMillis = -1;
+			}
+			cue.text = toCueText(track.decode(payload));
+			cues.add(cue);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated Matroska block in " + file);
+		}
+	}
+
+	/**
+	 * Read the element header at the position into {@link #id}, {@link #size}
+	 * and {@link #headerLength}.
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean readHeader(long position) throws IOException {
+		header.clear();
+		while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+			// Read up to the longest header
+		}
+		header.flip();
+		if (!header.hasRemaining()) {
+			return false;
+		}
+		try {
+			id = (int) readVint(header, true);
+			size = readVint(header, false);
+		} catch (BufferUnderflowException e) {
+			return false;
+		}
+		headerLength = header.position();
+		return true;
+	}
+
+	/**
+	 * Read the EBML header, the segment top level elements up to the first
+	 * cluster, and those located after it by the SeekHead.
+	 */
+	private void readHeaders() throws IOException {
+		if (!readHeader(0) || id != EBML) {
+			throw new IOException("Not a Matroska file: " + file);
+		}
+		String docType = "matroska";
+		for (Element element : children(load(headerLength, size))) {
+			if (element.id == DOC_TYPE) {
+				docType = readString(element.data);
+			}
+		}
+		if (!"matroska".equals(docType) && !"webm".equals(docType)) {
+			throw new IOException("Unsupported EBML document type " + docType + ": " + file);
+		}
+		long position = headerLength + size;
+		if (!readHeader(position) || id != SEGMENT) {
+			throw new IOException("No Matroska segment in " + file);
+		}
+		segmentStart = position + headerLength;
+		segmentEnd = size == UNKNOWN_SIZE ? channel.size() : Math.min(channel.size(), segmentStart + size);
+
+		Map<Integer, Long> seekPositions = new HashMap<>();
+		boolean infoRead = false;
+		position = segmentStart;
+		while (position < segmentEnd && readHeader(position)) {
+			long dataStart = position + headerLength;
+			switch (id) {
+				case SEEK_HEAD :
+					parseSeekHead(load(dataStart, size), seekPositions);
+					break;
+				case INFO :
+					parseInfo(load(dataStart, size));
+					infoRead = true;
+					break;
+				case TRACKS :
+					parseTracks(load(dataStart, size));
+					break;
+				case CUES :
+					cuesPosition = position;
+					break;
+				case CLUSTER :
+					if (firstClusterPosition < 0) {
+						firstClusterPosition = position;
+					}
+					break;
+				default :
+					break;
+			}
+			boolean located = tracksRead && (cuesPosition >= 0 || seekPositions.containsKey(CUES))
+					&& (infoRead || seekPositions.containsKey(INFO));
+			if (size == UNKNOWN_SIZE || (firstClusterPosition >= 0 && located)) {
+				// No need to go through the clusters
+				break;
+			}
+			position = dataStart + size;
+		}
+		if (!infoRead && seekPositions.containsKey(INFO) && readHeader(seekPositions.get(INFO)) && id == INFO) {
+			parseInfo(load(seekPositions.get(INFO) + headerLength, size));
+		}
+		if (!tracksRead && seekPositions.containsKey(TRACKS) && readHeader(seekPositions.get(TRACKS))
+				&& id == TRACKS) {
+			parseTracks(load(seekPositions.get(TRACKS) + headerLength, size));
+		}
+		if (cuesPosition < 0 && seekPositions.containsKey(CUES)) {
+			cuesPosition = seekPositions.get(CUES);
+		}
+	}
+
+	/**
+	 * Read the cues of a text track.
+	 *
+	 * @param normalizeText
+	 *            also compute the normalized text of the cues
+	 */
+	SubtitleTrack readTrack(TextTrack track, boolean normalizeText) throws IOException {
+		List<BlockCue> cues = new ArrayList<>();
+		Set<Long> readBlocks = new HashSet<>();
+		boolean indexed = false;
+		if (cuesPosition >= 0 && readHeader(cuesPosition) && id == CUES && size != UNKNOWN_SIZE) {
+			for (Element cuePoint : children(load(cuesPosition + headerLength, size))) {
+				if (cuePoint.id != CUE_POINT) {
+					continue;
+				}
+				for (Element positions : children(cuePoint.data)) {
+					if (positions.id != CUE_TRACK_POSITIONS) {
+						continue;
+					}
+					long cueTrack = -1;
+					long clusterPosition = -1;
+					long relativePosition = -1;
+					for (Element element : children(positions.data)) {
+						if (element.id == CUE_TRACK) {
+							cueTrack = readUnsigned(element.data);
+						} else if (element.id == CUE_CLUSTER_POSITION) {
+							clusterPosition = segmentStart + readUnsigned(element.data);
+						} else if (element.id == CUE_RELATIVE_POSITION) {
+							relativePosition = readUnsigned(element.data);
+						}
+					}
+					if (cueTrack != track.number || clusterPosition < 0) {
+						continue;
+					}
+					indexed = true;
+					if (relativePosition >= 0 && readHeader(clusterPosition) && id == CLUSTER) {
+						long blockPosition = clusterPosition + headerLength + relativePosition;
+						if (readBlocks.add(blockPosition)) {
+							readBlock(blockPosition, clusterTimestamp(clusterPosition), track, cues);
+						}
+					}
+				}
+			}
+		}
+		if (!indexed) {
+			LOGGER.fine("No Cues for subtitle track " + track.number + " of " + file);
+		}
+		// The blocks the Cues leave out
+		long position = firstClusterPosition;
+		while (position >= 0 && position < segmentEnd && readHeader(position)) {
+			if (id == CLUSTER) {
+				position = scanCluster(position, track, cues, readBlocks);
+			} else if (size == UNKNOWN_SIZE) {
+				break;
+			} else {
+				position += headerLength + size;
+			}
+		}
+		return toSubtitleTrack(cues, normalizeText);
+	}
+
+	/**
+	 * Read the blocks of the track in a cluster, skipping the payload of the
+	 * other tracks' blocks.
+	 *
+	 * @return the position following the cluster
+	 */
+	private long scanCluster(long clusterPosition, TextTrack track, List<BlockCue> cues, Set<Long> readBlocks)
+			throws IOException {
+		if (!readHeader(clusterPosition) || id != CLUSTER) {
+			return segmentEnd;
+		}
+		boolean unknownSize = size == UNKNOWN_SIZE;
+		long clusterEnd = unknownSize ? segmentEnd : clusterPosition + headerLength + size;
+		long position = clusterPosition + headerLength;
+		long timestamp = clusterTimestamp(clusterPosition);
+		while (position < clusterEnd && readHeader(position)) {
+			if (size == UNKNOWN_SIZE || (unknownSize && isTopLevel(id))) {
+				return position;
+			}
+			int elementId = id;
+			long elementEnd = position + headerLength + size;
+			long dataStart = position + headerLength;
+			if (elementId == SIMPLE_BLOCK && peekTrackNumber(dataStart) == track.number
+					|| elementId == BLOCK_GROUP && readHeader(dataStart) && id == BLOCK
+							&& peekTrackNumber(dataStart + headerLength) == track.number) {
+				if (readBlocks.add(position)) {
+					readBlock(position, timestamp, track, cues);
+				}
+			}
+			position = elementEnd;
+		}
+		return clusterEnd;
+	}
+
+	private SubtitleTrack toSubtitleTrack(List<BlockCue> cues, boolean normalizeText) {
+		Collections.sort(cues, (a, b) -> Long.compare(a.startMillis, b.startMillis));
+		TextNormalizer normalizer = normalizeText ? new TextNormalizer() : null;
+		SubtitleTrack subtitleTrack = new SubtitleTrack(cues.size());
+		for (int i = 0; i < cues.size(); i++) {
+			BlockCue cue = cues.get(i);
+			long end = cue.endMillis;
+			if (end < 0) {
+				// No duration: until the next cue
+				end = i + 1 < cues.size() ? cues.get(i + 1).startMillis : cue.startMillis;
+			}
+			String normalizedText = normalizer != null ? normalizer.append(cue.text, 0, cue.text.length()).finish()
+					: null;
+			subtitleTrack.add(cue.startMillis, end, cue.text, normalizedText);
+		}
+		subtitleTrack.trimToSize();
+		return subtitleTrack;
+	}
+
+	private static class BlockCue {
+		long endMillis;
+		long startMillis;
+		String text;
+	}
+
+	private static class Element {
+		final ByteBuffer data;
+		final int id;
+
+		Element(int id, ByteBuffer data) {
+			this.id = id;
+			this.data = data;
+		}
+	}
+
+	/**
+	 * A text subtitle track of the file.
+	 */
+	static class TextTrack {
+		static final int COMPRESSION_HEADER_STRIPPING = 3;
+		static final int COMPRESSION_NONE = -1;
+		static final int COMPRESSION_ZLIB = 0;
+
+		int compression = COMPRESSION_NONE;
+		byte[] compressionSettings = new byte[0];
+		long defaultDuration;
+		String language;
+		String name;
+		long number;
+
+		byte[] decode(byte[] payload) throws IOException {
+			switch (compression) {
+				case COMPRESSION_ZLIB :
+					Inflater inflater = new Inflater();
+					try {
+						inflater.setInput(payload);
+						byte[] buffer = new byte[Math.max(64, payload.length * 4)];
+						int length = 0;
+						while (!inflater.finished()) {
+							if (length == buffer.length) {
+								buffer = Arrays.copyOf(buffer, buffer.length * 2);
+							}
+							int inflated = inflater.inflate(buffer, length, buffer.length - length);
+							if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+								break;
+							}
+							length += inflated;
+						}
+						return Arrays.copyOf(buffer, length);
+					} catch (DataFormatException e) {
+						throw new IOException("Invalid compressed subtitle block", e);
+					} finally {
+						inflater.end();
+					}
+				case COMPRESSION_HEADER_STRIPPING :
+					byte[] decoded = new byte[compressionSettings.length + payload.length];
+					System.arraycopy(compressionSettings, 0, decoded, 0, compressionSettings.length);
+					System.arraycopy(payload, 0, decoded, compressionSettings.length, payload.length);
+					return decoded;
+				default :
+					return payload;
+			}
+		}
+
+		String getLanguage() {
+			return language;
+		}
+
+		String getName() {
+			return name;
+		}
+
+		long getNumber() {
+			return number;
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A text subtitle track embedded in a Matroska (<code>.mkv</code>,
+ * <code>.webm</code>) file, read in place with {@link MatroskaReader}.
+ */
+public class MatroskaTrackSource implements SubtitleSource {
+	private static final Map<String, String> TWO_LETTER_LANGUAGES = new HashMap<>();
+
+	static {
+		for (String language : Locale.getISOLanguages()) {
+			TWO_LETTER_LANGUAGES.put(new Locale(language).getISO3Language(), language);
+		}
+		// ISO 639-2 bibliographic codes, used by Matroska
+		String[] bibliographic = { "alb", "sq", "arm", "hy", "baq", "eu", "bur", "my", "chi", "zh", "cze", "cs", "dut",
+				"nl", "fre", "fr", "geo", "ka", "ger", "de", "gre", "el", "ice", "is", "mac", "mk", "mao", "mi", "may",
+				"ms", "per", "fa", "rum", "ro", "slo", "sk", "tib", "bo", "wel", "cy" };
+		for (int i = 0; i < bibliographic.length; i += 2) {
+			TWO_LETTER_LANGUAGES.put(bibliographic[i], bibliographic[i + 1]);
+		}
+	}
+
+	public static boolean isMatroska(String fileName) {
+		String lowerCase = fileName.toLowerCase(Locale.ROOT);
+		return lowerCase.endsWith(".mkv") || lowerCase.endsWith(".webm");
+	}
+
+	/**
+	 * @return the text subtitle tracks of the file
+	 */
+	public static List<MatroskaTrackSource> listTextTracks(Path file) throws IOException {
+		List<MatroskaTrackSource> sources = new ArrayList<>();
+		try (MatroskaReader reader = new MatroskaReader(file)) {
+			for (MatroskaReader.TextTrack track : reader.getTextTracks()) {
+				sources.add(new MatroskaTrackSource(file, track.getNumber(), toTwoLetterLanguage(track.getLanguage()),
+						track.getName()));
+			}
+		}
+		return sources;
+	}
+
+	/**
+	 * @return the ISO 639-1 code of a Matroska language (ISO 639-2 or BCP 47),
+	 *         the language itself if there is none
+	 */
+	static String toTwoLetterLanguage(String language) {
+		String primary = language.split("-", 2)[0].toLowerCase(Locale.ROOT);
+		if (primary.length() == 2) {
+			return primary;
+		}
+		return TWO_LETTER_LANGUAGES.getOrDefault(primary, primary);
+	}
+
+	private final Path file;
+	private final String lang;
+	private final String trackName;
+	private final long trackNumber;
+
+	public MatroskaTrackSource(Path file, long trackNumber, String lang, String trackName) {
+		this.file = file;
+		this.trackNumber = trackNumber;
+		this.lang = lang;
+		this.trackName = trackName;
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	public String getLang() {
+		return lang;
+	}
+
+	@Override
+	public String getName() {
+		return file + "#" + trackNumber + (trackName != null ? " (" + trackName + ")" : "");
+	}
+
+	public long getTrackNumber() {
+		return trackNumber;
+	}
+
+	@Override
+	public SubtitleTrack load(boolean normalizeText) throws IOException {
+		try (MatroskaReader reader = new MatroskaReader(file)) {
+			for (MatroskaReader.TextTrack track : reader.getTextTracks()) {
+				if (track.getNumber() == trackNumber) {
+					return reader.readTrack(track, normalizeText);
+				}
+			}
+		}
+		throw new IOException("No text subtitle track " + trackNumber + " in " + file);
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
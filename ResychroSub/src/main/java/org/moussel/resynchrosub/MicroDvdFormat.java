@@ -0,0 +1,130 @@
+package org.moussel.resynchrosub;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MicroDVD (<code>.sub</code>) format: <code>{start}{end}text</code> lines
+ * where times are frame numbers and <code>|</code> separates text lines.
+ *
+ * Frames are converted with the frame rate given at creation, unless the file
+ * declares its own with a <code>{1}{1}25.000</code> first line. Written tracks
+ * always start with such a declaration.
+ *
+ * The <code>.sub</code> extension is also the one of the VobSub image
+ * subtitles: a file is only taken as MicroDVD if its first line is a cue line.
+ */
+public class MicroDvdFormat extends LineSubtitleFormat {
+	public static final double DEFAULT_FRAME_RATE = 23.976;
+
+	private static final Pattern CUE_LINE = Pattern.compile("\\{(\\d+)\\}\\{(\\d+)\\}(.*)");
+	/**
+	 * Bytes read to find the first line of a file
+	 */
+	private static final int SNIFF_LENGTH = 4096;
+	private static final Pattern STYLE_CODE = Pattern.compile("\\{[^}]*\\}");
+
+	private final double frameRate;
+
+	public MicroDvdFormat() {
+		this(DEFAULT_FRAME_RATE);
+	}
+
+	public MicroDvdFormat(double frameRate) {
+		if (!(frameRate > 0)) {
+			throw new IllegalArgumentException("Invalid frame rate: " + frameRate);
+		}
+		this.frameRate = frameRate;
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return Collections.singletonList("sub");
+	}
+
+	public double getFrameRate() {
+		return frameRate;
+	}
+
+	@Override
+	public String getName() {
+		return "MicroDVD";
+	}
+
+	/**
+	 * @return the first line that is not blank is a cue line (or the frame rate
+	 *         declaration), after an optional UTF-8 byte order mark
+	 */
+	@Override
+	public boolean matches(InputStream in) throws IOException {
+		byte[] start = new byte[SNIFF_LENGTH];
+		int length = 0;
+		int read;
+		while (length < start.length && (read = in.read(start, length, start.length - length)) > 0) {
+			length += read;
+		}
+		// The cue line syntax is ASCII, whatever the charset of the texts
+		String text = new String(start, 0, length, StandardCharsets.ISO_8859_1);
+		if (text.startsWith("\u00EF\u00BB\u00BF")) {
+			text = text.substring(3);
+		}
+		for (String line : text.split("[\\r\\n]+")) {
+			if (!line.trim().isEmpty()) {
+				return CUE_LINE.matcher(line.trim()).matches();
+			}
+		}
+		return false;
+	}
+
+	@Override
+	SubtitleTrack readTrack(BufferedReader reader, TextNormalizer normalizer) throws IOException {
+		SubtitleTrack track = new SubtitleTrack();
+		double fps = frameRate;
+		boolean first = true;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			Matcher ma = CUE_LINE.matcher(line.trim());
+			if (!ma.matches()) {
+				continue;
+			}
+			long startFrame = Long.parseLong(ma.group(1));
+			long endFrame = Long.parseLong(ma.group(2));
+			String text = ma.group(3);
+			if (first && startFrame == endFrame && startFrame <= 1) {
+				first = false;
+				try {
+					double declared = Double.parseDouble(text.trim());
+					if (declared > 0) {
+						fps = declared;
+						continue;
+					}
+				} catch (NumberFormatException e) {
+					// Regular cue
+				}
+			}
+			first = false;
+			addCue(track, Math.round(startFrame * 1000 / fps), Math.round(endFrame * 1000 / fps),
+					STYLE_CODE.matcher(text).replaceAll("").replace("|", NEW_LINE), normalizer);
+		}
+		return track;
+	}
+
+	@Override
+	void writeTrack(SubtitleTrack track, Writer writer) throws IOException {
+		writer.write("{1}{1}" + frameRate);
+		writer.write(NEW_LINE);
+		for (int i = 0; i < track.size(); i++) {
+			writer.write("{" + Math.round(track.getStartMillis(i) * frameRate / 1000) + "}{"
+					+ Math.round(track.getEndMillis(i) * frameRate / 1000) + "}");
+			writer.write(track.getText(i).replace(NEW_LINE, "|").replace('\n', '|').replace('\r', '|'));
+			writer.write(NEW_LINE);
+		}
+	}
+}
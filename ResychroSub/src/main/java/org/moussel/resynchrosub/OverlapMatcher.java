@@ -0,0 +1,213 @@
+package org.moussel.resynchrosub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Matching of two tracks of the same version on their times only: the cues
+ * may be split or merged differently, in any number, but they keep their
+ * times.
+ *
+ * The cues of both tracks are swept in start time order. Cues starting before
+ * the end of the current cluster join it, whatever their track. Each cluster
+ * is then cut into groups of cues linked by overlaps between the cues of both
+ * tracks (overlapping by {@link ResynchroTimeHelper#CLOSE_ENOUGH_MILLIS}, or by
+ * half of the shorter cue):
+ * <ul>
+ * <li>one cue of each track: a perfect match when they also start and end at
+ * the same time, otherwise an approximate match</li>
+ * <li>one cue of a track and several of the other one: a split, whatever the
+ * number of parts</li>
+ * <li>several cues of both tracks: an approximate match</li>
+ * </ul>
+ * A cue overlapping no cue of the other track is missing. Each match has the
+ * overlap ratio of its group (see {@link SubtitleMatch#getOverlapRatio()}).
+ */
+final class OverlapMatcher {
+	private static final long PRECISION = ResynchroTimeHelper.CLOSE_ENOUGH_MILLIS;
+
+	/**
+	 * @return the matches of both lists, in the start time order of their first
+	 *         cue
+	 */
+	static List<SubtitleMatch> computeMatches(List<Subtitle> subList1, List<Subtitle> subList2) {
+		List<Subtitle> sorted1 = sortedByStart(subList1);
+		List<Subtitle> sorted2 = sortedByStart(subList2);
+		List<SubtitleMatch> matchList = new ArrayList<>(Math.max(sorted1.size(), sorted2.size()));
+		List<Subtitle> cluster1 = new ArrayList<>();
+		List<Subtitle> cluster2 = new ArrayList<>();
+		long clusterEnd = 0;
+		int i = 0;
+		int j = 0;
+		while (i < sorted1.size() || j < sorted2.size()) {
+			boolean first = j == sorted2.size()
+					|| (i < sorted1.size() && sorted1.get(i).getStartMillis() <= sorted2.get(j).getStartMillis());
+			Subtitle sub = first ? sorted1.get(i++) : sorted2.get(j++);
+			if ((!cluster1.isEmpty() || !cluster2.isEmpty()) && sub.getStartMillis() >= clusterEnd) {
+				matchCluster(cluster1, cluster2, matchList);
+				cluster1.clear();
+				cluster2.clear();
+			}
+			clusterEnd = cluster1.isEmpty() && cluster2.isEmpty() ? sub.getEndMillis()
+					: Math.max(clusterEnd, sub.getEndMillis());
+			(first ? cluster1 : cluster2).add(sub);
+		}
+		matchCluster(cluster1, cluster2, matchList);
+		return matchList;
+	}
+
+	/**
+	 * @return the root of the set of a cue, compressing the path to it
+	 */
+	private static int find(int[] parents, int k) {
+		while (parents[k] != k) {
+			parents[k] = parents[parents[k]];
+			k = parents[k];
+		}
+		return k;
+	}
+
+	/**
+	 * @return the match of a group of cues of both tracks
+	 */
+	private static SubtitleMatch groupMatch(List<Subtitle> group1, List<Subtitle> group2) {
+		long start1 = group1.get(0).getStartMillis();
+		long start2 = group2.get(0).getStartMillis();
+		long end1 = maxEnd(group1);
+		long end2 = maxEnd(group2);
+		MatchingMode mode;
+		if (group1.size() == 1 && group2.size() == 1) {
+			mode = ResynchroTimeHelper.timeEqualsOrCloseEnough(start1, start2, PRECISION)
+					&& ResynchroTimeHelper.timeEqualsOrCloseEnough(end1, end2, PRECISION)
+							? MatchingMode.PERFECT_MATCH
+							: MatchingMode.APPROX_MATCH;
+		} else if (group1.size() == 1) {
+			mode = MatchingMode.SPLIT_2B_IS_1A;
+		} else if (group2.size() == 1) {
+			mode = MatchingMode.SPLIT_2A_IS_1B;
+		} else {
+			mode = MatchingMode.APPROX_MATCH;
+		}
+		SubtitleMatch match = new SubtitleMatch(group1, group2, mode);
+		long union = Math.max(end1, end2) - Math.min(start1, start2);
+		long overlap = Math.max(0, Math.min(end1, end2) - Math.max(start1, start2));
+		match.setOverlapRatio(union > 0 ? (double) overlap / union : 1);
+		return match;
+	}
+
+	/**
+	 * Add the matches of a cluster: the groups of cues linked by overlaps, in
+	 * the order of their first cue. A cue overlapping no cue of the other track
+	 * is missing.
+	 */
+	private static void matchCluster(List<Subtitle> cluster1, List<Subtitle> cluster2,
+			List<SubtitleMatch> matchList) {
+		int size1 = cluster1.size();
+		// Cues of both tracks, those of the second one after size1
+		int[] parents = new int[size1 + cluster2.size()];
+		for (int k = 0; k < parents.length; k++) {
+			parents[k] = k;
+		}
+		// Link the cues overlapping a cue of the other track still running at their start
+		List<Integer> running1 = new ArrayList<>();
+		List<Integer> running2 = new ArrayList<>();
+		int i = 0;
+		int j = 0;
+		while (i < size1 || j < cluster2.size()) {
+			boolean first = j == cluster2.size()
+					|| (i < size1 && cluster1.get(i).getStartMillis() <= cluster2.get(j).getStartMillis());
+			Subtitle sub = first ? cluster1.get(i) : cluster2.get(j);
+			List<Subtitle> others = first ? cluster2 : cluster1;
+			List<Integer> running = first ? running2 : running1;
+			running.removeIf(k -> others.get(k).getEndMillis() <= sub.getStartMillis());
+			for (int k : running) {
+				Subtitle other = others.get(k);
+				if (overlaps(sub, other.getStartMillis(), other.getEndMillis())) {
+					union(parents, first ? i : size1 + j, first ? size1 + k : k);
+				}
+			}
+			if (first) {
+				running1.add(i++);
+			} else {
+				running2.add(j++);
+			}
+		}
+		// Groups in the order of their first cue
+		List<List<Subtitle>> groups1 = new ArrayList<>();
+		List<List<Subtitle>> groups2 = new ArrayList<>();
+		int[] groupIndexes = new int[parents.length];
+		Arrays.fill(groupIndexes, -1);
+		i = 0;
+		j = 0;
+		while (i < size1 || j < cluster2.size()) {
+			boolean first = j == cluster2.size()
+					|| (i < size1 && cluster1.get(i).getStartMillis() <= cluster2.get(j).getStartMillis());
+			int root = find(parents, first ? i : size1 + j);
+			if (groupIndexes[root] < 0) {
+				groupIndexes[root] = groups1.size();
+				groups1.add(new ArrayList<>());
+				groups2.add(new ArrayList<>());
+			}
+			if (first) {
+				groups1.get(groupIndexes[root]).add(cluster1.get(i++));
+			} else {
+				groups2.get(groupIndexes[root]).add(cluster2.get(j++));
+			}
+		}
+		for (int group = 0; group < groups1.size(); group++) {
+			List<Subtitle> group1 = groups1.get(group);
+			List<Subtitle> group2 = groups2.get(group);
+			if (group2.isEmpty()) {
+				matchList.add(new SubtitleMatch(group1.get(0), MatchingMode.MISSING_B));
+			} else if (group1.isEmpty()) {
+				matchList.add(new SubtitleMatch(group2.get(0), MatchingMode.MISSING_A));
+			} else {
+				matchList.add(groupMatch(group1, group2));
+			}
+		}
+	}
+
+	private static long maxEnd(List<Subtitle> group) {
+		long end = Long.MIN_VALUE;
+		for (Subtitle sub : group) {
+			end = Math.max(end, sub.getEndMillis());
+		}
+		return end;
+	}
+
+	/**
+	 * @return the cue overlaps the time span by
+	 *         {@link ResynchroTimeHelper#CLOSE_ENOUGH_MILLIS} or more, or by half
+	 *         of the shorter of both or more
+	 */
+	private static boolean overlaps(Subtitle sub, long start, long end) {
+		long overlap = Math.min(sub.getEndMillis(), end) - Math.max(sub.getStartMillis(), start);
+		return overlap > 0 && overlap >= Math.min(PRECISION, Math.min(sub.getDurationMillis(), end - start) / 2);
+	}
+
+	/**
+	 * @return the list if its cues are in start time order, otherwise a sorted
+	 *         copy (keeping the order of cues starting at the same time)
+	 */
+	private static List<Subtitle> sortedByStart(List<Subtitle> subList) {
+		for (int i = 1; i < subList.size(); i++) {
+			if (subList.get(i).getStartMillis() < subList.get(i - 1).getStartMillis()) {
+				List<Subtitle> sorted = new ArrayList<>(subList);
+				sorted.sort(Comparator.comparingLong(Subtitle::getStartMillis));
+				return sorted;
+			}
+		}
+		return subList;
+	}
+
+	private static void union(int[] parents, int k1, int k2) {
+		int root1 = find(parents, k1);
+		int root2 = find(parents, k2);
+		parents[Math.max(root1, root2)] = Math.min(root1, root2);
+	}
+
+	private OverlapMatcher() {
+	}
+}
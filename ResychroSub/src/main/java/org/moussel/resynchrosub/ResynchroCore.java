@@ -2,42 +2,143 @@ package org.moussel.resynchrosub;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import name.fraser.neil.plaintext.diff_match_patch;
 import name.fraser.neil.plaintext.diff_match_patch.Diff;
-import name.fraser.neil.plaintext.diff_match_patch.Operation;
 
 public class ResynchroCore {
+	// Initialized first, for the parsing of the alignment mode
 	static final Logger LOGGER = Logger.getLogger(ResynchroCore.class.getName());
+	/**
+	 * The default unit of the same language text diff
+	 * (<code>resynchrosub.alignmentMode</code> system property)
+	 */
+	static final AlignmentMode ALIGNMENT_MODE = alignmentMode(System.getProperty("resynchrosub.alignmentMode"));
+
+	/**
+	 * Ends each cue in the joined texts to compare, the normalized texts have no
+	 * line break (see {@link TextNormalizer})
+	 */
+	static final String SUB_SEPARATOR = "\n";
+
+	/**
+	 * @return the alignment mode of the given name, whatever its case;
+	 *         {@link AlignmentMode#CHARACTER} if there is none or if it is
+	 *         unknown (logged)
+	 */
+	static AlignmentMode alignmentMode(String name) {
+		if (name == null || name.trim().isEmpty()) {
+			return AlignmentMode.CHARACTER;
+		}
+		try {
+			return AlignmentMode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			LOGGER.warning("Unknown alignment mode " + name + ", expected one of "
+					+ Arrays.toString(AlignmentMode.values()) + ", diffing characters");
+			return AlignmentMode.CHARACTER;
+		}
+	}
 
-	static final String SUB_SEPARATOR = "&§&" + System.lineSeparator();
-
-	static void addOrMergeToList(AtomicListElement<Diff> difList, Diff toBeAdded) {
-		if (!difList.isEmpty() && difList.peekLast().operation.equals(toBeAdded.operation)) {
-			// Merge with last element
-			difList.peekLast().text += toBeAdded.text;
-		} else {
-			difList.add(toBeAdded);
+	/**
+	 * Wait for all the given stages. The first failure cancels the stages that
+	 * have not completed yet and is rethrown once they are all completed or
+	 * cancelled; an interruption of the waiting thread cancels them all as well.
+	 *
+	 * A cancelled stage does not start, but cancelling a stage whose task is
+	 * already running does not stop nor interrupt that task: it goes on in the
+	 * executor, possibly after this method has thrown, and its result is
+	 * dropped. The tasks only read the subtitle files, and may add them to the
+	 * track caches (the index files being written atomically), so nothing is
+	 * left half done.
+	 */
+	private static void awaitAll(CompletableFuture<?>... stages) throws IOException {
+		AtomicReference<Throwable> firstFailure = new AtomicReference<>();
+		for (CompletableFuture<?> stage : stages) {
+			stage.whenComplete((result, failure) -> {
+				if (failure != null && firstFailure.compareAndSet(null, failure)) {
+					for (CompletableFuture<?> other : stages) {
+						other.cancel(false);
+					}
+				}
+			});
+		}
+		try {
+			CompletableFuture.allOf(stages).get();
+		} catch (InterruptedException e) {
+			for (CompletableFuture<?> stage : stages) {
+				stage.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while resynchronizing");
+		} catch (ExecutionException e) {
+			Throwable failure = firstFailure.get() != null ? firstFailure.get() : e.getCause();
+			while (failure instanceof CompletionException && failure.getCause() != null) {
+				failure = failure.getCause();
+			}
+			if (failure instanceof UncheckedIOException) {
+				throw ((UncheckedIOException) failure).getCause();
+			} else if (failure instanceof IOException) {
+				throw (IOException) failure;
+			} else if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			} else if (failure instanceof Error) {
+				throw (Error) failure;
+			}
+			throw new IOException(failure);
 		}
 	}
 
+	/**
+	 * The translated texts are output unchanged: when both files are SRT in the
+	 * same charset, they can be copied as bytes from the mapped input.
+	 */
+	private static boolean canCopyText(SubtitleFile translatedFile, SubtitleFile translatedSyncFile) {
+		return translatedFile.getFormat() instanceof SrtFormat && translatedSyncFile.getFormat() instanceof SrtFormat
+				&& translatedFile.getCharset().equals(translatedSyncFile.getCharset())
+				&& MappedSrtFile.isSupported(translatedFile.getCharset());
+	}
+
 	static List<SubtitleMatch> computeMatchSameLanguage(List<Subtitle> srcSubList, List<Subtitle> reSyncSrcSubList) {
 		String srcFullText = srcSubList.stream().map(sub -> sub.getTextToCompare())
 				.collect(Collectors.joining(SUB_SEPARATOR)) + SUB_SEPARATOR;
 		String reSyncSrcFullText = reSyncSrcSubList.stream().map(sub -> sub.getTextToCompare())
 				.collect(Collectors.joining(SUB_SEPARATOR)) + SUB_SEPARATOR;
+		return computeMatchSameLanguage(srcFullText, reSyncSrcFullText, srcSubList, reSyncSrcSubList);
+	}
 
-		diff_match_patch dmp = new diff_match_patch();
+	static List<SubtitleMatch> computeMatchSameLanguage(String srcFullText, String reSyncSrcFullText,
+			List<Subtitle> srcSubList, List<Subtitle> reSyncSrcSubList) {
+		return computeMatchSameLanguage(srcFullText, reSyncSrcFullText, srcSubList, reSyncSrcSubList,
+				new CharArrayDiff());
+	}
+
+	/**
+	 * @param dmp
+	 *            the diff to use, with its settings (such as its timeout)
+	 */
+	static List<SubtitleMatch> computeMatchSameLanguage(String srcFullText, String reSyncSrcFullText,
+			List<Subtitle> srcSubList, List<Subtitle> reSyncSrcSubList, diff_match_patch dmp) {
 		LinkedList<Diff> diffList = dmp.diff_main(srcFullText, reSyncSrcFullText);
 
 		if (LOGGER.isLoggable(Level.FINE)) {
@@ -45,212 +146,174 @@ public class ResynchroCore {
 				return dif.toString();
 			}).collect(Collectors.toList()), System.lineSeparator()));
 		}
-		List<SubtitleMatch> matchList = new ArrayList<>();
-		List<SubtitleMatch> tempMatchList = new ArrayList<>();
-		StringBuilder remainingText = new StringBuilder();
-		final AtomicListElement<Subtitle> currentSrc = new AtomicListElement<>(srcSubList);
-		final AtomicListElement<Subtitle> currentReSyncSrc = new AtomicListElement<>(reSyncSrcSubList);
-
-		final StringBuilder accumulateInsert = new StringBuilder();
-		final StringBuilder accumulateDelete = new StringBuilder();
-
-		AtomicListElement<Diff> originalDiffList = new AtomicListElement<>(diffList);
-		final AtomicListElement<Diff> processedDiffList = new AtomicListElement<>();
-		originalDiffList.forEach(dif -> {
-			if (dif.text.contains(SUB_SEPARATOR) && (accumulateInsert.length() > 0 || accumulateDelete.length() > 0)) {
-				// Stop accumulate
-				String[] splitText = splitAfterLastIndexOf(dif.text, SUB_SEPARATOR);
-				switch (dif.operation) {
-					case INSERT :
-						if (StringUtils.isNotBlank(accumulateInsert)) {
-							ResynchroCore.addOrMergeToList(processedDiffList,
-									new Diff(Operation.INSERT, accumulateInsert.toString() + " " + splitText[0]));
-							accumulateInsert.delete(0, accumulateInsert.length());
-						} else {
-							ResynchroCore.addOrMergeToList(processedDiffList, new Diff(Operation.INSERT, splitText[0]));
-						}
-						break;
-					case DELETE :
-						if (StringUtils.isNotBlank(accumulateDelete)) {
-							ResynchroCore.addOrMergeToList(processedDiffList,
-									new Diff(Operation.DELETE, accumulateDelete.toString() + " " + splitText[0]));
-							accumulateDelete.delete(0, accumulateDelete.length());
-						} else {
-							ResynchroCore.addOrMergeToList(processedDiffList, new Diff(Operation.DELETE, splitText[0]));
-						}
-						break;
-					default : // EQUAL
-						splitText = splitAfterFirstIndexOf(dif.text, SUB_SEPARATOR);
-						ResynchroCore.addOrMergeToList(processedDiffList,
-								new Diff(Operation.INSERT, accumulateInsert.toString() + " " + splitText[0]));
-						ResynchroCore.addOrMergeToList(processedDiffList,
-								new Diff(Operation.DELETE, accumulateDelete.toString() + " " + splitText[0]));
-						accumulateInsert.delete(0, accumulateInsert.length());
-						accumulateDelete.delete(0, accumulateDelete.length());
-						break;
-				}
-
-				if (StringUtils.isNotBlank(splitText[1])) {
-					dif.text = splitText[1];
-				} else {
-					return; // Continue
-				}
+		return CueDiffMapper.computeMatches(diffList, srcFullText, reSyncSrcFullText, srcSubList, reSyncSrcSubList);
+	}
 
+	/**
+	 * In {@link AlignmentMode#ANCHORED} mode, see {@link AnchoredMatcher}; in
+	 * {@link AlignmentMode#BANDED} mode, see {@link TimeBandedMatcher}; in
+	 * {@link AlignmentMode#CUE} mode, see {@link CueHashMatcher}; in
+	 * {@link AlignmentMode#SEQUENCE} mode, see {@link CueAligner}. Otherwise,
+	 * tracks whose texts would not fit in {@link ChunkedMatcher#MEMORY_BUDGET}
+	 * are matched window by window.
+	 */
+	static List<SubtitleMatch> computeMatchSameLanguage(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack) {
+		if (ALIGNMENT_MODE == AlignmentMode.ANCHORED) {
+			AlignmentResult result = new AnchoredMatcher(AnchoredMatcher.DEFAULT_TIME_BUDGET_MILLIS)
+					.computeMatchSameLanguage(srcTrack, reSyncSrcTrack);
+			if (result.isDegraded()) {
+				LOGGER.warning("Alignment degraded in " + result.getDegradedRegionCount() + " region(s), "
+						+ result.getDegradedCueCount() + " cues");
 			}
-
-			if (dif.text.contains(SUB_SEPARATOR)) {
-				if (dif.text.endsWith(SUB_SEPARATOR)) {
-					ResynchroCore.addOrMergeToList(processedDiffList, dif);
-				} else {
-					String[] splitText = splitAfterLastIndexOf(dif.text, SUB_SEPARATOR);
-					ResynchroCore.addOrMergeToList(processedDiffList, new Diff(dif.operation, splitText[0]));
-					dif.text = splitText[1];
-					if (originalDiffList.isFirst()) {
-						originalDiffList.reset();
-					} else {
-						originalDiffList.movePrevious();
-					}
-					return; // Continue ForEach on the same
-				}
-			} else {
-				if (StringUtils.isNotBlank(dif.text)) {
-					if (dif.operation.equals(Operation.INSERT) || dif.operation.equals(Operation.EQUAL)) {
-						accumulateInsert.append(" " + dif.text);
-					}
-					if (dif.operation.equals(Operation.DELETE) || dif.operation.equals(Operation.EQUAL)) {
-						accumulateDelete.append(" " + dif.text);
-					}
-				}
+			return result.getMatchList();
+		} else if (ALIGNMENT_MODE == AlignmentMode.BANDED) {
+			List<SubtitleMatch> matchList = TimeBandedMatcher.computeMatchSameLanguage(srcTrack, reSyncSrcTrack);
+			if (matchList != null) {
+				return matchList;
 			}
-		});
+			LOGGER.info("Time band too wide for a banded alignment, diffing characters");
+		} else if (ALIGNMENT_MODE == AlignmentMode.CUE) {
+			List<SubtitleMatch> matchList = CueHashMatcher.computeMatchSameLanguage(srcTrack, reSyncSrcTrack);
+			if (matchList != null) {
+				return matchList;
+			}
+			LOGGER.info("Too many distinct cues for a cue diff, diffing characters");
+		} else if (ALIGNMENT_MODE == AlignmentMode.SEQUENCE) {
+			List<SubtitleMatch> matchList = CueAligner.computeMatchSameLanguage(srcTrack, reSyncSrcTrack);
+			if (matchList != null) {
+				return matchList;
+			}
+			LOGGER.info("Time band too wide for a cue alignment, diffing characters");
+		}
+		if (ChunkedMatcher.estimatedMemory(srcTrack, reSyncSrcTrack) > ChunkedMatcher.MEMORY_BUDGET) {
+			return new ChunkedMatcher(ChunkedMatcher.MEMORY_BUDGET).computeMatchSameLanguage(srcTrack,
+					reSyncSrcTrack);
+		}
+		return computeMatchSameLanguage(joinTextToCompare(srcTrack), joinTextToCompare(reSyncSrcTrack),
+				materialize(srcTrack), materialize(reSyncSrcTrack));
+	}
 
-		processedDiffList.reset();
-		if (LOGGER.isLoggable(Level.FINE)) {
-			LOGGER.fine("processedDiffList: " + System.lineSeparator()
-					+ StringUtils.join(processedDiffList.stream().map(dif -> {
-						return dif.toString();
-					}).collect(Collectors.toList()), System.lineSeparator()));
+	/**
+	 * Match tracks of the same version on their times, see
+	 * {@link OverlapMatcher}.
+	 */
+	static List<SubtitleMatch> computeMatchSameVersion(List<Subtitle> srcSubList, List<Subtitle> toReSyncSubList) {
+		return OverlapMatcher.computeMatches(srcSubList, toReSyncSubList);
+	}
+
+	static List<SubtitleMatch> computeMatchSameVersion(SubtitleTrack srcTrack, SubtitleTrack toReSyncTrack) {
+		return computeMatchSameVersion(materialize(srcTrack), materialize(toReSyncTrack));
+	}
+
+	static void createReSyncFile(File sourceFile, File translatedFile, File syncedFile, File translatedSyncFile)
+			throws IOException {
+		createReSyncFile(sourceFile, translatedFile, syncedFile, translatedSyncFile, Runnable::run);
+	}
+
+	static void createReSyncFile(File sourceFile, File translatedFile, File syncedFile, File translatedSyncFile,
+			Executor executor) throws IOException {
+		createReSyncFile(new SubtitleFile(sourceFile), new SubtitleFile(translatedFile), new SubtitleFile(syncedFile),
+				translatedSyncFile, executor);
+	}
+
+	/**
+	 * Resynchronize the translation, see
+	 * {@link #reSyncSources(SubtitleSource, SubtitleSource, SubtitleSource, CompletableFuture, Executor)},
+	 * and write it to a file.
+	 *
+	 * When possible, the translated file is memory mapped and its cue texts are
+	 * copied as bytes to the result, never decoded (see {@link MappedSrtFile}).
+	 */
+	static void createReSyncFile(SubtitleSource source, SubtitleSource translated, SubtitleSource synced,
+			File translatedSyncFile, Executor executor) throws IOException {
+		SubtitleFile translatedSyncSubFile = new SubtitleFile(translatedSyncFile);
+		CompletableFuture<MappedSrtFile> mappedTranslation = translated instanceof SubtitleFile
+				&& canCopyText((SubtitleFile) translated, translatedSyncSubFile)
+						? mapAsync((SubtitleFile) translated, executor)
+						: null;
+		List<Subtitle> resyncTranslation = reSyncSources(source, translated, synced, mappedTranslation, executor);
+		if (mappedTranslation != null) {
+			translatedSyncSubFile.writeFile(resyncTranslation, mappedTranslation.join());
+		} else {
+			translatedSyncSubFile.setSubList(resyncTranslation);
+			translatedSyncSubFile.writeFile();
 		}
+	}
 
-		final AtomicListElement<String> unmatched = new AtomicListElement<>();
-		processedDiffList.forEach(dif -> {
-			String[] multiSubMatch = dif.text.split(SUB_SEPARATOR, -1);
-			SubtitleMatch previousMatch = null;
-			if (!tempMatchList.isEmpty()) {
-				previousMatch = tempMatchList.get(tempMatchList.size() - 1);
-				if (previousMatch.isSplit()) {
-					multiSubMatch = ArrayUtils.subarray(multiSubMatch, 1, multiSubMatch.length);
-				}
-			}
-			if (unmatched.isEmpty()) {
-				// commit matched subs
-				if (matchList.addAll(tempMatchList)) {
-					if (LOGGER.isLoggable(Level.FINE)) {
-						LOGGER.fine("Validated tempMatchList elements: " + System.lineSeparator()
-								+ StringUtils.join(tempMatchList.stream().map(match -> {
-									return match.toString();
-								}).collect(Collectors.toList()), System.lineSeparator()));
-					}
-				}
-				tempMatchList.clear();
-				unmatched.reset(multiSubMatch);
-			} else {
-				unmatched.addAll(multiSubMatch);
-			}
+	/**
+	 * Resynchronize the translation and write it to a stream, which is not
+	 * closed. Nothing is read from nor written to a file unless the sources are
+	 * files.
+	 */
+	public static void createReSyncStream(SubtitleSource source, SubtitleSource translated, SubtitleSource synced,
+			OutputStream out, SubtitleFormat format, Charset charset, Executor executor) throws IOException {
+		createReSyncStream(source, translated, synced, Channels.newChannel(out), format, charset, executor);
+	}
 
-			if (unmatched.size() == 1 && StringUtils.isBlank(unmatched.peekNext())) {
-				unmatched.clear();
-				return; // Continue forEach
-			}
-			switch (dif.operation) {
-				case INSERT :
-					for (String subPart : unmatched) {
-						if (unmatched.isFirst() && StringUtils.isNotBlank(remainingText.toString())) {
-							if (currentReSyncSrc.get().getTextToCompare().startsWith(remainingText.toString())) {
-								// Split case
-								tempMatchList.add(new SubtitleMatch(currentSrc.getThenNext(),
-										new Subtitle[]{currentReSyncSrc.getThenNext(), currentReSyncSrc.getThenNext()},
-										MatchingMode.SPLIT_2B_IS_1A));
-								remainingText.delete(0, remainingText.length());
-								unmatched.moveNext();
-								continue;
-							}
-						}
-						if (unmatched.hasNext()) {
-							tempMatchList
-									.add(new SubtitleMatch(currentReSyncSrc.getThenNext(), MatchingMode.MISSING_A));
-						} else if (!StringUtils.isBlank(subPart)) {
-							// Last is not empty => Split sub
-							remainingText.append(subPart);
-						}
-					}
-					unmatched.resetWithRemainingElements();
-					break;
-				case DELETE :
-					for (String subPart : unmatched) {
-						if (StringUtils.isNotBlank(remainingText)) {
-							if (StringUtils.isBlank(subPart)) {
-								if (unmatched.size() > 1) {
-									// Split case
-									currentSrc.moveNext();
-									tempMatchList.add(new SubtitleMatch(
-											new Subtitle[]{currentSrc.peekPrevious(), currentSrc.get()},
-											currentReSyncSrc.getThenNext(), MatchingMode.SPLIT_2A_IS_1B));
-									remainingText.delete(0, remainingText.length());
-								} else {
-									continue;
-								}
-							}
-						}
-						if (unmatched.hasNext()) {
-							tempMatchList.add(new SubtitleMatch(currentSrc.getThenNext(), MatchingMode.MISSING_B));
-						} else if (!StringUtils.isBlank(subPart)) {
-							// Last is not empty => Split sub
-							remainingText.append(subPart);
-						}
-					}
-					unmatched.resetWithRemainingElements();
-					break;
-
-				default : // EQUALS
-					for (String subPart : unmatched) {
-						if (StringUtils.isNotBlank(remainingText)) {
-							if (StringUtils.isBlank(subPart)) {
-								if (unmatched.size() > 1) {
-									// Split case
-									currentSrc.moveNext();
-									tempMatchList.add(new SubtitleMatch(
-											new Subtitle[]{currentSrc.peekPrevious(), currentSrc.get()},
-											currentReSyncSrc.getThenNext(), MatchingMode.SPLIT_2A_IS_1B));
-									remainingText.delete(0, remainingText.length());
-								} else {
-									continue;
-								}
-							}
-						}
-						if (unmatched.hasNext()) {
-							tempMatchList.add(new SubtitleMatch(currentSrc.getThenNext(),
-									currentReSyncSrc.getThenNext(), MatchingMode.PERFECT_MATCH));
-						} else if (!StringUtils.isBlank(subPart)) {
-							// Last is not empty => Split sub
-							remainingText.append(subPart);
-						}
-					}
-					unmatched.resetWithRemainingElements();
-					break;
+	/**
+	 * Resynchronize the translation and write it to a channel, which is not
+	 * closed.
+	 */
+	public static void createReSyncStream(SubtitleSource source, SubtitleSource translated, SubtitleSource synced,
+			WritableByteChannel out, SubtitleFormat format, Charset charset, Executor executor) throws IOException {
+		List<Subtitle> resyncTranslation = reSyncSources(source, translated, synced, null, executor);
+		format.write(SubtitleTrack.fromSubtitles(resyncTranslation), out, charset);
+	}
+
+	static String joinTextToCompare(SubtitleTrack track) {
+		return joinTextToCompare(track, 0, track.size());
+	}
+
+	/**
+	 * @return the texts to compare of the cues from an index (inclusive) to
+	 *         another (exclusive), each followed by {@link #SUB_SEPARATOR}
+	 */
+	static String joinTextToCompare(SubtitleTrack track, int from, int to) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = from; i < to; i++) {
+			track.appendNormalizedText(i, sb).append(SUB_SEPARATOR);
+		}
+		if (from == to) {
+			sb.append(SUB_SEPARATOR);
+		}
+		return sb.toString();
+	}
+
+	private static CompletableFuture<SubtitleTrack> loadAsync(SubtitleSource source, boolean normalizeText,
+			Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return source.load(normalizeText);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
-		});
-		// commit matched subs
-		if (matchList.addAll(tempMatchList)) {
-			if (LOGGER.isLoggable(Level.FINE)) {
-				LOGGER.fine("Validated tempMatchList elements (end): " + System.lineSeparator()
-						+ StringUtils.join(tempMatchList.stream().map(match -> {
-							return match.toString();
-						}).collect(Collectors.toList()), System.lineSeparator()));
+		}, executor);
+	}
+
+	private static CompletableFuture<MappedSrtFile> mapAsync(SubtitleFile file, Executor executor) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return MappedSrtFile.map(file.getSrtFile().toPath(), file.getCharset());
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
-		}
-		tempMatchList.clear();
+		}, executor);
+	}
+
+	/**
+	 * Create the {@link Subtitle} objects of a track once, for the matchers that
+	 * keep references to them.
+	 */
+	static List<Subtitle> materialize(SubtitleTrack track) {
+		return new ArrayList<>(track.asSubtitleList());
+	}
 
+	/**
+	 * Merge a missing match with the next one missing on the other side into an
+	 * approximate match, or with the previous match when it is the end of its
+	 * text (a split).
+	 */
+	static List<SubtitleMatch> mergeMissingMatches(List<SubtitleMatch> matchList) {
 		AtomicListElement<SubtitleMatch> theMatchList = new AtomicListElement<>();
 		theMatchList.addAll(matchList);
 		// Missing A, Missing B =>? Approx Match ?
@@ -287,173 +350,6 @@ public class ResynchroCore {
 		return theMatchList.underlyingList;
 	}
 
-	static List<SubtitleMatch> computeMatchSameVersion(List<Subtitle> srcSubList, List<Subtitle> toReSyncSubList) {
-
-		List<SubtitleMatch> resultList = new ArrayList<>();
-		int indexA = 0, indexB = 0;
-
-		while (indexA < srcSubList.size() && indexB < toReSyncSubList.size()) {
-			Subtitle currentA = srcSubList.get(indexA);
-			Subtitle currentB = toReSyncSubList.get(indexB);
-			if (ResynchroTimeHelper.timeEqualsOrCloseEnough(currentA.getStartTime(), currentB.getStartTime())
-					&& ResynchroTimeHelper.timeEqualsOrCloseEnough(currentA.getEndTime(), currentB.getEndTime())) {
-				// Perfect match
-				resultList.add(new SubtitleMatch(currentA, currentB, MatchingMode.PERFECT_MATCH));
-				indexA++;
-				indexB++;
-				continue;
-			}
-			if (currentA.getEndTime().isBefore(currentB.getStartTime())) {
-				// A completely before B -> Missing B
-				resultList.add(new SubtitleMatch(currentA, MatchingMode.MISSING_B));
-				indexA++;
-				continue;
-			}
-			if (currentB.getEndTime().isBefore(currentA.getStartTime())) {
-				// B completely before A -> Missing A
-				resultList.add(new SubtitleMatch(currentB, MatchingMode.MISSING_A));
-				indexB++;
-				continue;
-			}
-
-			Subtitle nextA = null, nextB = null;
-			if (indexA + 1 < srcSubList.size()) {
-				nextA = srcSubList.get(indexA + 1);
-			}
-			if (indexB + 1 < toReSyncSubList.size()) {
-				nextB = toReSyncSubList.get(indexB + 1);
-			}
-			if (ResynchroTimeHelper.timeEqualsOrCloseEnough(currentA.getStartTime(), currentB.getStartTime())
-					&& nextB != null
-					&& ResynchroTimeHelper.timeEqualsOrCloseEnough(currentA.getEndTime(), nextB.getEndTime())) {
-				// Perfect Split
-				resultList
-						.add(new SubtitleMatch(currentA, new Subtitle[]{currentB, nextB}, MatchingMode.SPLIT_2B_IS_1A));
-				indexA++;
-				indexB += 2;
-				continue;
-			}
-			if (ResynchroTimeHelper.timeEqualsOrCloseEnough(currentB.getStartTime(), currentA.getStartTime())
-					&& nextA != null
-					&& ResynchroTimeHelper.timeEqualsOrCloseEnough(currentB.getEndTime(), nextA.getEndTime())) {
-				// Perfect Split
-				resultList
-						.add(new SubtitleMatch(new Subtitle[]{currentA, nextA}, currentB, MatchingMode.SPLIT_2A_IS_1B));
-				indexA += 2;
-				indexB++;
-				continue;
-			}
-			if (ResynchroTimeHelper.timeBeforeOrCloseEnough(currentA.getStartTime(), currentB.getStartTime())
-					&& nextB != null
-					&& ResynchroTimeHelper.timeAfterOrCloseEnough(currentA.getEndTime(), nextB.getEndTime())) {
-				// Approx Split
-				resultList
-						.add(new SubtitleMatch(currentA, new Subtitle[]{currentB, nextB}, MatchingMode.SPLIT_2B_IS_1A));
-				indexA++;
-				indexB += 2;
-				continue;
-			}
-			if (ResynchroTimeHelper.timeBeforeOrCloseEnough(currentB.getStartTime(), currentA.getStartTime())
-					&& nextA != null
-					&& ResynchroTimeHelper.timeAfterOrCloseEnough(currentB.getEndTime(), nextA.getEndTime())) {
-				// Approx Split
-				resultList
-						.add(new SubtitleMatch(new Subtitle[]{currentA, nextA}, currentB, MatchingMode.SPLIT_2A_IS_1B));
-				indexA += 2;
-				indexB++;
-				continue;
-			}
-
-			resultList.add(new SubtitleMatch(currentA, currentB, MatchingMode.APPROX_MATCH));
-			indexA++;
-			indexB++;
-		}
-		// Process remaining
-
-		if (indexA < srcSubList.size()) {
-			while (indexA < srcSubList.size()) {
-				resultList.add(new SubtitleMatch(srcSubList.get(indexA++), MatchingMode.MISSING_B));
-			}
-		}
-		if (indexB < toReSyncSubList.size()) {
-			while (indexB < toReSyncSubList.size()) {
-				resultList.add(new SubtitleMatch(toReSyncSubList.get(indexB++), MatchingMode.MISSING_A));
-			}
-		}
-
-		List<SubtitleMatch> matchListPass2 = new ArrayList<>();
-		SubtitleMatch prevMatch = null;
-		for (SubtitleMatch match : resultList) {
-			System.out.println(match.toString());
-			switch (match.mode) {
-				case MISSING_B :
-					try {
-						Subtitle prevB = prevMatch.getLastB();
-						Subtitle curA = match.getFirstA();
-						if (prevB != null && ResynchroTimeHelper.timeAfterOrCloseEnough(prevB.getEndTime(),
-								curA.getStartTime())) {
-							prevMatch.subAList.add(curA);
-							prevMatch.mode = MatchingMode.SPLIT_2A_IS_1B;
-							break;
-						}
-					} catch (Exception e) { // Silent Catch
-
-					}
-					matchListPass2.add(match);
-					prevMatch = match;
-					break;
-				case MISSING_A :
-					try {
-						Subtitle prevA = prevMatch.getLastA();
-						Subtitle curB = match.getFirstB();
-						if (prevA != null && ResynchroTimeHelper.timeAfterOrCloseEnough(prevA.getEndTime(),
-								curB.getStartTime())) {
-							prevMatch.subBList.add(curB);
-							prevMatch.mode = MatchingMode.SPLIT_2B_IS_1A;
-							break;
-						}
-					} catch (Exception e) {
-						// Silent Catch
-					}
-					matchListPass2.add(match);
-					prevMatch = match;
-					break;
-
-				default :
-					matchListPass2.add(match);
-					prevMatch = match;
-					break;
-			}
-		}
-
-		return matchListPass2;
-	}
-
-	static void createReSyncFile(File sourceFile, File translatedFile, File syncedFile, File translatedSyncFile)
-			throws IOException {
-		SubtitleFile srcSubFile = new SubtitleFile(sourceFile);
-		List<Subtitle> srcSubList = srcSubFile.parseAndGetSubList();
-		LOGGER.fine("Nb subs for bad version-bad language: " + srcSubList.size());
-		SubtitleFile toReSyncSubFile = new SubtitleFile(translatedFile);
-		List<Subtitle> toResyncSubList = toReSyncSubFile.parseAndGetSubList();
-		LOGGER.fine("Nb subs for bad version-good language: " + toResyncSubList.size());
-		SubtitleFile resyncSrcSubFile = new SubtitleFile(syncedFile);
-		List<Subtitle> resyncSrcSubList = resyncSrcSubFile.parseAndGetSubList();
-		LOGGER.fine("Nb subs for good version-bad language: " + resyncSrcSubList.size());
-
-		List<SubtitleMatch> resyncMatchList = computeMatchSameLanguage(srcSubList, resyncSrcSubList);
-
-		SubtitleMatch.showStats(resyncMatchList);
-
-		List<SubtitleMatch> translatedMatchList = computeMatchSameVersion(srcSubList, toResyncSubList);
-		SubtitleMatch.showStats(translatedMatchList);
-
-		List<Subtitle> resyncTranslation = reSync(toResyncSubList, resyncMatchList, translatedMatchList);
-		SubtitleFile translatedSyncSubFile = new SubtitleFile(translatedSyncFile);
-		translatedSyncSubFile.setSubList(resyncTranslation);
-		translatedSyncSubFile.writeFile();
-	}
-
 	static List<Subtitle> reSync(List<Subtitle> toResyncSubList, List<SubtitleMatch> resyncMatchList,
 			List<SubtitleMatch> translatedMatchList) throws IOException {
 		Subtitle[] resyncTranslation = new Subtitle[toResyncSubList.size()];
@@ -518,6 +414,26 @@ public class ResynchroCore {
 			resyncTranslation[tMatch.subBList.get(0).getSubNumber() - 1] = tMatch.subBList.get(0)
 					.resyncTo(syncedSrcList);
 		});
+		syncMatchList.reset();
+		translatedMatchList.stream().filter(tMatch -> {
+			return tMatch.isMatch() && tMatch.subAList.size() > 1 && tMatch.subBList.size() > 1;
+		}).forEach(tMatch -> {
+			// Several cues on both sides: spread the translation over the synced times of the source
+			final List<Subtitle> syncedSrcList = new ArrayList<>();
+			for (Subtitle src : tMatch.subAList) {
+				if (syncMatchList.moveUntil(SubtitleMatch.sameSubANumPredicate(src.getSubNumber()))) {
+					SubtitleMatch syncMatch = syncMatchList.get();
+					if (!syncMatch.isMismatch()) {
+						syncedSrcList.addAll(syncMatch.subBList);
+					}
+				}
+			}
+			if (!syncedSrcList.isEmpty()) {
+				syncedSrcList.get(0).resyncTo(syncedSrcList).resyncSplitFrom(tMatch.subBList).forEach(tsyncSub -> {
+					resyncTranslation[tsyncSub.getSubNumber() - 1] = tsyncSub;
+				});
+			}
+		});
 		long syncedSoFar = Arrays.asList(resyncTranslation).stream().filter(sub -> {
 			return sub != null;
 		}).count();
@@ -559,18 +475,51 @@ public class ResynchroCore {
 		return Arrays.asList(resyncTranslation);
 	}
 
-	static String[] splitAfterFirstIndexOf(String origin, String separator) {
-		int splitIndex = origin.indexOf(separator) + separator.length();
-		String before = origin.substring(0, splitIndex);
-		String leftOver = origin.substring(splitIndex, origin.length());
-		return new String[]{before, leftOver};
-	}
 
-	static String[] splitAfterLastIndexOf(String origin, String separator) {
-		int splitIndex = origin.lastIndexOf(separator) + separator.length();
-		String before = origin.substring(0, splitIndex);
-		String leftOver = origin.substring(splitIndex, origin.length());
-		return new String[]{before, leftOver};
-	}
+	/**
+	 * Load the three input tracks concurrently, then run both matchings
+	 * concurrently, on the given executor. This thread waits for them.
+	 *
+	 * If any step fails, the steps not started yet are cancelled and the failure
+	 * is rethrown (an {@link IOException} as is). Interrupting this thread
+	 * cancels the job and throws an {@link InterruptedIOException}.
+	 *
+	 * This thread blocks while waiting: when it is itself a task of the executor,
+	 * use a {@link java.util.concurrent.ForkJoinPool} (which compensates blocked
+	 * workers) rather than a fixed size pool.
+	 *
+	 * @param mappedTranslation
+	 *            the mapping of the translated file being made, its timings are
+	 *            used instead of loading the translation; <code>null</code> for
+	 *            none
+	 * @return the resynchronized translation, <code>null</code> elements are
+	 *         cues not resynchronized
+	 */
+	private static List<Subtitle> reSyncSources(SubtitleSource source, SubtitleSource translated,
+			SubtitleSource synced, CompletableFuture<MappedSrtFile> mappedTranslation, Executor executor)
+			throws IOException {
+		// Only the same language tracks are compared on their text
+		CompletableFuture<SubtitleTrack> srcTrack = loadAsync(source, true, executor);
+		CompletableFuture<SubtitleTrack> toResyncTrack = mappedTranslation != null
+				? mappedTranslation.thenApply(MappedSrtFile::getTrack)
+				: loadAsync(translated, false, executor);
+		CompletableFuture<SubtitleTrack> resyncSrcTrack = loadAsync(synced, true, executor);
+		CompletableFuture<List<SubtitleMatch>> resyncMatches = srcTrack.thenCombineAsync(resyncSrcTrack,
+				(src, resyncSrc) -> computeMatchSameLanguage(src, resyncSrc), executor);
+		CompletableFuture<List<SubtitleMatch>> translatedMatches = srcTrack.thenCombineAsync(toResyncTrack,
+				(src, toResync) -> computeMatchSameVersion(src, toResync), executor);
+		awaitAll(srcTrack, toResyncTrack, resyncSrcTrack, resyncMatches, translatedMatches);
+
+		LOGGER.fine("Nb subs for bad version-bad language: " + srcTrack.join().size());
+		LOGGER.fine("Nb subs for bad version-good language: " + toResyncTrack.join().size());
+		LOGGER.fine("Nb subs for good version-bad language: " + resyncSrcTrack.join().size());
+
+		List<SubtitleMatch> resyncMatchList = resyncMatches.join();
+		SubtitleMatch.showStats(resyncMatchList);
+
+		List<SubtitleMatch> translatedMatchList = translatedMatches.join();
+		SubtitleMatch.showStats(translatedMatchList);
 
+		return reSync(toResyncTrack.join().asSubtitleList(), resyncMatchList, translatedMatchList);
+	}
 }
@@ -2,6 +2,7 @@ package org.moussel.resynchrosub;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -11,6 +12,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -21,34 +24,148 @@ public class ResynchroMain {
 
 	private static String workFolderName = "/Users/wandrillemoussel/Downloads/";
 
+	/**
+	 * Add an input of a version and language. When several inputs have the same
+	 * version and language, an SRT one is kept, otherwise the first one found;
+	 * the others are ignored, with a warning.
+	 */
+	static void addInput(Map<String, Map<String, SubtitleSource>> inputs, String version, String lang,
+			SubtitleSource source) {
+		Map<String, SubtitleSource> versionInputs = inputs.computeIfAbsent(version, k -> new LinkedHashMap<>());
+		SubtitleSource previous = versionInputs.get(lang);
+		if (previous == null) {
+			versionInputs.put(lang, source);
+		} else if (isSrt(source) && !isSrt(previous)) {
+			LOGGER.warning("Several " + version + "/" + lang + " subtitles, using " + source.getName() + " instead of "
+					+ previous.getName());
+			versionInputs.put(lang, source);
+		} else {
+			LOGGER.warning("Several " + version + "/" + lang + " subtitles, using " + previous.getName()
+					+ " instead of " + source.getName());
+		}
+	}
+
+	/**
+	 * The resynchronized translation is written next to the synced source: same
+	 * name and format with the translation language for a subtitle file (next to
+	 * the archive for an archive entry), an SRT file named after the video for an
+	 * embedded track.
+	 */
+	static File destinationFile(SubtitleSource synced, String syncedLang, String translationLang) {
+		if (synced instanceof MatroskaTrackSource) {
+			String videoPath = ((MatroskaTrackSource) synced).getFile().toString();
+			return new File(videoPath.substring(0, videoPath.lastIndexOf('.')) + "." + translationLang + ".srt");
+		}
+		if (synced instanceof ArchiveEntrySource) {
+			ArchiveEntrySource entry = (ArchiveEntrySource) synced;
+			return new File(entry.getArchive().toAbsolutePath().getParent().toFile(),
+					entry.getFileName().replaceFirst(syncedLang, translationLang));
+		}
+		return new File(((SubtitleFile) synced).getSrtFile().toString().replaceFirst(syncedLang, translationLang));
+	}
+
+	/**
+	 * @return the dot separated parts of a file name after the prefix (version,
+	 *         language, extension), none if the name does not start with it
+	 */
+	static String[] fileNameParts(String fileName, String prefix) {
+		return fileName.startsWith(prefix) ? fileName.substring(prefix.length()).split("\\.", -1) : new String[0];
+	}
+
+	/**
+	 * @return the content of the subtitle file or archive entry starts the way
+	 *         its format does; otherwise it is skipped with a warning, such as a
+	 *         VobSub <code>.sub</code> file, which is not MicroDVD
+	 */
+	static boolean hasFormat(SubtitleSource source) {
+		boolean entry = source instanceof ArchiveEntrySource;
+		SubtitleFormat format = entry ? ((ArchiveEntrySource) source).getFormat()
+				: ((SubtitleFile) source).getFormat();
+		try (InputStream in = entry ? ((ArchiveEntrySource) source).openStream()
+				: Files.newInputStream(((SubtitleFile) source).getSrtFile().toPath())) {
+			if (format.matches(in)) {
+				return true;
+			}
+			LOGGER.warning("Skipping " + source.getName() + ", not a " + format.getName() + " file");
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Skipping unreadable " + source.getName(), e);
+		}
+		return false;
+	}
+
+	private static boolean isSrt(SubtitleSource source) {
+		SubtitleFormat format = source instanceof ArchiveEntrySource ? ((ArchiveEntrySource) source).getFormat()
+				: source instanceof SubtitleFile ? ((SubtitleFile) source).getFormat() : null;
+		return format instanceof SrtFormat;
+	}
+
 	public static void main(String[] args) {
 		try {
 			// final String fileNamePrefix = "Suits - 07x02 - The Statue-VLAD.";
 			final String fileNamePrefix = promtForString("Subtitle FileName Prefix");
 
-			// Get All SRT files with same fileNamePrefix and parse version and language
+			// Get All subtitle files (any supported format) with same fileNamePrefix and parse version and language,
+			// and the text subtitle tracks of the Matroska files with same fileNamePrefix
 			System.out.println("\nAutoReSync for folder: " + workFolderName);
-			final Map<String, Map<String, Path>> inputs = new LinkedHashMap<>();
+			final Map<String, Map<String, SubtitleSource>> inputs = new LinkedHashMap<>();
+			final TrackIndexCache indexCache = new TrackIndexCache();
 			try (Stream<Path> stream = Files.walk(Paths.get(workFolderName))) {
 				List<Path> matchFiles = stream.filter(p -> {
 					String fn = p.getFileName().toString();
-					return Files.isRegularFile(p) && fn.startsWith(fileNamePrefix) && fn.endsWith(".srt");
+					// Archives named so that they may contain a matching entry, their entries are matched instead
+					return Files.isRegularFile(p) && (fn.startsWith(fileNamePrefix)
+							&& (SubtitleFormats.isSupported(fn) || MatroskaTrackSource.isMatroska(fn))
+							|| ArchiveEntrySource.mayContain(fn, fileNamePrefix));
 
 				}).collect(Collectors.toList());
-				matchFiles.forEach(p -> {
+				for (Path p : matchFiles) {
 					String fileName = p.getFileName().toString();
-					String[] fileNameParts = fileName.substring(fileNamePrefix.length()).split("\\.", -1);
+					String[] fileNameParts = fileNameParts(fileName, fileNamePrefix);
 
-					if (fileNameParts.length > 2) {
+					if (ArchiveEntrySource.isArchive(fileName)) {
+						List<ArchiveEntrySource> entries;
+						try {
+							entries = ArchiveEntrySource.listEntries(p);
+						} catch (IOException | RuntimeException e) {
+							// Such as a corrupted zip or malformed entry names
+							LOGGER.log(Level.WARNING, "Skipping unreadable archive " + p, e);
+							continue;
+						}
+						for (ArchiveEntrySource entry : entries) {
+							String[] entryNameParts = fileNameParts(entry.getFileName(), fileNamePrefix);
+							if (entryNameParts.length > 2 && hasFormat(entry)) {
+								String version = entryNameParts[0];
+								String lang = entryNameParts[1];
+								System.out.println(version + "/" + lang + ": " + entry.getName());
+								addInput(inputs, version, lang, entry);
+							}
+						}
+					} else if (MatroskaTrackSource.isMatroska(fileName)) {
+						if (fileNameParts.length > 1) {
+							String version = fileNameParts[0];
+							List<MatroskaTrackSource> tracks;
+							try {
+								tracks = MatroskaTrackSource.listTextTracks(p);
+							} catch (IOException | RuntimeException e) {
+								// Such as a truncated file or malformed elements
+								LOGGER.log(Level.WARNING, "Skipping unreadable Matroska file " + p, e);
+								continue;
+							}
+							for (MatroskaTrackSource track : tracks) {
+								System.out.println(version + "/" + track.getLang() + ": " + track.getName());
+								addInput(inputs, version, track.getLang(), track);
+							}
+						}
+					} else if (fileNameParts.length > 2) {
 						String version = fileNameParts[0];
 						String lang = fileNameParts[1];
-						System.out.println(version + "/" + lang + ": " + p.toString());
-						if (!inputs.containsKey(version)) {
-							inputs.put(version, new LinkedHashMap<>());
+						SubtitleFile file = new SubtitleFile(p.toFile());
+						if (hasFormat(file)) {
+							System.out.println(version + "/" + lang + ": " + p.toString());
+							addInput(inputs, version, lang, file);
 						}
-						inputs.get(version).put(lang, p);
 					}
-				});
+				}
 			}
 			// If one of the srt files is the only one with a version, then its version is same as your movie file
 			Object[] versionsWithOneSubtitle = inputs.keySet().stream().filter(k -> {
@@ -82,11 +199,18 @@ public class ResynchroMain {
 
 			if (originalVersion.isPresent() && translationLang.isPresent()
 					&& inputs.get(originalVersion.get()).containsKey(translationLang.get())) {
-				File destination = new File(inputs.get(movieVersion).get(syncedLang.get()).toString()
-						.replaceFirst(syncedLang.get(), translationLang.get()));
-				ResynchroCore.createReSyncFile(inputs.get(originalVersion.get()).get(syncedLang.get()).toFile(),
-						inputs.get(originalVersion.get()).get(translationLang.get()).toFile(),
-						inputs.get(movieVersion).get(syncedLang.get()).toFile(), destination);
+				SubtitleSource source = inputs.get(originalVersion.get()).get(syncedLang.get());
+				SubtitleSource synced = inputs.get(movieVersion).get(syncedLang.get());
+				// The same reference files are aligned again with each new translation, the translation itself is
+				// only matched on times and is not indexed
+				for (SubtitleSource reference : Arrays.asList(source, synced)) {
+					if (reference instanceof SubtitleFile) {
+						((SubtitleFile) reference).setIndexCache(indexCache);
+					}
+				}
+				File destination = destinationFile(synced, syncedLang.get(), translationLang.get());
+				ResynchroCore.createReSyncFile(source, inputs.get(originalVersion.get()).get(translationLang.get()),
+						synced, destination, ForkJoinPool.commonPool());
 
 			}
 
@@ -1,36 +1,159 @@
 package org.moussel.resynchrosub;
 
 import java.time.LocalTime;
+import java.time.temporal.ChronoField;
 import java.time.temporal.ChronoUnit;
 import java.time.temporal.TemporalUnit;
 
 public class ResynchroTimeHelper {
+	/**
+	 * Precision of the time comparisons
+	 */
+	static final long CLOSE_ENOUGH_MILLIS = 400;
+	static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+	private static StringBuilder appendPadded(StringBuilder sb, long value, int width) {
+		for (long limit = 10; width > 1; width--, limit *= 10) {
+			if (value < limit) {
+				sb.append('0');
+			}
+		}
+		return sb.append(value);
+	}
+
+	/**
+	 * Format milliseconds as a SRT timestamp (<code>HH:mm:ss,SSS</code>). Hours
+	 * are not wrapped at 24h.
+	 */
+	static String formatMillis(long millis) {
+		StringBuilder sb = new StringBuilder(12);
+		if (millis < 0) {
+			sb.append('-');
+			millis = -millis;
+		}
+		long hours = millis / 3600000;
+		if (hours < 10) {
+			sb.append('0');
+		}
+		sb.append(hours).append(':');
+		appendPadded(sb, (millis / 60000) % 60, 2).append(':');
+		appendPadded(sb, (millis / 1000) % 60, 2).append(',');
+		return appendPadded(sb, millis % 1000, 3).toString();
+	}
+
+	static long fromLocalTime(LocalTime time) {
+		return time.getLong(ChronoField.MILLI_OF_DAY);
+	}
+
+	/**
+	 * Decode a SRT timestamp <code>H:M:S,m</code> (each field 1 or 2 digits,
+	 * milliseconds 1 to 3 digits read as an integer) into milliseconds.
+	 */
+	static long parseMillis(CharSequence time) {
+		long millis = 0;
+		int field = 0;
+		int digits = 0;
+		long value = 0;
+		for (int i = 0; i < time.length(); i++) {
+			char c = time.charAt(i);
+			if (c >= '0' && c <= '9' && digits < (field == 3 ? 3 : 2)) {
+				value = value * 10 + (c - '0');
+				digits++;
+			} else if (digits > 0 && ((field < 2 && c == ':') || (field == 2 && c == ','))) {
+				millis = millis * 60 + value;
+				value = 0;
+				digits = 0;
+				field++;
+			} else {
+				throw new IllegalArgumentException("Invalid SRT timestamp: " + time);
+			}
+		}
+		if (field != 3 || digits == 0) {
+			throw new IllegalArgumentException("Invalid SRT timestamp: " + time);
+		}
+		return millis * 1000 + value;
+	}
 
 	static boolean timeAfterOrCloseEnough(LocalTime a, LocalTime b) {
-		return timeAfterOrCloseEnough(a, b, 400, ChronoUnit.MILLIS);
+		return timeAfterOrCloseEnough(fromLocalTime(a), fromLocalTime(b));
 	}
 
 	static boolean timeAfterOrCloseEnough(LocalTime a, LocalTime b, long precision, TemporalUnit precisionUnit) {
-		return a.isAfter(b.minus(precision, precisionUnit));
+		return timeAfterOrCloseEnough(fromLocalTime(a), fromLocalTime(b), toMillis(precision, precisionUnit));
+	}
+
+	static boolean timeAfterOrCloseEnough(long a, long b) {
+		return timeAfterOrCloseEnough(a, b, CLOSE_ENOUGH_MILLIS);
+	}
+
+	/**
+	 * @return time <code>a</code> is after time <code>b</code> minus the
+	 *         precision, all in milliseconds (not wrapped at 24h)
+	 */
+	static boolean timeAfterOrCloseEnough(long a, long b, long precision) {
+		return a > b - precision;
 	}
 
 	static boolean timeBeforeOrCloseEnough(LocalTime a, LocalTime b) {
-		return timeBeforeOrCloseEnough(a, b, 400, ChronoUnit.MILLIS);
+		return timeBeforeOrCloseEnough(fromLocalTime(a), fromLocalTime(b));
 	}
 
 	static boolean timeBeforeOrCloseEnough(LocalTime a, LocalTime b, long precision, TemporalUnit precisionUnit) {
-		return a.isBefore(b.plus(precision, precisionUnit));
+		return timeBeforeOrCloseEnough(fromLocalTime(a), fromLocalTime(b), toMillis(precision, precisionUnit));
+	}
+
+	static boolean timeBeforeOrCloseEnough(long a, long b) {
+		return timeBeforeOrCloseEnough(a, b, CLOSE_ENOUGH_MILLIS);
+	}
+
+	/**
+	 * @return time <code>a</code> is before time <code>b</code> plus the
+	 *         precision, all in milliseconds (not wrapped at 24h)
+	 */
+	static boolean timeBeforeOrCloseEnough(long a, long b, long precision) {
+		return a < b + precision;
 	}
 
 	static boolean timeEqualsOrCloseEnough(LocalTime a, LocalTime b) {
-		return timeEqualsOrCloseEnough(a, b, 400, ChronoUnit.MILLIS);
+		return timeEqualsOrCloseEnough(fromLocalTime(a), fromLocalTime(b));
 	}
 
 	static boolean timeEqualsOrCloseEnough(LocalTime a, LocalTime b, long precision, TemporalUnit precisionUnit) {
-		return a.isAfter(b.minus(precision, precisionUnit)) && a.isBefore(b.plus(precision, precisionUnit));
+		return timeEqualsOrCloseEnough(fromLocalTime(a), fromLocalTime(b), toMillis(precision, precisionUnit));
+	}
+
+	static boolean timeEqualsOrCloseEnough(long a, long b) {
+		return timeEqualsOrCloseEnough(a, b, CLOSE_ENOUGH_MILLIS);
+	}
+
+	/**
+	 * @return times <code>a</code> and <code>b</code> are less than the
+	 *         precision apart, all in milliseconds (not wrapped at 24h)
+	 */
+	static boolean timeEqualsOrCloseEnough(long a, long b, long precision) {
+		return a > b - precision && a < b + precision;
 	}
 
 	static boolean timeWithinSubTimes(LocalTime a, Subtitle sub) {
-		return a.isAfter(sub.getStartTime()) && a.isBefore(sub.getEndTime());
+		return timeWithinSubTimes(fromLocalTime(a), sub);
+	}
+
+	static boolean timeWithinSubTimes(long a, Subtitle sub) {
+		return a > sub.getStartMillis() && a < sub.getEndMillis();
+	}
+
+	/**
+	 * Time of day for the given milliseconds, wrapping at 24h.
+	 */
+	static LocalTime toLocalTime(long millis) {
+		return LocalTime.ofNanoOfDay(Math.floorMod(millis, MILLIS_PER_DAY) * 1000000);
+	}
+
+	/**
+	 * @return the precision in milliseconds
+	 */
+	private static long toMillis(long precision, TemporalUnit precisionUnit) {
+		return ChronoUnit.MILLIS.equals(precisionUnit) ? precision
+				: precisionUnit.getDuration().multipliedBy(precision).toMillis();
 	}
 }
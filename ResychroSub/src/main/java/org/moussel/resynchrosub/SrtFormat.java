@@ -0,0 +1,46 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SubRip (<code>.srt</code>) format, see {@link SrtTokenizer} and
+ * {@link SrtWriter}.
+ */
+public class SrtFormat implements SubtitleFormat {
+
+	@Override
+	public List<String> getExtensions() {
+		return Collections.singletonList("srt");
+	}
+
+	@Override
+	public String getName() {
+		return "SRT";
+	}
+
+	@Override
+	public SubtitleTrack read(ReadableByteChannel channel, Charset charset, boolean normalizeText)
+			throws IOException {
+		SubtitleTrack track = new SubtitleTrack();
+		// Not closed, that would close the channel
+		SrtTokenizer tokenizer = new SrtTokenizer(channel, charset, normalizeText);
+		while (tokenizer.nextCue()) {
+			track.add(tokenizer.getStartMillis(), tokenizer.getEndMillis(), tokenizer.getTextBuffer(),
+					tokenizer.getNormalizedText());
+		}
+		track.trimToSize();
+		return track;
+	}
+
+	@Override
+	public void write(SubtitleTrack track, WritableByteChannel channel, Charset charset) throws IOException {
+		SrtWriter writer = new SrtWriter(channel, charset);
+		writer.writeTrack(track);
+		writer.flush();
+	}
+}
@@ -0,0 +1,301 @@
+package org.moussel.resynchrosub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Single pass SRT tokenizer reading its input incrementally from a channel.
+ *
+ * Cues are recognized exactly like the former regular expression did:
+ * <code>(\d+)\r\n(time) --> (time)\r\n([\s\S]*?)(?=\r\n\r\n|$)</code>, searched
+ * from the end of the previous cue, so anything that does not look like a cue
+ * header is skipped.
+ */
+class SrtTokenizer implements Closeable {
+	private enum State {
+		SEARCH, HEADER, TEXT
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static boolean isDigit(int c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isLineTerminator(int c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	private final ByteBuffer bytes;
+	private final ReadableByteChannel channel;
+	private char[] chars = new char[BUFFER_SIZE];
+	private final CharsetDecoder decoder;
+	private boolean eof;
+	private long endMillis;
+	private boolean inputDone;
+	private int limit;
+	private String normalizedText;
+	private final TextNormalizer normalizer;
+	private int number;
+	private int pos;
+	private long startMillis;
+	private final StringBuilder text = new StringBuilder();
+	private long time;
+	private int value;
+
+	SrtTokenizer(ReadableByteChannel channel, Charset charset) {
+		this(channel, charset, false);
+	}
+
+	/**
+	 * @param normalize
+	 *            also compute the normalized text of each cue while reading it
+	 */
+	SrtTokenizer(ReadableByteChannel channel, Charset charset, boolean normalize) {
+		this.channel = channel;
+		this.normalizer = normalize ? new TextNormalizer() : null;
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(BUFFER_SIZE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private boolean fill() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (pos > 0) {
+			System.arraycopy(chars, pos, chars, 0, limit - pos);
+			limit -= pos;
+			pos = 0;
+		}
+		if (chars.length - limit < BUFFER_SIZE / 4) {
+			chars = Arrays.copyOf(chars, chars.length * 2);
+		}
+		int before = limit;
+		CharBuffer out = CharBuffer.wrap(chars, limit, chars.length - limit);
+		while (out.position() == before && !eof) {
+			if (!inputDone && channel.read(bytes) < 0) {
+				inputDone = true;
+			}
+			bytes.flip();
+			CoderResult result = decoder.decode(bytes, out, inputDone);
+			bytes.compact();
+			if (inputDone && result.isUnderflow() && decoder.flush(out).isUnderflow()) {
+				eof = true;
+			}
+		}
+		limit = out.position();
+		return limit > before;
+	}
+
+	long getEndMillis() {
+		return endMillis;
+	}
+
+	/**
+	 * @return the normalized text of the current cue, <code>null</code> unless
+	 *         requested at creation
+	 */
+	String getNormalizedText() {
+		return normalizedText;
+	}
+
+	int getNumber() {
+		return number;
+	}
+
+	long getStartMillis() {
+		return startMillis;
+	}
+
+	String getText() {
+		return text.toString();
+	}
+
+	/**
+	 * @return the text of the current cue, only valid until the next call to
+	 *         {@link #nextCue()}
+	 */
+	CharSequence getTextBuffer() {
+		return text;
+	}
+
+	private int matchDigits(int offset, int max) throws IOException {
+		if (offset < 0 || !isDigit(peek(offset))) {
+			return -1;
+		}
+		value = 0;
+		int count = 0;
+		int c;
+		while (count < max && isDigit(c = peek(offset + count))) {
+			value = value * 10 + (c - '0');
+			count++;
+		}
+		return offset + count;
+	}
+
+	/**
+	 * Match a cue header (number, timing line) at the current position.
+	 *
+	 * @return the header length, or -1 if there is no cue header here
+	 */
+	private int matchHeader() throws IOException {
+		int offset = 0;
+		while (isDigit(peek(offset))) {
+			offset++;
+		}
+		offset = matchNewLine(offset);
+		offset = matchTime(offset);
+		long start = time;
+		offset = matchLiteral(offset, " --> ");
+		offset = matchTime(offset);
+		long end = time;
+		offset = matchNewLine(offset);
+		if (offset < 0) {
+			return -1;
+		}
+		startMillis = start;
+		endMillis = end;
+		return offset;
+	}
+
+	private int matchLiteral(int offset, String literal) throws IOException {
+		if (offset < 0) {
+			return -1;
+		}
+		for (int i = 0; i < literal.length(); i++) {
+			if (peek(offset + i) != literal.charAt(i)) {
+				return -1;
+			}
+		}
+		return offset + literal.length();
+	}
+
+	private int matchNewLine(int offset) throws IOException {
+		return matchLiteral(offset, "\r\n");
+	}
+
+	/**
+	 * Match a <code>H:M:S,m</code> timestamp (1 or 2 digits fields, 1 to 3 digits
+	 * milliseconds) and decode it into {@link #time}.
+	 */
+	private int matchTime(int offset) throws IOException {
+		offset = matchDigits(offset, 2);
+		long hours = value;
+		offset = matchLiteral(offset, ":");
+		offset = matchDigits(offset, 2);
+		long minutes = value;
+		offset = matchLiteral(offset, ":");
+		offset = matchDigits(offset, 2);
+		long seconds = value;
+		offset = matchLiteral(offset, ",");
+		offset = matchDigits(offset, 3);
+		time = ((hours * 60 + minutes) * 60 + seconds) * 1000 + value;
+		return offset;
+	}
+
+	/**
+	 * Advance to the next cue.
+	 *
+	 * @return false once the input is exhausted
+	 */
+	boolean nextCue() throws IOException {
+		State state = State.SEARCH;
+		while (true) {
+			switch (state) {
+				case SEARCH :
+					int c = peek(0);
+					if (c < 0) {
+						return false;
+					}
+					if (isDigit(c)) {
+						state = State.HEADER;
+					} else {
+						pos++;
+					}
+					break;
+				case HEADER :
+					int headerLength = matchHeader();
+					if (headerLength < 0) {
+						// No cue starts anywhere in this run of digits
+						while (isDigit(peek(0))) {
+							pos++;
+						}
+						state = State.SEARCH;
+					} else {
+						pos += headerLength;
+						state = State.TEXT;
+					}
+					break;
+				default : // TEXT
+					readText();
+					if (normalizer != null) {
+						normalizedText = normalizer.finish();
+					}
+					number++;
+					return true;
+			}
+		}
+	}
+
+	private int peek(int offset) throws IOException {
+		while (pos + offset >= limit) {
+			if (!fill()) {
+				return -1;
+			}
+		}
+		return chars[pos + offset];
+	}
+
+	/**
+	 * Read the cue text up to the next blank line, or up to the end of input
+	 * (ignoring a single trailing line terminator).
+	 */
+	private void readText() throws IOException {
+		text.setLength(0);
+		while (true) {
+			int runStart = pos;
+			while (pos < limit && !isLineTerminator(chars[pos])) {
+				pos++;
+			}
+			text.append(chars, runStart, pos - runStart);
+			if (normalizer != null) {
+				normalizer.append(chars, runStart, pos - runStart);
+			}
+			int c = peek(0);
+			if (c < 0) {
+				return;
+			}
+			if (!isLineTerminator(c)) {
+				// The run stopped at the end of the characters decoded so far
+				continue;
+			}
+			if (c == '\r' && peek(1) == '\n') {
+				int next = peek(2);
+				if (next < 0 || (next == '\r' && peek(3) == '\n')) {
+					return;
+				}
+			} else if (peek(1) < 0) {
+				return;
+			}
+			text.append((char) c);
+			if (normalizer != null) {
+				normalizer.append((char) c);
+			}
+			pos++;
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package org.moussel.resynchrosub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Buffered SRT writer: cue numbers and timestamps are formatted from
+ * milliseconds straight into a reusable buffer, encoded in an explicit charset
+ * and written to a channel.
+ *
+ * Already encoded cue texts are not copied: they are queued along with the
+ * encoded headers and written together with a gathering write.
+ */
+class SrtWriter implements Closeable {
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_GATHER = 512;
+	private static final String NEW_LINE = "\r\n";
+
+	private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+	private final WritableByteChannel channel;
+	private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+	private final char[] digits = new char[20];
+	private final CharsetEncoder encoder;
+	private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+	private int gatherCount;
+	private int gatherMark;
+
+	SrtWriter(WritableByteChannel channel, Charset charset) {
+		this.channel = channel;
+		this.encoder = charset.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	private void append(char c) throws IOException {
+		if (!chars.hasRemaining()) {
+			encodeChars(false);
+		}
+		chars.put(c);
+	}
+
+	private void append(CharSequence text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			append(text.charAt(i));
+		}
+	}
+
+	private void appendNumber(long value, int minDigits) throws IOException {
+		int length = 0;
+		do {
+			digits[length++] = (char) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (length < minDigits) {
+			digits[length++] = '0';
+		}
+		while (length > 0) {
+			append(digits[--length]);
+		}
+	}
+
+	private void appendTime(long millis) throws IOException {
+		if (millis < 0) {
+			append('-');
+			millis = -millis;
+		}
+		appendNumber(millis / 3600000, 2);
+		append(':');
+		appendNumber((millis / 60000) % 60, 2);
+		append(':');
+		appendNumber((millis / 1000) % 60, 2);
+		append(',');
+		appendNumber(millis % 1000, 3);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void encodeChars(boolean endOfInput) throws IOException {
+		chars.flip();
+		while (true) {
+			CoderResult result = encoder.encode(chars, bytes, endOfInput);
+			if (result.isOverflow()) {
+				writeBytes();
+			} else {
+				break;
+			}
+		}
+		chars.compact();
+	}
+
+	void flush() throws IOException {
+		encodeChars(true);
+		while (encoder.flush(bytes).isOverflow()) {
+			writeBytes();
+		}
+		writeBytes();
+		encoder.reset();
+	}
+
+	/**
+	 * Queue the encoded bytes not queued yet.
+	 */
+	private void gatherBytes() {
+		if (bytes.position() > gatherMark) {
+			ByteBuffer pending = bytes.duplicate();
+			pending.flip();
+			pending.position(gatherMark);
+			gather[gatherCount++] = pending;
+			gatherMark = bytes.position();
+		}
+	}
+
+	private void writeBytes() throws IOException {
+		gatherBytes();
+		if (gatherCount > 0) {
+			if (channel instanceof GatheringByteChannel) {
+				GatheringByteChannel gatheringChannel = (GatheringByteChannel) channel;
+				int first = 0;
+				while (first < gatherCount) {
+					gatheringChannel.write(gather, first, gatherCount - first);
+					while (first < gatherCount && !gather[first].hasRemaining()) {
+						gather[first++] = null;
+					}
+				}
+			} else {
+				for (int i = 0; i < gatherCount; i++) {
+					while (gather[i].hasRemaining()) {
+						channel.write(gather[i]);
+					}
+					gather[i] = null;
+				}
+			}
+		}
+		gatherCount = 0;
+		gatherMark = 0;
+		bytes.clear();
+	}
+
+	void writeCue(int number, long startMillis, long endMillis, ByteBuffer encodedText) throws IOException {
+		writeHeader(number, startMillis, endMillis);
+		encodeChars(false);
+		gatherBytes();
+		gather[gatherCount++] = encodedText.duplicate();
+		if (gatherCount >= MAX_GATHER - 1 || bytes.remaining() < BUFFER_SIZE / 8) {
+			writeBytes();
+		}
+		append(NEW_LINE);
+		append(NEW_LINE);
+	}
+
+	void writeCue(int number, long startMillis, long endMillis, CharSequence text) throws IOException {
+		writeHeader(number, startMillis, endMillis);
+		append(text);
+		append(NEW_LINE);
+		append(NEW_LINE);
+	}
+
+	private void writeHeader(int number, long startMillis, long endMillis) throws IOException {
+		appendNumber(number, 1);
+		append(NEW_LINE);
+		appendTime(startMillis);
+		append(" --> ");
+		appendTime(endMillis);
+		append(NEW_LINE);
+	}
+
+	void writeTrack(SubtitleTrack track) throws IOException {
+		for (int i = 0; i < track.size(); i++) {
+			writeCue(i + 1, track.getStartMillis(i), track.getEndMillis(i), track.getTextSequence(i));
+		}
+	}
+}
@@ -1,37 +1,47 @@
 package org.moussel.resynchrosub;
 
 import java.time.LocalTime;
-import java.time.format.DateTimeFormatter;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.List;
 
 public class Subtitle {
 	private static final String NEW_LINE = "\r\n";
-	private static final DateTimeFormatter TIME_PATTERN = DateTimeFormatter.ofPattern("HH:mm:ss,SSS");
 
 	public static String lineString(Subtitle sub) {
 		if (sub == null) {
 			return "";
 		}
-		return (sub.subNumber != null ? sub.subNumber + ") " : "") + sub.startTime.format(TIME_PATTERN) + " --> "
-				+ sub.endTime.format(TIME_PATTERN) + " ("
-				+ (ChronoUnit.MILLIS.between(sub.getStartTime(), sub.getEndTime()) / 1000.0) + "s)\t"
+		return (sub.subNumber != null ? sub.subNumber + ") " : "") + lineTime(sub) + "\t"
 				+ sub.text.replaceAll("[\\n\\r]+", " / ");
 	}
 
+	public static String lineText(String text) {
+		return TextNormalizer.normalize(text);
+	}
+
 	public static String lineText(Subtitle sub) {
-		return sub.text.replaceAll("[\\r\\n]+", " ").replaceAll("<[^>]*>", "").replaceAll("[-_\\.=+,*&♪]", "")
-				.replaceAll("[\\s\\t]+", " ").replaceAll("^ | $", "").toLowerCase();
+		return lineText(sub.text);
 	}
 
 	public static String lineTime(Subtitle sub) {
-		return sub.startTime.format(TIME_PATTERN) + " --> " + sub.endTime.format(TIME_PATTERN) + " ("
-				+ (ChronoUnit.MILLIS.between(sub.getStartTime(), sub.getEndTime()) / 1000.0) + "s)";
+		return ResynchroTimeHelper.formatMillis(sub.startMillis) + " --> "
+				+ ResynchroTimeHelper.formatMillis(sub.endMillis) + " (" + (sub.getDurationMillis() / 1000.0) + "s)";
+	}
+
+	/**
+	 * Compute the text to compare of all the subtitles up front, instead of
+	 * lazily on first access.
+	 */
+	public static void normalizeAll(List<Subtitle> subList, boolean parallel) {
+		(parallel ? subList.parallelStream() : subList.stream()).forEach(sub -> {
+			if (sub != null) {
+				sub.getTextToCompare();
+			}
+		});
 	}
 
-	private LocalTime endTime;
-	private LocalTime startTime;
+	private long endMillis;
+	private long startMillis;
 	private Integer subNumber;
 
 	private String text;
@@ -47,20 +57,55 @@ public class Subtitle {
 		this.subNumber = subNumber;
 	}
 
-	public Subtitle(String start, String end, String text) {
-		this.startTime = LocalTime.parse(start, TIME_PATTERN);
-		this.endTime = LocalTime.parse(end, TIME_PATTERN);
+	public Subtitle(int subNumber, long startMillis, long endMillis, String text) {
+		this(startMillis, endMillis, text);
+		this.subNumber = subNumber;
+	}
+
+	public Subtitle(long startMillis, long endMillis, String text) {
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
 		this.text = text;
-		this.textToCompare = lineText(this);
-		this.timeToCompare = lineTime(this);
 	}
 
+	Subtitle(int subNumber, long startMillis, long endMillis, String text, String textToCompare) {
+		this.subNumber = subNumber;
+		this.startMillis = startMillis;
+		this.endMillis = endMillis;
+		this.text = text;
+		this.textToCompare = textToCompare;
+	}
+
+	public Subtitle(String start, String end, String text) {
+		this(ResynchroTimeHelper.parseMillis(start), ResynchroTimeHelper.parseMillis(end), text);
+	}
+
+	public long getDurationMillis() {
+		return endMillis - startMillis;
+	}
+
+	public long getEndMillis() {
+		return endMillis;
+	}
+
+	/**
+	 * @return the end time of day, wrapped at 24h, use {@link #getEndMillis()} for
+	 *         longer timelines
+	 */
 	public LocalTime getEndTime() {
-		return endTime;
+		return ResynchroTimeHelper.toLocalTime(endMillis);
+	}
+
+	public long getStartMillis() {
+		return startMillis;
 	}
 
+	/**
+	 * @return the start time of day, wrapped at 24h, use
+	 *         {@link #getStartMillis()} for longer timelines
+	 */
 	public LocalTime getStartTime() {
-		return startTime;
+		return ResynchroTimeHelper.toLocalTime(startMillis);
 	}
 
 	public Integer getSubNumber() {
@@ -71,28 +116,41 @@ public class Subtitle {
 		return text;
 	}
 
+	/**
+	 * @return the normalized text, computed on first access
+	 */
 	public String getTextToCompare() {
-		return textToCompare;
+		String normalized = textToCompare;
+		if (normalized == null) {
+			normalized = lineText(this);
+			textToCompare = normalized;
+		}
+		return normalized;
 	}
 
 	public String getTimeToCompare() {
-		return timeToCompare;
+		String time = timeToCompare;
+		if (time == null) {
+			time = lineTime(this);
+			timeToCompare = time;
+		}
+		return time;
 	}
 
 	public List<Subtitle> resyncSplitFrom(List<Subtitle> subList) {
 		List<Subtitle> resyncedList = new ArrayList<Subtitle>();
-		double toStart = SubtitleSync.convertTimeToDouble(startTime);
-		double toDuration = SubtitleSync.convertTimeToDouble(endTime) - toStart;
-		double fromStart = SubtitleSync.convertTimeToDouble(subList.get(0).getStartTime());
-		double fromDuration = SubtitleSync.convertTimeToDouble(subList.get(subList.size() - 1).getEndTime()) - fromStart;
+		double toStart = SubtitleSync.convertMillisToDouble(startMillis);
+		double toDuration = SubtitleSync.convertMillisToDouble(endMillis) - toStart;
+		double fromStart = SubtitleSync.convertMillisToDouble(subList.get(0).startMillis);
+		double fromDuration = SubtitleSync.convertMillisToDouble(subList.get(subList.size() - 1).endMillis) - fromStart;
 		for (Subtitle fromSub : subList) {
 			Subtitle resynced = new Subtitle();
 
 			resynced.subNumber = fromSub.subNumber;
-			double ratioStart = (SubtitleSync.convertTimeToDouble(fromSub.getStartTime()) - fromStart) / fromDuration;
-			double ratioEnd = (SubtitleSync.convertTimeToDouble(fromSub.getEndTime()) - fromStart) / fromDuration;
-			resynced.startTime = SubtitleSync.convertDoubleToTime(toStart + toDuration * ratioStart);
-			resynced.endTime = SubtitleSync.convertDoubleToTime(toStart + toDuration * ratioEnd);
+			double ratioStart = (SubtitleSync.convertMillisToDouble(fromSub.startMillis) - fromStart) / fromDuration;
+			double ratioEnd = (SubtitleSync.convertMillisToDouble(fromSub.endMillis) - fromStart) / fromDuration;
+			resynced.startMillis = SubtitleSync.convertDoubleToMillis(toStart + toDuration * ratioStart);
+			resynced.endMillis = SubtitleSync.convertDoubleToMillis(toStart + toDuration * ratioEnd);
 			resynced.text = fromSub.text;
 			resyncedList.add(resynced);
 		}
@@ -106,8 +164,8 @@ public class Subtitle {
 		Subtitle resynced = new Subtitle();
 
 		resynced.subNumber = this.subNumber;
-		resynced.endTime = subtitleList.get(subtitleList.size() - 1).endTime;
-		resynced.startTime = subtitleList.get(0).startTime;
+		resynced.endMillis = subtitleList.get(subtitleList.size() - 1).endMillis;
+		resynced.startMillis = subtitleList.get(0).startMillis;
 		resynced.text = this.text;
 
 		return resynced;
@@ -117,19 +175,29 @@ public class Subtitle {
 		Subtitle resynced = new Subtitle();
 
 		resynced.subNumber = this.subNumber;
-		resynced.endTime = subtitle.endTime;
-		resynced.startTime = subtitle.startTime;
+		resynced.endMillis = subtitle.endMillis;
+		resynced.startMillis = subtitle.startMillis;
 		resynced.text = this.text;
 
 		return resynced;
 	}
 
+	public void setEndMillis(long endMillis) {
+		this.endMillis = endMillis;
+		this.timeToCompare = null;
+	}
+
 	public void setEndTime(LocalTime endTime) {
-		this.endTime = endTime;
+		setEndMillis(ResynchroTimeHelper.fromLocalTime(endTime));
+	}
+
+	public void setStartMillis(long startMillis) {
+		this.startMillis = startMillis;
+		this.timeToCompare = null;
 	}
 
 	public void setStartTime(LocalTime startTime) {
-		this.startTime = startTime;
+		setStartMillis(ResynchroTimeHelper.fromLocalTime(startTime));
 	}
 
 	public void setSubNumber(Integer subNumber) {
@@ -138,12 +206,13 @@ public class Subtitle {
 
 	public void setText(String text) {
 		this.text = text;
+		this.textToCompare = null;
 	}
 
 	@Override
 	public String toString() {
-		return startTime.format(TIME_PATTERN) + " --> " + endTime.format(TIME_PATTERN) + NEW_LINE + text + NEW_LINE
-				+ NEW_LINE;
+		return ResynchroTimeHelper.formatMillis(startMillis) + " --> " + ResynchroTimeHelper.formatMillis(endMillis)
+				+ NEW_LINE + text + NEW_LINE + NEW_LINE;
 	}
 
 }
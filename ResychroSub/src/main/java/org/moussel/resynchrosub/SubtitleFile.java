@@ -1,77 +1,216 @@
 package org.moussel.resynchrosub;
 
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
-import java.util.ArrayList;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-public class SubtitleFile {
+public class SubtitleFile implements SubtitleSource {
 	static final Logger LOGGER = Logger.getLogger(SubtitleFile.class.getName());
-	private static final String SRT_SUB_SEP = "\r\n";
+
+	private static SubtitleFormat formatOf(File file) {
+		SubtitleFormat format = SubtitleFormats.forFileName(file.getName());
+		return format != null ? format : SubtitleFormats.SRT;
+	}
+
+	/**
+	 * Write a file atomically: it is written under a temporary name next to it,
+	 * then renamed, so it never appears half written.
+	 */
+	static void writeAtomically(Path target, ChannelWriter channelWriter) throws IOException {
+		// Not Files.createTempFile, the output must get the default permissions
+		Path temp = target.resolveSibling(
+				"." + target.getFileName() + "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+				channelWriter.write(channel);
+			}
+			try {
+				Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Charset charset = Charset.defaultCharset();
+
+	private SubtitleFormat format = SubtitleFormats.SRT;
+
+	private TrackIndexCache indexCache;
 
 	private String lang;
 
+	private boolean loaded;
+
 	private File srtFile;
 
-	private List<Subtitle> subList = new ArrayList<>();
+	private SubtitleTrack track = new SubtitleTrack();
+
+	private SubtitleTrackCache trackCache = SubtitleTrackCache.getShared();
 
 	public SubtitleFile() {
 	}
 
 	public SubtitleFile(File srtFile) {
 		this.srtFile = srtFile;
+		this.format = formatOf(srtFile);
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	/**
+	 * @return the format of this file, guessed from its extension (SRT by
+	 *         default)
+	 */
+	public SubtitleFormat getFormat() {
+		return format;
+	}
+
+	public TrackIndexCache getIndexCache() {
+		return indexCache;
 	}
 
 	public String getLang() {
 		return lang;
 	}
 
+	@Override
+	public String getName() {
+		return srtFile.getPath();
+	}
+
+	public File getSrtFile() {
+		return srtFile;
+	}
+
+	/**
+	 * @return a read-only view of the subtitles of this file
+	 */
 	public List<Subtitle> getSubList() {
-		return subList;
+		return track.asSubtitleList();
 	}
 
-	public void parse() throws IOException {
-		String content = new String(Files.readAllBytes(this.srtFile.toPath()));
-
-		Pattern p = Pattern.compile(
-				"(\\d+)\\r\\n(\\d{1,2}:\\d{1,2}:\\d{1,2},\\d{1,3}) --> (\\d{1,2}:\\d{1,2}:\\d{1,2},\\d{1,3})\\r\\n"
-						+ "([\\s\\S]*?)(?=\\r\\n\\r\\n|$)");
-		Matcher ma = p.matcher(content);
-		int matchNum = 0;
-		subList.clear();
-		while (ma.find()) {
-			String num = ma.group(1);
-			String start = ma.group(2);
-			String end = ma.group(3);
-			String text = ma.group(4);
-			subList.add(new Subtitle(++matchNum, start, end, text));
+	public SubtitleTrack getTrack() {
+		return track;
+	}
+
+	public SubtitleTrackCache getTrackCache() {
+		return trackCache;
+	}
+
+	/**
+	 * Load the track of the file, from the track cache if any (parsed again only
+	 * if the file has changed), otherwise see {@link #parse(boolean)}.
+	 */
+	@Override
+	public SubtitleTrack load(boolean normalizeText) throws IOException {
+		if (trackCache != null) {
+			this.track = trackCache.load(this, normalizeText);
+			this.loaded = true;
+		} else {
+			parse(normalizeText);
 		}
+		return getTrack();
+	}
 
+	public void parse() throws IOException {
+		parse(false);
+	}
+
+	/**
+	 * @param normalizeText
+	 *            also normalize the text of the cues, in the same pass. With an
+	 *            index cache, the track is always normalized: it is loaded from
+	 *            its index, built on first use.
+	 */
+	public void parse(boolean normalizeText) throws IOException {
+		this.track = read(normalizeText);
+		this.loaded = true;
 	}
 
 	public List<Subtitle> parseAndGetSubList() throws IOException {
-		if (subList == null) {
-			this.parse();
+		return parseAndGetTrack().asSubtitleList();
+	}
+
+	/**
+	 * @return the track of this file, loaded (see {@link #load(boolean)}) on
+	 *         first call only, unless it has been set
+	 */
+	public SubtitleTrack parseAndGetTrack() throws IOException {
+		if (!loaded) {
+			load(false);
 		}
-		return getSubList();
+		return getTrack();
+	}
+
+	/**
+	 * Read the track from the file or from the index cache, whatever the track
+	 * cache.
+	 */
+	SubtitleTrack read(boolean normalizeText) throws IOException {
+		if (indexCache != null) {
+			return indexCache.load(this).getTrack();
+		}
+		try (FileChannel channel = FileChannel.open(this.srtFile.toPath(), StandardOpenOption.READ)) {
+			return format.read(channel, charset, normalizeText);
+		}
+	}
+
+	public void setCharset(Charset charset) {
+		this.charset = charset;
+	}
+
+	public void setFormat(SubtitleFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * @param indexCache
+	 *            the cache of parsed tracks to use, <code>null</code> for none
+	 */
+	public void setIndexCache(TrackIndexCache indexCache) {
+		this.indexCache = indexCache;
 	}
 
 	public void setLang(String lang) {
 		this.lang = lang;
 	}
 
+	/**
+	 * Replace the content of this file, <code>null</code> elements are skipped.
+	 */
 	public void setSubList(List<Subtitle> subList) {
-		this.subList = subList;
+		this.track = SubtitleTrack.fromSubtitles(subList);
+		this.loaded = true;
+	}
+
+	public void setTrack(SubtitleTrack track) {
+		this.track = track;
+		this.loaded = true;
+	}
+
+	/**
+	 * @param trackCache
+	 *            the cache of loaded tracks to use, the one of the process by
+	 *            default, <code>null</code> for none
+	 */
+	public void setTrackCache(SubtitleTrackCache trackCache) {
+		this.trackCache = trackCache;
 	}
 
 	@Override
@@ -79,38 +218,45 @@ public class SubtitleFile {
 		StringBuffer str = new StringBuffer();
 
 		AtomicInteger i = new AtomicInteger(0);
-		subList.stream().map(s -> i.addAndGet(1) + "\r\n" + s.toString()).forEach(s -> str.append(s));
+		getSubList().stream().map(s -> i.addAndGet(1) + "\r\n" + s.toString()).forEach(s -> str.append(s));
 		return str.toString();
 	}
 
+	/**
+	 * Write the file in its format and charset, atomically (see
+	 * {@link #writeAtomically(Path, ChannelWriter)}).
+	 */
 	public void writeFile() throws IOException {
-		final AtomicInteger print = new AtomicInteger(0);
-		this.subList.forEach(sub -> {
-			if (sub != null) {
-				LOGGER.fine(Subtitle.lineString(sub));
-				print.incrementAndGet();
-			}
-		});
+		if (LOGGER.isLoggable(Level.FINE)) {
+			getSubList().forEach(sub -> LOGGER.fine(Subtitle.lineString(sub)));
+		}
 
 		LOGGER.info("Writing file : " + this.srtFile.getName());
-		FileWriter outFileWriter = new FileWriter(this.srtFile);
-		AtomicInteger subNum = new AtomicInteger(0);
-		this.subList.forEach(sub -> {
-			if (sub != null) {
-				try {
-					int currentSubNum = subNum.incrementAndGet();
-					// System.out.print(currentSubNum + SRT_SUB_SEP + sub.toString());
-					outFileWriter.write(currentSubNum + SRT_SUB_SEP + sub.toString());
-				} catch (Exception e) {
-					if (LOGGER.isLoggable(Level.SEVERE)) {
-						ByteArrayOutputStream out = new ByteArrayOutputStream();
-						PrintStream ps = new PrintStream(new BufferedOutputStream(out));
-						e.printStackTrace(ps);
-						LOGGER.severe("Error while writing output file: " + out.toString());
-					}
+		writeAtomically(this.srtFile.toPath(), channel -> format.write(track, channel, charset));
+	}
+
+	/**
+	 * Write the subtitles as SRT with the texts of the source cues (by subtitle
+	 * number) copied as is from the mapping, <code>null</code> elements are
+	 * skipped. The source charset is used, not the one of this file.
+	 */
+	void writeFile(List<Subtitle> subList, MappedSrtFile textSource) throws IOException {
+		LOGGER.info("Writing file : " + this.srtFile.getName() + " (text copied from the mapped source)");
+		writeAtomically(this.srtFile.toPath(), channel -> {
+			SrtWriter writer = new SrtWriter(channel, textSource.getCharset());
+			int number = 1;
+			for (Subtitle sub : subList) {
+				if (sub != null) {
+					writer.writeCue(number++, sub.getStartMillis(), sub.getEndMillis(),
+							textSource.getTextBytes(sub.getSubNumber() - 1));
 				}
 			}
+			writer.flush();
 		});
-		outFileWriter.close();
+	}
+
+	@FunctionalInterface
+	interface ChannelWriter {
+		void write(FileChannel channel) throws IOException;
 	}
 }
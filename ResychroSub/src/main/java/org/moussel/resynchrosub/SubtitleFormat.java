@@ -0,0 +1,48 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * A subtitle file format, reading and writing {@link SubtitleTrack}s as
+ * streams. Cue texts are kept with <code>\r\n</code> line breaks whatever the
+ * format.
+ *
+ * Additional formats can be registered as services of this interface, see
+ * {@link SubtitleFormats}. Implementations must be thread safe.
+ */
+public interface SubtitleFormat {
+	/**
+	 * @return the lower case file extensions of this format, without the dot
+	 */
+	List<String> getExtensions();
+
+	String getName();
+
+	/**
+	 * Check the start of a file before it is taken as this format, for the
+	 * formats whose extension is shared with others. The stream is not closed.
+	 *
+	 * @return the content may be in this format, always for the others
+	 */
+	default boolean matches(InputStream in) throws IOException {
+		return true;
+	}
+
+	/**
+	 * Read a whole track from the channel, which is not closed.
+	 *
+	 * @param normalizeText
+	 *            also compute the normalized text of the cues
+	 */
+	SubtitleTrack read(ReadableByteChannel channel, Charset charset, boolean normalizeText) throws IOException;
+
+	/**
+	 * Write the track to the channel, which is not closed.
+	 */
+	void write(SubtitleTrack track, WritableByteChannel channel, Charset charset) throws IOException;
+}
@@ -0,0 +1,69 @@
+package org.moussel.resynchrosub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceLoader;
+
+/**
+ * Registry of the known {@link SubtitleFormat}s: the built-in ones, plus the
+ * additional ones that other jars register through {@link ServiceLoader} (a
+ * <code>META-INF/services/org.moussel.resynchrosub.SubtitleFormat</code> file),
+ * a format with the name of a built-in one being ignored.
+ */
+public final class SubtitleFormats {
+	public static final SubtitleFormat SRT = new SrtFormat();
+
+	private static final List<SubtitleFormat> FORMATS = loadFormats();
+
+	/**
+	 * @return the format for the extension of the file name, <code>null</code> if
+	 *         none
+	 */
+	public static SubtitleFormat forFileName(String fileName) {
+		int dot = fileName.lastIndexOf('.');
+		if (dot < 0) {
+			return null;
+		}
+		String extension = fileName.substring(dot + 1).toLowerCase(Locale.ROOT);
+		for (SubtitleFormat format : FORMATS) {
+			if (format.getExtensions().contains(extension)) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	public static SubtitleFormat forName(String name) {
+		for (SubtitleFormat format : FORMATS) {
+			if (format.getName().equalsIgnoreCase(name)) {
+				return format;
+			}
+		}
+		return null;
+	}
+
+	public static List<SubtitleFormat> getFormats() {
+		return FORMATS;
+	}
+
+	public static boolean isSupported(String fileName) {
+		return forFileName(fileName) != null;
+	}
+
+	private static List<SubtitleFormat> loadFormats() {
+		List<SubtitleFormat> formats = new ArrayList<>(
+				Arrays.asList(SRT, new WebVttFormat(), new AssFormat(), new MicroDvdFormat()));
+		for (SubtitleFormat format : ServiceLoader.load(SubtitleFormat.class)) {
+			if (formats.stream().noneMatch(f -> f.getName().equalsIgnoreCase(format.getName()))) {
+				formats.add(format);
+			}
+		}
+		return Collections.unmodifiableList(formats);
+	}
+
+	private SubtitleFormats() {
+	}
+}
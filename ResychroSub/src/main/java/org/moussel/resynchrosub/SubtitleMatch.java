@@ -40,6 +40,11 @@ public class SubtitleMatch {
 	}
 
 	MatchingMode mode;
+	/**
+	 * Time covered by both sides of a match over the time covered by either
+	 * side, when matched on times
+	 */
+	double overlapRatio;
 	List<Subtitle> subAList = new ArrayList<>();
 
 	List<Subtitle> subBList = new ArrayList<>();
@@ -87,6 +92,12 @@ public class SubtitleMatch {
 		this.mode = subMatch;
 	}
 
+	public SubtitleMatch(List<Subtitle> subsA, List<Subtitle> subsB, MatchingMode subMatch) {
+		this.subAList.addAll(subsA);
+		this.subBList.addAll(subsB);
+		this.mode = subMatch;
+	}
+
 	private <T> T getFirst(List<T> list) {
 		if (list.isEmpty()) {
 			return null;
@@ -121,6 +132,10 @@ public class SubtitleMatch {
 		return mode;
 	}
 
+	public double getOverlapRatio() {
+		return overlapRatio;
+	}
+
 	public List<Subtitle> getSubAList() {
 		return subAList;
 	}
@@ -143,6 +158,10 @@ public class SubtitleMatch {
 		this.mode = mode;
 	}
 
+	public void setOverlapRatio(double overlapRatio) {
+		this.overlapRatio = overlapRatio;
+	}
+
 	public void setSubAList(List<Subtitle> subAList) {
 		this.subAList = subAList;
 	}
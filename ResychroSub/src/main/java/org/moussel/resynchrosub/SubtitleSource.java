@@ -0,0 +1,19 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+
+/**
+ * Where the cues of a subtitle track come from: a subtitle file, or a track
+ * embedded in a video container.
+ */
+public interface SubtitleSource {
+	String getName();
+
+	/**
+	 * Read the cues of the source.
+	 *
+	 * @param normalizeText
+	 *            also compute the normalized text of the cues
+	 */
+	SubtitleTrack load(boolean normalizeText) throws IOException;
+}
@@ -0,0 +1,89 @@
+package org.moussel.resynchrosub;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A subtitle track read from memory or from a stream, with no file involved:
+ * an upload, a response body, a text built by the caller.
+ *
+ * A source over a stream or a channel can only be loaded once, it does not
+ * close them. A source over bytes or a text can be loaded again.
+ */
+public class SubtitleStreamSource implements SubtitleSource {
+	private ReadableByteChannel channel;
+	private final Charset charset;
+	private final byte[] content;
+	private final SubtitleFormat format;
+	private final String name;
+
+	/**
+	 * @param name
+	 *            the name of the source in logs and errors, not read
+	 */
+	public SubtitleStreamSource(String name, byte[] content, SubtitleFormat format, Charset charset) {
+		this.name = name;
+		this.content = content;
+		this.format = format;
+		this.charset = charset;
+	}
+
+	/**
+	 * A source over a text, it is read as UTF-8 once encoded.
+	 */
+	public SubtitleStreamSource(String name, CharSequence text, SubtitleFormat format) {
+		this(name, text.toString().getBytes(StandardCharsets.UTF_8), format, StandardCharsets.UTF_8);
+	}
+
+	public SubtitleStreamSource(String name, InputStream in, SubtitleFormat format, Charset charset) {
+		this(name, Channels.newChannel(in), format, charset);
+	}
+
+	public SubtitleStreamSource(String name, ReadableByteChannel channel, SubtitleFormat format, Charset charset) {
+		this.name = name;
+		this.channel = channel;
+		this.content = null;
+		this.format = format;
+		this.charset = charset;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+
+	public SubtitleFormat getFormat() {
+		return format;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *             if the stream or channel of this source has already been read
+	 */
+	@Override
+	public synchronized SubtitleTrack load(boolean normalizeText) throws IOException {
+		if (content != null) {
+			return format.read(Channels.newChannel(new ByteArrayInputStream(content)), charset, normalizeText);
+		}
+		if (channel == null) {
+			throw new IllegalStateException("Already read: " + name);
+		}
+		ReadableByteChannel readChannel = channel;
+		channel = null;
+		return format.read(readChannel, charset, normalizeText);
+	}
+
+	@Override
+	public String toString() {
+		return getName();
+	}
+}
@@ -2,15 +2,14 @@ package org.moussel.resynchrosub;
 
 import java.time.LocalTime;
 import java.time.temporal.ChronoField;
-import java.time.temporal.ChronoUnit;
 
 public class SubtitleSync {
 	public static SubtitleSync computeSync(Subtitle sub1A, Subtitle sub1B,
 			Subtitle sub2A, Subtitle sub2B) {
-		double chrono1A = convertTimeToDouble(sub1A.getStartTime());
-		double chrono1B = convertTimeToDouble(sub1B.getStartTime());
-		double chrono2A = convertTimeToDouble(sub2A.getStartTime());
-		double chrono2B = convertTimeToDouble(sub2B.getStartTime());
+		double chrono1A = convertMillisToDouble(sub1A.getStartMillis());
+		double chrono1B = convertMillisToDouble(sub1B.getStartMillis());
+		double chrono2A = convertMillisToDouble(sub2A.getStartMillis());
+		double chrono2B = convertMillisToDouble(sub2B.getStartMillis());
 
 		double fact = (chrono2B - chrono1B) / (chrono2A - chrono1A);
 		double off = chrono1B - (chrono1A * fact);
@@ -22,6 +21,14 @@ public class SubtitleSync {
 		return LocalTime.ofNanoOfDay(new Long(Math.round(value * 1000000000)));
 	}
 
+	public static long convertDoubleToMillis(double value) {
+		return Math.round(value * 1000000000) / 1000000;
+	}
+
+	public static double convertMillisToDouble(long millis) {
+		return millis / 1000.0;
+	}
+
 	public static double convertTimeToDouble(LocalTime time) {
 		return time.getLong(ChronoField.MILLI_OF_DAY) / 1000.0;
 	}
@@ -43,25 +50,44 @@ public class SubtitleSync {
 		return applySync(sub, SyncMode.FULL);
 	}
 
+	/**
+	 * @return a resynchronized copy of the cue (times in milliseconds, not
+	 *         wrapped at 24h)
+	 */
 	public Subtitle applySync(Subtitle sub, SyncMode mode) {
-		Subtitle syncedSub = new Subtitle();
-		syncedSub.setText(sub.getText());
-		syncedSub.setStartTime(applySyncOnTime(sub.getStartTime()));
-		if (SyncMode.FULL.equals(mode)) {
-			syncedSub.setEndTime(applySyncOnTime(sub.getEndTime()));
-		} else if (SyncMode.START_ONLY.equals(mode)) {
-			long subDurationMili = ChronoUnit.MILLIS.between(
-					sub.getStartTime(), sub.getEndTime());
-			syncedSub.setEndTime(syncedSub.getStartTime().plus(subDurationMili,
-					ChronoUnit.MILLIS));
+		long start = applySyncOnMillis(sub.getStartMillis());
+		long end = SyncMode.FULL.equals(mode) ? applySyncOnMillis(sub.getEndMillis())
+				: start + sub.getDurationMillis();
+		return new Subtitle(start, end, sub.getText());
+	}
+
+	/**
+	 * @return a resynchronized copy of the track, sharing the texts of the
+	 *         original one
+	 */
+	public SubtitleTrack applySync(SubtitleTrack track, SyncMode mode) {
+		SubtitleTrack syncedTrack = track.copyWithSharedText();
+		for (int i = 0; i < track.size(); i++) {
+			long start = applySyncOnMillis(track.getStartMillis(i));
+			long end;
+			if (SyncMode.FULL.equals(mode)) {
+				end = applySyncOnMillis(track.getEndMillis(i));
+			} else {
+				end = start + track.getEndMillis(i) - track.getStartMillis(i);
+			}
+			syncedTrack.setTiming(i, start, end);
 		}
-		return syncedSub;
+		return syncedTrack;
 	}
 
 	public double applySyncOnDouble(double source) {
 		return source * factor + offset;
 	}
 
+	public long applySyncOnMillis(long millis) {
+		return convertDoubleToMillis(applySyncOnDouble(convertMillisToDouble(millis)));
+	}
+
 	public LocalTime applySyncOnTime(LocalTime time) {
 		return convertDoubleToTime(applySyncOnDouble(convertTimeToDouble(time)));
 	}
@@ -0,0 +1,343 @@
+package org.moussel.resynchrosub;
+
+import java.nio.CharBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.stream.IntStream;
+
+/**
+ * Column oriented storage of a subtitle track: timings are kept in primitive
+ * arrays and the texts of all cues share one character arena, so a track costs
+ * a few arrays instead of several objects per cue.
+ *
+ * Cue indexes are 0-based, cue numbers (as in {@link Subtitle#getSubNumber()})
+ * are index + 1.
+ *
+ * The normalized text arena is only built when first needed (or explicitly
+ * with {@link #normalize(boolean)}), a track only used for its timings never
+ * pays for it.
+ */
+public class SubtitleTrack {
+	private static final int DEFAULT_CAPACITY = 256;
+
+	private static char[] append(char[] arena, int length, CharSequence text) {
+		int needed = length + text.length();
+		if (needed > arena.length) {
+			arena = Arrays.copyOf(arena, Math.max(needed, arena.length * 2));
+		}
+		if (text instanceof String) {
+			((String) text).getChars(0, text.length(), arena, length);
+		} else if (text instanceof StringBuilder) {
+			((StringBuilder) text).getChars(0, text.length(), arena, length);
+		} else {
+			for (int i = 0; i < text.length(); i++) {
+				arena[length + i] = text.charAt(i);
+			}
+		}
+		return arena;
+	}
+
+	/**
+	 * Create a track over existing arrays, which are used as is (not copied).
+	 *
+	 * @param normalizedOffsets
+	 *            <code>null</code> if the track is not normalized
+	 */
+	static SubtitleTrack fromArrays(int[] startMillis, int[] endMillis, int[] textOffsets, char[] textArena,
+			int[] normalizedOffsets, char[] normalizedArena) {
+		SubtitleTrack track = new SubtitleTrack(1);
+		track.size = startMillis.length;
+		track.startMillis = startMillis;
+		track.endMillis = endMillis;
+		track.textOffsets = textOffsets;
+		track.textArena = textArena;
+		track.textLength = textOffsets[track.size];
+		if (normalizedOffsets != null) {
+			track.normalizedOffsets = normalizedOffsets;
+			track.normalizedArena = normalizedArena;
+			track.normalizedLength = normalizedOffsets[track.size];
+		}
+		return track;
+	}
+
+	public static SubtitleTrack fromSubtitles(List<Subtitle> subList) {
+		SubtitleTrack track = new SubtitleTrack(subList.size());
+		for (Subtitle sub : subList) {
+			if (sub != null) {
+				track.add(sub.getStartMillis(), sub.getEndMillis(), sub.getText());
+			}
+		}
+		return track;
+	}
+
+	private int[] endMillis;
+	private char[] normalizedArena;
+	private int normalizedLength;
+	private int[] normalizedOffsets;
+	private boolean sharedArena;
+	private int size;
+	private int[] startMillis;
+	private char[] textArena;
+	private int textLength;
+	private int[] textOffsets;
+
+	public SubtitleTrack() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public SubtitleTrack(int capacity) {
+		capacity = Math.max(capacity, 1);
+		this.startMillis = new int[capacity];
+		this.endMillis = new int[capacity];
+		this.textOffsets = new int[capacity + 1];
+		this.textArena = new char[capacity * 32];
+	}
+
+	public void add(long start, long end, CharSequence text) {
+		add(start, end, text, null);
+	}
+
+	/**
+	 * Add a cue whose normalized text is already known, typically computed while
+	 * parsing. The first cue added this way to an empty track makes it keep its
+	 * normalized text arena from the start.
+	 */
+	public void add(long start, long end, CharSequence text, String normalizedText) {
+		if (size == 0 && normalizedText != null && !isNormalized()) {
+			normalizedOffsets = new int[startMillis.length + 1];
+			normalizedArena = new char[textArena.length];
+		}
+		if (sharedArena) {
+			// Copy on write, the arena may be used by another track
+			textArena = Arrays.copyOf(textArena, textArena.length);
+			textOffsets = Arrays.copyOf(textOffsets, textOffsets.length);
+			if (isNormalized()) {
+				normalizedArena = Arrays.copyOf(normalizedArena, normalizedArena.length);
+				normalizedOffsets = Arrays.copyOf(normalizedOffsets, normalizedOffsets.length);
+			}
+			sharedArena = false;
+		}
+		if (size == startMillis.length) {
+			int capacity = Math.max(size * 2, DEFAULT_CAPACITY);
+			startMillis = Arrays.copyOf(startMillis, capacity);
+			endMillis = Arrays.copyOf(endMillis, capacity);
+			textOffsets = Arrays.copyOf(textOffsets, capacity + 1);
+			if (isNormalized()) {
+				normalizedOffsets = Arrays.copyOf(normalizedOffsets, capacity + 1);
+			}
+		}
+		startMillis[size] = Math.toIntExact(start);
+		endMillis[size] = Math.toIntExact(end);
+		textArena = append(textArena, textLength, text);
+		textLength += text.length();
+		size++;
+		textOffsets[size] = textLength;
+		if (isNormalized()) {
+			// Keep an already built normalized arena complete
+			String normalized = normalizedText != null ? normalizedText : Subtitle.lineText(text.toString());
+			normalizedArena = append(normalizedArena, normalizedLength, normalized);
+			normalizedLength += normalized.length();
+			normalizedOffsets[size] = normalizedLength;
+		}
+	}
+
+	/**
+	 * Append the normalized text of a cue, without creating an intermediate
+	 * string.
+	 */
+	public StringBuilder appendNormalizedText(int index, StringBuilder sb) {
+		normalize(false);
+		return sb.append(normalizedArena, normalizedOffsets[index],
+				normalizedOffsets[index + 1] - normalizedOffsets[index]);
+	}
+
+	/**
+	 * @return a read-only view of this track as {@link Subtitle}s, cues are
+	 *         materialized on access
+	 */
+	public List<Subtitle> asSubtitleList() {
+		return new SubtitleListView();
+	}
+
+	/**
+	 * @return a track with the same texts (shared, not copied) and a copy of the
+	 *         timings of this one; synchronized with {@link #normalize(boolean)},
+	 *         so the copy gets either none or all of the normalized arena
+	 */
+	public synchronized SubtitleTrack copyWithSharedText() {
+		SubtitleTrack copy = new SubtitleTrack(1);
+		copy.size = size;
+		copy.startMillis = Arrays.copyOf(startMillis, size);
+		copy.endMillis = Arrays.copyOf(endMillis, size);
+		copy.textOffsets = textOffsets;
+		copy.textArena = textArena;
+		copy.textLength = textLength;
+		copy.normalizedOffsets = normalizedOffsets;
+		copy.normalizedArena = normalizedArena;
+		copy.normalizedLength = normalizedLength;
+		copy.sharedArena = true;
+		sharedArena = true;
+		return copy;
+	}
+
+	public int getEndMillis(int index) {
+		return endMillis[index];
+	}
+
+	public String getNormalizedText(int index) {
+		normalize(false);
+		return new String(normalizedArena, normalizedOffsets[index],
+				normalizedOffsets[index + 1] - normalizedOffsets[index]);
+	}
+
+	public int getStartMillis(int index) {
+		return startMillis[index];
+	}
+
+	public Subtitle getSubtitle(int index) {
+		return new Subtitle(index + 1, startMillis[index], endMillis[index], getText(index),
+				isNormalized() ? getNormalizedText(index) : null);
+	}
+
+	public String getText(int index) {
+		return new String(textArena, textOffsets[index], getTextLength(index));
+	}
+
+	/**
+	 * @return a view of the text of a cue in the arena, without copying it
+	 */
+	public CharSequence getTextSequence(int index) {
+		return CharBuffer.wrap(textArena, textOffsets[index], getTextLength(index));
+	}
+
+	public int getTextLength(int index) {
+		return textOffsets[index + 1] - textOffsets[index];
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean isNormalized() {
+		return normalizedOffsets != null;
+	}
+
+	/**
+	 * @return the approximate memory used by the arrays of this track, in bytes
+	 */
+	long memorySize() {
+		long bytes = 4L * (startMillis.length + endMillis.length + textOffsets.length) + 2L * textArena.length;
+		if (isNormalized()) {
+			bytes += 4L * normalizedOffsets.length + 2L * normalizedArena.length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Build the normalized text arena ({@link Subtitle#lineText(String)} of each
+	 * cue) if not done yet.
+	 *
+	 * @param parallel
+	 *            normalize the cues in parallel, the arena is then assembled in
+	 *            order
+	 */
+	public synchronized void normalize(boolean parallel) {
+		if (isNormalized()) {
+			return;
+		}
+		IntStream indexes = IntStream.range(0, size);
+		String[] normalized = (parallel ? indexes.parallel() : indexes).mapToObj(i -> Subtitle.lineText(getText(i)))
+				.toArray(String[]::new);
+		int[] offsets = new int[startMillis.length + 1];
+		int length = 0;
+		for (int i = 0; i < size; i++) {
+			length += normalized[i].length();
+			offsets[i + 1] = length;
+		}
+		char[] arena = new char[length];
+		for (int i = 0; i < size; i++) {
+			normalized[i].getChars(0, normalized[i].length(), arena, offsets[i]);
+		}
+		normalizedArena = arena;
+		normalizedLength = length;
+		normalizedOffsets = offsets;
+	}
+
+	/**
+	 * @return the 64-bit FNV-1a hash of the normalized text of a cue
+	 */
+	long normalizedTextHash(int index) {
+		normalize(false);
+		long hash = 0xcbf29ce484222325L;
+		for (int i = normalizedOffsets[index]; i < normalizedOffsets[index + 1]; i++) {
+			hash = (hash ^ normalizedArena[i]) * 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	public void setTiming(int index, long start, long end) {
+		startMillis[index] = Math.toIntExact(start);
+		endMillis[index] = Math.toIntExact(end);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return this track if its cues are in start time order, otherwise a copy
+	 *         with the cues sorted by start time (keeping the order of cues
+	 *         starting together)
+	 */
+	public SubtitleTrack sortedByStart() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++) {
+			sorted = startMillis[i - 1] <= startMillis[i];
+		}
+		if (sorted) {
+			return this;
+		}
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Integer.compare(startMillis[a], startMillis[b]));
+		SubtitleTrack sortedTrack = new SubtitleTrack(size);
+		for (int i : order) {
+			sortedTrack.add(startMillis[i], endMillis[i], getTextSequence(i), isNormalized() ? getNormalizedText(i) : null);
+		}
+		return sortedTrack;
+	}
+
+	/**
+	 * Release the unused capacity once the track is complete.
+	 */
+	public void trimToSize() {
+		startMillis = Arrays.copyOf(startMillis, size);
+		endMillis = Arrays.copyOf(endMillis, size);
+		textOffsets = Arrays.copyOf(textOffsets, size + 1);
+		textArena = Arrays.copyOf(textArena, textLength);
+		if (isNormalized()) {
+			normalizedOffsets = Arrays.copyOf(normalizedOffsets, size + 1);
+			normalizedArena = Arrays.copyOf(normalizedArena, normalizedLength);
+		}
+		sharedArena = false;
+	}
+
+	private class SubtitleListView extends AbstractList<Subtitle> implements RandomAccess {
+		@Override
+		public Subtitle get(int index) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return getSubtitle(index);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * In memory cache of parsed subtitle files, shared by the whole process and
+ * bounded by the memory used by the cached tracks: the least recently used
+ * ones are evicted first.
+ *
+ * Tracks are keyed by the hash of the file content, format and charset, as in
+ * the {@link TrackIndexCache}. The path, size and modification time of the
+ * files already hashed are remembered: an unchanged file is not read at all, a
+ * modified one is hashed again.
+ *
+ * Callers get their own copy of the timings, the texts of the cached track are
+ * shared (see {@link SubtitleTrack#copyWithSharedText()}).
+ */
+public class SubtitleTrackCache {
+	public static final long DEFAULT_MAX_SIZE = Long.getLong("resynchrosub.trackCacheSize", 256L * 1024 * 1024);
+	static final Logger LOGGER = Logger.getLogger(SubtitleTrackCache.class.getName());
+
+	private static final SubtitleTrackCache SHARED = new SubtitleTrackCache(DEFAULT_MAX_SIZE);
+
+	/**
+	 * @return the cache of the process, of {@link #DEFAULT_MAX_SIZE} bytes
+	 *         (<code>resynchrosub.trackCacheSize</code> system property)
+	 */
+	public static SubtitleTrackCache getShared() {
+		return SHARED;
+	}
+
+	private static String identityOf(SubtitleFile subtitleFile, Path file) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		return file.toAbsolutePath().normalize() + "\u0000" + attributes.size() + "\u0000"
+				+ attributes.lastModifiedTime().toMillis() + "\u0000" + subtitleFile.getFormat().getName() + "\u0000"
+				+ subtitleFile.getCharset().name();
+	}
+
+	private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, ByteBuffer> identities = new HashMap<>();
+	private final long maxSize;
+	private long size;
+
+	/**
+	 * @param maxSize
+	 *            the memory the cached tracks may use, in bytes
+	 */
+	public SubtitleTrackCache(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		identities.clear();
+		size = 0;
+	}
+
+	private synchronized Entry get(ByteBuffer key) {
+		return key != null ? entries.get(key) : null;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the memory used by the cached tracks, in bytes
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	/**
+	 * Load the track of a subtitle file from the cache, parsing the file if it is
+	 * not cached or has changed.
+	 *
+	 * @param normalizeText
+	 *            the track must be normalized, a cached track is normalized if
+	 *            needed
+	 */
+	public SubtitleTrack load(SubtitleFile subtitleFile, boolean normalizeText) throws IOException {
+		Path file = subtitleFile.getSrtFile().toPath();
+		String identity = identityOf(subtitleFile, file);
+		ByteBuffer key;
+		synchronized (this) {
+			key = identities.get(identity);
+		}
+		Entry entry = get(key);
+		if (entry == null) {
+			key = ByteBuffer
+					.wrap(TrackIndexCache.computeKey(file, subtitleFile.getFormat(), subtitleFile.getCharset()));
+			entry = get(key);
+			if (entry == null) {
+				entry = new Entry(subtitleFile.read(normalizeText));
+				put(key, entry);
+			} else {
+				LOGGER.fine("Same content as a cached track: " + file);
+			}
+			synchronized (this) {
+				if (entries.get(key) == entry) {
+					identities.put(identity, key);
+					entry.identities.add(identity);
+				}
+			}
+		}
+		SubtitleTrack copy;
+		boolean normalized = false;
+		// Checked and copied under the lock of the track, another thread may be normalizing it
+		synchronized (entry.track) {
+			if (normalizeText && !entry.track.isNormalized()) {
+				entry.track.normalize(false);
+				normalized = true;
+			}
+			copy = entry.track.copyWithSharedText();
+		}
+		if (normalized) {
+			synchronized (this) {
+				if (entries.get(key) == entry) {
+					long trackSize = entry.track.memorySize();
+					size += trackSize - entry.size;
+					entry.size = trackSize;
+					trim();
+				}
+			}
+		}
+		return copy;
+	}
+
+	private synchronized void put(ByteBuffer key, Entry entry) {
+		if (entry.size > maxSize) {
+			return;
+		}
+		Entry previous = entries.put(key, entry);
+		if (previous != null) {
+			size -= previous.size;
+			for (String identity : previous.identities) {
+				identities.remove(identity);
+			}
+		}
+		size += entry.size;
+		trim();
+	}
+
+	/**
+	 * Evict the least recently used tracks until the cache fits in its maximum
+	 * size.
+	 */
+	private void trim() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (size > maxSize && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			size -= eldest.size;
+			for (String identity : eldest.identities) {
+				identities.remove(identity);
+			}
+		}
+	}
+
+	private static class Entry {
+		final List<String> identities = new ArrayList<>();
+		long size;
+		final SubtitleTrack track;
+
+		Entry(SubtitleTrack track) {
+			this.track = track;
+			this.size = track.memorySize();
+		}
+	}
+}
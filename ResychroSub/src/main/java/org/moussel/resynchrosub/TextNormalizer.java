@@ -0,0 +1,155 @@
+package org.moussel.resynchrosub;
+
+import java.util.Locale;
+
+/**
+ * Single pass implementation of the subtitle text normalization, giving the
+ * same result as the former chain of regular expressions:
+ *
+ * <pre>
+ * text.replaceAll("[\\r\\n]+", " ").replaceAll("&lt;[^&gt;]*&gt;", "").replaceAll("[-_\\.=+,*&amp;♪]", "")
+ * 		.replaceAll("[\\s\\t]+", " ").replaceAll("^ | $", "").toLowerCase()
+ * </pre>
+ *
+ * Characters are classified through a precomputed table. The normalizer can be
+ * fed incrementally (see {@link #append(char[], int, int)}) while a cue text is
+ * being read, then {@link #finish()} gives the normalized text of that cue.
+ * Instances are not thread safe.
+ */
+public class TextNormalizer {
+	private static final byte[] CHAR_CLASS = new byte[128];
+	private static final byte DROP = 2;
+	private static final byte KEEP = 0;
+	private static final char MUSIC_NOTE = '\u266A';
+	private static final byte SPACE = 1;
+	private static final byte TAG_START = 3;
+	private static final byte UPPER = 4;
+
+	static {
+		for (char c : " \t\n\u000B\f\r".toCharArray()) {
+			CHAR_CLASS[c] = SPACE;
+		}
+		for (char c : "-_.=+,*&".toCharArray()) {
+			CHAR_CLASS[c] = DROP;
+		}
+		for (char c = 'A'; c <= 'Z'; c++) {
+			CHAR_CLASS[c] = UPPER;
+		}
+		CHAR_CLASS['<'] = TAG_START;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+
+	public static String normalize(CharSequence text) {
+		TextNormalizer normalizer = new TextNormalizer();
+		normalizer.append(text, 0, text.length());
+		return normalizer.finish();
+	}
+
+	private boolean hasUpper;
+	private boolean inTag;
+	private boolean nonAscii;
+	private final StringBuilder out = new StringBuilder();
+	private boolean pendingSpace;
+	private final StringBuilder tag = new StringBuilder();
+
+	public TextNormalizer append(char c) {
+		if (inTag) {
+			if (c == '>') {
+				inTag = false;
+				tag.setLength(0);
+			} else {
+				tag.append(c);
+			}
+		} else {
+			process(c, true);
+		}
+		return this;
+	}
+
+	public TextNormalizer append(char[] chars, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			append(chars[i]);
+		}
+		return this;
+	}
+
+	public TextNormalizer append(CharSequence text, int start, int end) {
+		for (int i = start; i < end; i++) {
+			append(text.charAt(i));
+		}
+		return this;
+	}
+
+	/**
+	 * End the current text, the normalizer can then be used for another one.
+	 *
+	 * @return the normalized text
+	 */
+	public String finish() {
+		if (inTag) {
+			// No closing '>': the '<' and what follows are plain text
+			inTag = false;
+			process('<', false);
+			for (int i = 0; i < tag.length(); i++) {
+				process(tag.charAt(i), false);
+			}
+			tag.setLength(0);
+		}
+		int length = out.length();
+		if (!pendingSpace && length > 1 && out.charAt(length - 2) == ' '
+				&& isLineTerminator(out.charAt(length - 1))) {
+			// Without a trailing space, " $" matches before a final line terminator
+			out.deleteCharAt(length - 2);
+		}
+		if (nonAscii || (hasUpper && isLocaleSensitive())) {
+			String lowerCase = out.toString().toLowerCase();
+			out.setLength(0);
+			out.append(lowerCase);
+		} else if (hasUpper) {
+			for (int i = 0; i < out.length(); i++) {
+				char c = out.charAt(i);
+				if (c >= 'A' && c <= 'Z') {
+					out.setCharAt(i, (char) (c + ('a' - 'A')));
+				}
+			}
+		}
+		String result = out.toString();
+		out.setLength(0);
+		pendingSpace = false;
+		hasUpper = false;
+		nonAscii = false;
+		return result;
+	}
+
+	private boolean isLocaleSensitive() {
+		String language = Locale.getDefault().getLanguage();
+		return "tr".equals(language) || "az".equals(language) || "lt".equals(language);
+	}
+
+	private void process(char c, boolean tagsEnabled) {
+		byte charClass = c < 128 ? CHAR_CLASS[c] : (c == MUSIC_NOTE ? DROP : KEEP);
+		if (charClass == TAG_START && tagsEnabled) {
+			inTag = true;
+			return;
+		}
+		switch (charClass) {
+			case SPACE :
+				pendingSpace = out.length() > 0;
+				break;
+			case DROP :
+				break;
+			default : // KEEP, UPPER, plain '<'
+				if (pendingSpace) {
+					out.append(' ');
+					pendingSpace = false;
+				}
+				out.append(c);
+				hasUpper |= charClass == UPPER;
+				nonAscii |= c >= 128;
+				break;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package org.moussel.resynchrosub;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Same language matching restricted to the cues whose times are compatible:
+ * two releases of a film are usually within a few seconds of each other once
+ * shifted by the right offset.
+ *
+ * The cues whose normalized text is unique in both tracks, in order on both
+ * sides, give a coarse time map: the offset of the start of each cue of the
+ * first track is interpolated between these anchors, ignoring the anchors too
+ * far from the median offset of their neighbours. The cues of both tracks are
+ * then aligned by the hash of their normalized text (longest common
+ * subsequence) within a diagonal band: a cue of the first track may only be
+ * matched with the cues of the second one that start within the band width of
+ * its mapped start. Equal cues are perfect matches, the regions in between are
+ * diffed character by character (see {@link CueHashMatcher}).
+ *
+ * An alignment with fewer equal cues than anchors missed some of them: the
+ * band is too narrow, it is doubled and the cues are aligned again. The cost
+ * of the alignment is linear in the length of the tracks times the number of
+ * cues in the band.
+ */
+final class TimeBandedMatcher {
+	/**
+	 * Half width of the band, in milliseconds, before it is widened
+	 * (<code>resynchrosub.alignmentBandWidth</code> system property)
+	 */
+	static final long BAND_WIDTH_MILLIS = Long.getLong("resynchrosub.alignmentBandWidth", 10000L);
+	static final Logger LOGGER = Logger.getLogger(TimeBandedMatcher.class.getName());
+
+	/**
+	 * Anchors further from the median offset of their neighbours are not used
+	 * for the time map
+	 */
+	private static final long MAX_ANCHOR_DEVIATION_MILLIS = 2000;
+	/**
+	 * The band cells, one byte each, have to fit in the memory budget
+	 */
+	private static final long MAX_CELL_COUNT = Math.min(ChunkedMatcher.MEMORY_BUDGET, Integer.MAX_VALUE - 8);
+	/**
+	 * Number of neighbours on each side of an anchor for its median offset
+	 */
+	private static final int MEDIAN_RADIUS = 4;
+
+	/**
+	 * @return the first and last index of the cues of the second track that may
+	 *         be aligned after each number of cues of the first track: a cue of
+	 *         the second track is in the band of the boundary between two cues
+	 *         of the first track when it starts within the band width of the
+	 *         time between them
+	 */
+	static int[][] band(long[] mappedStarts, long[] starts2, long width) {
+		int[] low = new int[mappedStarts.length + 1];
+		int[] high = new int[mappedStarts.length + 1];
+		int from = 0;
+		int to = 0;
+		for (int i = 0; i <= mappedStarts.length; i++) {
+			if (i > 0) {
+				while (from < starts2.length && starts2[from] < mappedStarts[i - 1] - width) {
+					from++;
+				}
+			}
+			if (i < mappedStarts.length) {
+				while (to < starts2.length && starts2[to] <= mappedStarts[i] + width) {
+					to++;
+				}
+			} else {
+				to = starts2.length;
+			}
+			low[i] = from;
+			high[i] = to;
+		}
+		return new int[][]{low, high};
+	}
+
+	/**
+	 * @return the number of cells of a band
+	 */
+	static long cellCount(int[][] band) {
+		long cellCount = 0;
+		for (int i = 0; i < band[0].length; i++) {
+			cellCount += band[1][i] - band[0][i] + 1;
+		}
+		return cellCount;
+	}
+
+	/**
+	 * @return the matches of both tracks, <code>null</code> if the band would not
+	 *         fit in the memory budget
+	 */
+	static List<SubtitleMatch> computeMatchSameLanguage(SubtitleTrack srcTrack, SubtitleTrack reSyncSrcTrack) {
+		long[] hashes1 = AnchoredMatcher.hashes(srcTrack);
+		long[] hashes2 = AnchoredMatcher.hashes(reSyncSrcTrack);
+		List<int[]> anchors = AnchoredMatcher.anchors(hashes1, 0, hashes1.length, hashes2, 0, hashes2.length);
+		long[] mappedStarts = mappedStarts(srcTrack, reSyncSrcTrack, anchors);
+		long[] starts2 = starts(reSyncSrcTrack);
+		for (long width = Math.max(1, BAND_WIDTH_MILLIS);; width *= 2) {
+			int[][] band = band(mappedStarts, starts2, width);
+			long cellCount = cellCount(band);
+			if (cellCount > MAX_CELL_COUNT) {
+				LOGGER.info("Time band of " + width + " ms too wide for the memory budget (" + cellCount + " cells)");
+				return null;
+			}
+			BandAlignment alignment = new BandAlignment(hashes1, hashes2, band[0], band[1], (int) cellCount);
+			if (alignment.equalCount >= anchors.size() || width >= Long.MAX_VALUE / 2) {
+				LOGGER.fine("Aligned " + alignment.equalCount + " cues in a time band of " + width + " ms ("
+						+ cellCount + " cells)");
+				return CueHashMatcher.matchRuns(srcTrack, reSyncSrcTrack, alignment.runs(),
+						ResynchroCore::computeMatchSameLanguage);
+			}
+			LOGGER.fine("Time band of " + width + " ms too narrow, " + alignment.equalCount + " equal cues for "
+					+ anchors.size() + " anchors");
+		}
+	}
+
+	/**
+	 * @return the start of each cue of the first track, shifted to the time of
+	 *         the second one by the offset of the anchors, interpolated between
+	 *         them (in increasing order)
+	 */
+	static long[] mappedStarts(SubtitleTrack track1, SubtitleTrack track2, List<int[]> anchors) {
+		long[] anchorOffsets = new long[anchors.size()];
+		for (int k = 0; k < anchorOffsets.length; k++) {
+			int[] anchor = anchors.get(k);
+			anchorOffsets[k] = (long) track2.getStartMillis(anchor[1]) - track1.getStartMillis(anchor[0]);
+		}
+		// Anchors consistent with their neighbours
+		int[] indexes = new int[anchorOffsets.length];
+		long[] offsets = new long[anchorOffsets.length];
+		int count = 0;
+		long[] window = new long[2 * MEDIAN_RADIUS + 1];
+		for (int k = 0; k < anchorOffsets.length; k++) {
+			int from = Math.max(0, k - MEDIAN_RADIUS);
+			int to = Math.min(anchorOffsets.length, k + MEDIAN_RADIUS + 1);
+			System.arraycopy(anchorOffsets, from, window, 0, to - from);
+			Arrays.sort(window, 0, to - from);
+			if (Math.abs(anchorOffsets[k] - window[(to - from) / 2]) <= MAX_ANCHOR_DEVIATION_MILLIS) {
+				indexes[count] = anchors.get(k)[0];
+				offsets[count++] = anchorOffsets[k];
+			}
+		}
+		long[] mappedStarts = new long[track1.size()];
+		int next = 0;
+		for (int i = 0; i < mappedStarts.length; i++) {
+			while (next < count && indexes[next] < i) {
+				next++;
+			}
+			long start = track1.getStartMillis(i);
+			long offset;
+			if (count == 0) {
+				offset = 0;
+			} else if (next == count) {
+				offset = offsets[count - 1];
+			} else if (next == 0 || indexes[next] == i) {
+				offset = offsets[next];
+			} else {
+				long start0 = track1.getStartMillis(indexes[next - 1]);
+				long start1 = track1.getStartMillis(indexes[next]);
+				offset = offsets[next - 1];
+				if (start1 > start0) {
+					offset += (offsets[next] - offsets[next - 1]) * (Math.max(start0, Math.min(start1, start)) - start0)
+							/ (start1 - start0);
+				}
+			}
+			mappedStarts[i] = Math.max(i > 0 ? mappedStarts[i - 1] : Long.MIN_VALUE, start + offset);
+		}
+		return mappedStarts;
+	}
+
+	/**
+	 * @return the start of each cue of a track, in increasing order (a cue
+	 *         starting before the previous one is counted at its start)
+	 */
+	static long[] starts(SubtitleTrack track) {
+		long[] starts = new long[track.size()];
+		for (int i = 0; i < starts.length; i++) {
+			starts[i] = Math.max(i > 0 ? starts[i - 1] : Long.MIN_VALUE, track.getStartMillis(i));
+		}
+		return starts;
+	}
+
+	private TimeBandedMatcher() {
+	}
+
+	/**
+	 * Longest common subsequence of the cue hashes of both tracks within a band:
+	 * after <code>i</code> cues of the first track, only the cues from
+	 * <code>low[i]</code> to <code>high[i]</code> of the second one may have
+	 * been aligned. The move to each cell of the band is kept for the path.
+	 */
+	private static final class BandAlignment {
+		private static final byte DIAGONAL = 1;
+		private static final byte LEFT = 2;
+		private static final byte UP = 3;
+
+		/** Number of equal cues of the alignment */
+		final int equalCount;
+		private final int[] high;
+		private final int[] low;
+		private final byte[] moves;
+		private final int[] rowStarts;
+
+		BandAlignment(long[] hashes1, long[] hashes2, int[] low, int[] high, int cellCount) {
+			this.low = low;
+			this.high = high;
+			rowStarts = new int[low.length];
+			moves = new byte[cellCount];
+			int width = 0;
+			for (int i = 0; i < low.length; i++) {
+				rowStarts[i] = i > 0 ? rowStarts[i - 1] + high[i - 1] - low[i - 1] + 1 : 0;
+				width = Math.max(width, high[i] - low[i] + 1);
+			}
+			int[] previous = new int[width];
+			int[] current = new int[width];
+			for (int i = 0; i < low.length; i++) {
+				for (int j = low[i]; j <= high[i]; j++) {
+					int best = i == 0 && j == 0 ? 0 : -1;
+					byte move = 0;
+					if (i > 0 && j >= low[i - 1] && j <= high[i - 1] && previous[j - low[i - 1]] > best) {
+						best = previous[j - low[i - 1]];
+						move = UP;
+					}
+					if (j > low[i] && current[j - 1 - low[i]] > best) {
+						best = current[j - 1 - low[i]];
+						move = LEFT;
+					}
+					if (i > 0 && j > low[i - 1] && j - 1 <= high[i - 1] && hashes1[i - 1] == hashes2[j - 1]
+							&& previous[j - 1 - low[i - 1]] >= 0 && previous[j - 1 - low[i - 1]] + 1 >= best) {
+						best = previous[j - 1 - low[i - 1]] + 1;
+						move = DIAGONAL;
+					}
+					current[j - low[i]] = best;
+					moves[rowStarts[i] + j - low[i]] = move;
+				}
+				int[] row = previous;
+				previous = current;
+				current = row;
+			}
+			int last = low.length - 1;
+			equalCount = previous[high[last] - low[last]];
+		}
+
+		/**
+		 * @return the path of the alignment, from its last cell back to the first
+		 *         one, as runs of regions and equal cues
+		 */
+		CueHashMatcher.CueRuns runs() {
+			int i = low.length - 1;
+			int j = high[i];
+			byte[] path = new byte[i + j];
+			int length = 0;
+			while (i > 0 || j > 0) {
+				byte move = moves[rowStarts[i] + j - low[i]];
+				path[length++] = move;
+				if (move != LEFT) {
+					i--;
+				}
+				if (move != UP) {
+					j--;
+				}
+			}
+			CueHashMatcher.CueRuns runs = new CueHashMatcher.CueRuns();
+			for (int k = length - 1; k >= 0; k--) {
+				switch (path[k]) {
+					case DIAGONAL :
+						runs.equal(1);
+						break;
+					case UP :
+						runs.region(1, 0);
+						break;
+					default : // LEFT
+						runs.region(0, 1);
+						break;
+				}
+			}
+			runs.end();
+			return runs;
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A parsed and normalized subtitle track, in the <code>.rsidx</code> binary
+ * format: loading it is a few bulk copies from a mapped file, without parsing
+ * nor normalizing.
+ *
+ * <pre>
+ * int magic "RSIX", int version, byte[32] key
+ * int cueCount, int textLength, int normalizedLength
+ * int[cueCount] startMillis, int[cueCount] endMillis
+ * int[cueCount + 1] textOffsets, char[textLength] text
+ * int[cueCount + 1] normalizedOffsets, char[normalizedLength] normalized text
+ * </pre>
+ *
+ * All values are little endian, char arrays are padded to a multiple of 4
+ * bytes.
+ */
+public class TrackIndex {
+	static final int KEY_LENGTH = 32;
+	static final int MAGIC = 0x58495352;
+	static final int VERSION = 2;
+
+	private static final int HEADER_SIZE = 4 + 4 + KEY_LENGTH + 3 * 4;
+
+	/**
+	 * Build the index of a track, normalizing it if needed.
+	 */
+	public static TrackIndex build(SubtitleTrack track) {
+		track.normalize(false);
+		return new TrackIndex(track);
+	}
+
+	private static char[] getChars(ByteBuffer buffer, int length) {
+		char[] chars = new char[length];
+		buffer.asCharBuffer().get(chars);
+		buffer.position(buffer.position() + padded(length * 2));
+		return chars;
+	}
+
+	private static int[] getInts(ByteBuffer buffer, int length) {
+		int[] ints = new int[length];
+		buffer.asIntBuffer().get(ints);
+		buffer.position(buffer.position() + length * 4);
+		return ints;
+	}
+
+	/**
+	 * Load an index file, mapping it in memory.
+	 *
+	 * @param expectedKey
+	 *            the key the index must have been written with
+	 * @return the index, <code>null</code> if the file is not an index of this
+	 *         version or has another key
+	 */
+	public static TrackIndex load(Path file, byte[] expectedKey) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				return null;
+			}
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+			byte[] key = new byte[KEY_LENGTH];
+			buffer.get(key);
+			if (!Arrays.equals(key, expectedKey)) {
+				return null;
+			}
+			int cueCount = buffer.getInt();
+			int textLength = buffer.getInt();
+			int normalizedLength = buffer.getInt();
+			long expectedSize = HEADER_SIZE + 8L * cueCount + 2 * 4L * (cueCount + 1) + padded(textLength * 2L)
+					+ padded(normalizedLength * 2L);
+			if (cueCount < 0 || textLength < 0 || normalizedLength < 0 || expectedSize != channel.size()) {
+				throw new IOException("Corrupted track index: " + file);
+			}
+			int[] startMillis = getInts(buffer, cueCount);
+			int[] endMillis = getInts(buffer, cueCount);
+			int[] textOffsets = getInts(buffer, cueCount + 1);
+			char[] text = getChars(buffer, textLength);
+			int[] normalizedOffsets = getInts(buffer, cueCount + 1);
+			char[] normalized = getChars(buffer, normalizedLength);
+			return new TrackIndex(SubtitleTrack.fromArrays(startMillis, endMillis, textOffsets, text,
+					normalizedOffsets, normalized));
+		}
+	}
+
+	private static int padded(int byteLength) {
+		return (byteLength + 3) & ~3;
+	}
+
+	private static long padded(long byteLength) {
+		return (byteLength + 3) & ~3L;
+	}
+
+	private static void putChars(ByteBuffer buffer, CharSequence chars) {
+		buffer.asCharBuffer().append(chars);
+		buffer.position(buffer.position() + chars.length() * 2);
+	}
+
+	private static void putInts(ByteBuffer buffer, int[] ints, int length) {
+		buffer.asIntBuffer().put(ints, 0, length);
+		buffer.position(buffer.position() + length * 4);
+	}
+
+	private final SubtitleTrack track;
+
+	private TrackIndex(SubtitleTrack track) {
+		this.track = track;
+	}
+
+	/**
+	 * @return the normalized track
+	 */
+	public SubtitleTrack getTrack() {
+		return track;
+	}
+
+	/**
+	 * Write the index, with the key identifying its source.
+	 */
+	public void write(WritableByteChannel channel, byte[] key) throws IOException {
+		int cueCount = track.size();
+		int[] startMillis = new int[cueCount];
+		int[] endMillis = new int[cueCount];
+		int[] textOffsets = new int[cueCount + 1];
+		int[] normalizedOffsets = new int[cueCount + 1];
+		StringBuilder normalized = new StringBuilder();
+		for (int i = 0; i < cueCount; i++) {
+			startMillis[i] = track.getStartMillis(i);
+			endMillis[i] = track.getEndMillis(i);
+			textOffsets[i + 1] = textOffsets[i] + track.getTextLength(i);
+			track.appendNormalizedText(i, normalized);
+			normalizedOffsets[i + 1] = normalized.length();
+		}
+		int textLength = textOffsets[cueCount];
+		long size = HEADER_SIZE + 8L * cueCount + 2 * 4L * (cueCount + 1) + padded(textLength * 2L)
+				+ padded(normalized.length() * 2L);
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Track too large to be indexed");
+		}
+		ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).put(key);
+		buffer.putInt(cueCount).putInt(textLength).putInt(normalized.length());
+		putInts(buffer, startMillis, cueCount);
+		putInts(buffer, endMillis, cueCount);
+		putInts(buffer, textOffsets, cueCount + 1);
+		for (int i = 0; i < cueCount; i++) {
+			putChars(buffer, track.getTextSequence(i));
+		}
+		buffer.position(buffer.position() + padded(textLength * 2) - textLength * 2);
+		putInts(buffer, normalizedOffsets, cueCount + 1);
+		putChars(buffer, normalized);
+		// Up to the padding of the last chars
+		buffer.rewind();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
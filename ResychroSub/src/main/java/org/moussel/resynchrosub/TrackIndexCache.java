@@ -0,0 +1,107 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Directory of {@link TrackIndex} files (<code>.rsidx</code>), named after the
+ * SHA-256 hash of the subtitle file content, format and charset: a file
+ * already indexed is loaded without being parsed again, wherever it is and
+ * whatever its name.
+ */
+public class TrackIndexCache {
+	public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("user.home"), ".resynchrosub", "index");
+	static final String EXTENSION = ".rsidx";
+	static final Logger LOGGER = Logger.getLogger(TrackIndexCache.class.getName());
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	/**
+	 * @return the key of a subtitle file: the hash of its content, format and
+	 *         charset
+	 */
+	static byte[] computeKey(Path file, SubtitleFormat format, Charset charset) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		digest.update((format.getName() + "\u0000" + charset.name() + "\u0000").getBytes(StandardCharsets.UTF_8));
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		}
+		return digest.digest();
+	}
+
+	private static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+	private final Path directory;
+
+	public TrackIndexCache() {
+		this(DEFAULT_DIRECTORY);
+	}
+
+	public TrackIndexCache(Path directory) {
+		this.directory = directory;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Load the index of the subtitle file, parsing it and storing its index if it
+	 * is not in the cache yet. A cache that cannot be written is only logged.
+	 */
+	public TrackIndex load(SubtitleFile subtitleFile) throws IOException {
+		Path file = subtitleFile.getSrtFile().toPath();
+		byte[] key = computeKey(file, subtitleFile.getFormat(), subtitleFile.getCharset());
+		Path indexFile = directory.resolve(toHex(key) + EXTENSION);
+		if (Files.isRegularFile(indexFile)) {
+			try {
+				TrackIndex index = TrackIndex.load(indexFile, key);
+				if (index != null) {
+					LOGGER.fine("Loaded track index " + indexFile + " for " + file);
+					return index;
+				}
+			} catch (IOException e) {
+				LOGGER.log(Level.WARNING, "Ignoring unreadable track index " + indexFile, e);
+			}
+		}
+		TrackIndex index;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			index = TrackIndex.build(subtitleFile.getFormat().read(channel, subtitleFile.getCharset(), true));
+		}
+		try {
+			Files.createDirectories(directory);
+			SubtitleFile.writeAtomically(indexFile, channel -> index.write(channel, key));
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "Cannot write track index " + indexFile, e);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,105 @@
+package org.moussel.resynchrosub;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * WebVTT (<code>.vtt</code>) format. Cue identifiers, settings, NOTE, STYLE
+ * and REGION blocks are ignored on read; cue texts are kept as is, WebVTT
+ * accepting the same <code>&lt;i&gt;</code> like tags as SRT.
+ */
+public class WebVttFormat extends LineSubtitleFormat {
+	private static final String ARROW = "-->";
+
+	@Override
+	public List<String> getExtensions() {
+		return Collections.singletonList("vtt");
+	}
+
+	@Override
+	public String getName() {
+		return "WebVTT";
+	}
+
+	@Override
+	SubtitleTrack readTrack(BufferedReader reader, TextNormalizer normalizer) throws IOException {
+		SubtitleTrack track = new SubtitleTrack();
+		StringBuilder text = new StringBuilder();
+		String line = reader.readLine();
+		if (line != null && line.startsWith("\uFEFF")) {
+			line = line.substring(1);
+		}
+		if (line == null || !line.startsWith("WEBVTT")) {
+			throw new IOException("Not a WebVTT file, missing WEBVTT header");
+		}
+		// Skip the rest of the header block
+		while (line != null && !line.isEmpty()) {
+			line = reader.readLine();
+		}
+		while (line != null) {
+			while (line != null && line.trim().isEmpty()) {
+				line = reader.readLine();
+			}
+			if (line == null) {
+				break;
+			}
+			if (!line.contains(ARROW)) {
+				if (line.startsWith("NOTE") || line.startsWith("STYLE") || line.startsWith("REGION")) {
+					line = skipBlock(reader);
+					continue;
+				}
+				// Cue identifier
+				line = reader.readLine();
+			}
+			int arrow = line == null ? -1 : line.indexOf(ARROW);
+			if (arrow < 0) {
+				line = line == null ? null : skipBlock(reader);
+				continue;
+			}
+			long start = parseClockMillis(line.substring(0, arrow), '.');
+			String endPart = line.substring(arrow + ARROW.length()).trim();
+			int settings = endPart.indexOf(' ');
+			long end = parseClockMillis(settings < 0 ? endPart : endPart.substring(0, settings), '.');
+			text.setLength(0);
+			while ((line = reader.readLine()) != null && !line.isEmpty()) {
+				if (text.length() > 0) {
+					text.append(NEW_LINE);
+				}
+				text.append(line);
+			}
+			if (start >= 0 && end >= 0) {
+				addCue(track, start, end, text, normalizer);
+			}
+		}
+		return track;
+	}
+
+	private String skipBlock(BufferedReader reader) throws IOException {
+		String line;
+		while ((line = reader.readLine()) != null && !line.isEmpty()) {
+			// Skip
+		}
+		return line;
+	}
+
+	@Override
+	void writeTrack(SubtitleTrack track, Writer writer) throws IOException {
+		writer.write("WEBVTT");
+		writer.write(NEW_LINE);
+		writer.write(NEW_LINE);
+		for (int i = 0; i < track.size(); i++) {
+			writer.write(Integer.toString(i + 1));
+			writer.write(NEW_LINE);
+			writer.write(formatClock(track.getStartMillis(i), 2, '.', 3));
+			writer.write(" --> ");
+			writer.write(formatClock(track.getEndMillis(i), 2, '.', 3));
+			writer.write(NEW_LINE);
+			writer.append(track.getTextSequence(i));
+			writer.write(NEW_LINE);
+			writer.write(NEW_LINE);
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The time budget of {@link AnchoredMatcher} bounds the diffs of all its
+ * regions together, however many regions there are.
+ */
+public class AnchoredMatcherTest {
+	private static final String PARALLEL_PROPERTY = "resynchrosub.parallelAlignment";
+	private static final int REGION_COUNT = 100;
+	/**
+	 * Characters of each side of a region
+	 */
+	private static final int REGION_LENGTH = 3000;
+	private static final long TIME_BUDGET_MILLIS = 1000;
+
+	private static String random(Random random, int length) {
+		StringBuilder text = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			text.append("abcd ".charAt(random.nextInt(5)));
+		}
+		return text.toString();
+	}
+
+	@Test
+	public void testTimeBudget() {
+		// Regions of unrelated texts between unique cues: the diffs would take longer than the budget
+		Random random = new Random(18);
+		SubtitleTrack srcTrack = new SubtitleTrack(2 * REGION_COUNT + 1);
+		SubtitleTrack reSyncSrcTrack = new SubtitleTrack(2 * REGION_COUNT + 1);
+		for (int i = 0; i < REGION_COUNT; i++) {
+			srcTrack.add(i * 6000L, i * 6000L + 2000, "Anchor " + i);
+			reSyncSrcTrack.add(i * 6000L, i * 6000L + 2000, "Anchor " + i);
+			srcTrack.add(i * 6000L + 3000, i * 6000L + 5000, random(random, REGION_LENGTH));
+			reSyncSrcTrack.add(i * 6000L + 3000, i * 6000L + 5000, random(random, REGION_LENGTH));
+		}
+		srcTrack.add(REGION_COUNT * 6000L, REGION_COUNT * 6000L + 2000, "Anchor " + REGION_COUNT);
+		reSyncSrcTrack.add(REGION_COUNT * 6000L, REGION_COUNT * 6000L + 2000, "Anchor " + REGION_COUNT);
+
+		String previous = System.getProperty(PARALLEL_PROPERTY);
+		// Sequential diffs: their times add up
+		System.setProperty(PARALLEL_PROPERTY, Boolean.FALSE.toString());
+		try {
+			// Time of the matching besides the diffs
+			long start = System.nanoTime();
+			new AnchoredMatcher(0).computeMatchSameLanguage(srcTrack, reSyncSrcTrack);
+			long overheadMillis = (System.nanoTime() - start) / 1000000;
+
+			start = System.nanoTime();
+			AlignmentResult result = new AnchoredMatcher(TIME_BUDGET_MILLIS).computeMatchSameLanguage(srcTrack,
+					reSyncSrcTrack);
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+			assertTrue(result.isDegraded());
+			assertTrue(elapsedMillis + " ms", elapsedMillis < TIME_BUDGET_MILLIS + overheadMillis + 200);
+		} finally {
+			if (previous == null) {
+				System.clearProperty(PARALLEL_PROPERTY);
+			} else {
+				System.setProperty(PARALLEL_PROPERTY, previous);
+			}
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Subtitle files read from zip and gzip archives, without extracting them.
+ */
+public class ArchiveEntrySourceTest {
+	private static final String PREFIX = "Film.2018.";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return the content of a one cue SRT file
+	 */
+	private static byte[] srt(String text, Charset charset) {
+		return ("1\r\n00:00:01,000 --> 00:00:02,500\r\n" + text + "\r\n\r\n").getBytes(charset);
+	}
+
+	private static List<String> texts(SubtitleTrack track) {
+		List<String> texts = new ArrayList<>();
+		for (int i = 0; i < track.size(); i++) {
+			texts.add(track.getText(i));
+		}
+		return texts;
+	}
+
+	private Path gzip(String name, byte[] content) throws IOException {
+		Path archive = folder.getRoot().toPath().resolve(name);
+		try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(archive))) {
+			out.write(content);
+		}
+		return archive;
+	}
+
+	/**
+	 * @return a zip of the given entry names and contents
+	 */
+	private Path zip(String name, Object... entries) throws IOException {
+		Path archive = folder.getRoot().toPath().resolve(name);
+		try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(archive))) {
+			for (int i = 0; i < entries.length; i += 2) {
+				out.putNextEntry(new ZipEntry((String) entries[i]));
+				out.write((byte[]) entries[i + 1]);
+				out.closeEntry();
+			}
+		}
+		return archive;
+	}
+
+	@Test
+	public void testCharset() throws IOException {
+		Path archive = zip("Film.zip", PREFIX + "VF.fre.srt", srt("Déjà là", Charset.forName("windows-1252")));
+		ArchiveEntrySource entry = ArchiveEntrySource.listEntries(archive).get(0);
+		entry.setCharset(Charset.forName("windows-1252"));
+		assertEquals(Arrays.asList("Déjà là"), texts(entry.load(false)));
+		// Not UTF-8: replaced, not failing
+		entry.setCharset(StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList("D\uFFFDj\uFFFD l\uFFFD"), texts(entry.load(false)));
+
+		ArchiveEntrySource gzEntry = ArchiveEntrySource
+				.listEntries(gzip(PREFIX + "VO.eng.srt.gz", srt("Naïve café", StandardCharsets.UTF_8))).get(0);
+		gzEntry.setCharset(StandardCharsets.UTF_8);
+		assertEquals(Arrays.asList("Naïve café"), texts(gzEntry.load(true)));
+		assertEquals("naïve café", gzEntry.load(true).getNormalizedText(0));
+	}
+
+	@Test
+	public void testCorruptArchives() throws IOException {
+		byte[] valid = Files
+				.readAllBytes(zip("valid.zip", PREFIX + "VF.fre.srt", srt("Bonjour", StandardCharsets.UTF_8)));
+		for (byte[] content : new byte[][]{Arrays.copyOf(valid, valid.length - 10), "Pas une archive".getBytes(),
+				new byte[0]}) {
+			Path archive = folder.getRoot().toPath().resolve("Film.zip");
+			Files.write(archive, content);
+			try {
+				ArchiveEntrySource.listEntries(archive);
+				fail("Corrupt zip listed");
+			} catch (IOException e) {
+				// Skipped by ResynchroMain
+			}
+		}
+		// Listed from its name, skipped when opened
+		ArchiveEntrySource entry = ArchiveEntrySource
+				.listEntries(folder.getRoot().toPath().resolve(PREFIX + "VF.fre.srt.gz")).get(0);
+		Files.write(entry.getArchive(), srt("Bonjour", StandardCharsets.UTF_8));
+		assertFalse(ResynchroMain.hasFormat(entry));
+		// Truncated: fails while read
+		byte[] gzip = Files.readAllBytes(gzip(PREFIX + "VO.eng.srt.gz", srt("Hello", StandardCharsets.UTF_8)));
+		Files.write(entry.getArchive(), Arrays.copyOf(gzip, gzip.length - 12));
+		try {
+			entry.load(false);
+			fail("Truncated gzip read");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testGzip() throws IOException {
+		Path archive = gzip(PREFIX + "VO.eng.srt.gz", srt("Hello", StandardCharsets.UTF_8));
+		List<ArchiveEntrySource> entries = ArchiveEntrySource.listEntries(archive);
+		assertEquals(1, entries.size());
+		assertEquals(PREFIX + "VO.eng.srt", entries.get(0).getFileName());
+		assertEquals(archive.toString(), entries.get(0).getName());
+		assertEquals(Arrays.asList("Hello"), texts(entries.get(0).load(false)));
+		assertTrue(ArchiveEntrySource.mayContain(archive.getFileName().toString(), PREFIX));
+		assertFalse(ArchiveEntrySource.mayContain("Autre.VO.eng.srt.gz", PREFIX));
+		// Not a subtitle format
+		assertEquals(0, ArchiveEntrySource.listEntries(gzip(PREFIX + "nfo.gz", new byte[]{1})).size());
+	}
+
+	@Test
+	public void testZipEntries() throws IOException {
+		Path archive = zip("Film.zip", "Subs/", new byte[0], "Subs/" + PREFIX + "VF.fre.srt",
+				srt("Bonjour", StandardCharsets.UTF_8), "Subs/" + PREFIX + "VO.eng.vtt",
+				"WEBVTT\r\n\r\n00:01.000 --> 00:02.500\r\nHello\r\n".getBytes(StandardCharsets.UTF_8), "Lisez-moi.txt",
+				"Pas un sous-titre".getBytes(StandardCharsets.UTF_8), "Autre.VF.fre.srt",
+				srt("Autre film", StandardCharsets.UTF_8));
+		assertTrue(ArchiveEntrySource.mayContain("Film.zip", PREFIX));
+		List<ArchiveEntrySource> entries = ArchiveEntrySource.listEntries(archive);
+		// The supported formats only, in the order of the archive
+		List<String> names = new ArrayList<>();
+		for (ArchiveEntrySource entry : entries) {
+			names.add(entry.getEntryName());
+		}
+		assertEquals(Arrays.asList("Subs/" + PREFIX + "VF.fre.srt", "Subs/" + PREFIX + "VO.eng.vtt",
+				"Autre.VF.fre.srt"), names);
+		// The entry of another film does not match the prefix
+		assertEquals(0, ResynchroMain.fileNameParts(entries.get(2).getFileName(), PREFIX).length);
+		assertEquals(Arrays.asList("VF", "fre", "srt"),
+				Arrays.asList(ResynchroMain.fileNameParts(entries.get(0).getFileName(), PREFIX)));
+		assertEquals(archive + "!/Subs/" + PREFIX + "VF.fre.srt", entries.get(0).getName());
+		assertEquals(Arrays.asList("Bonjour"), texts(entries.get(0).load(false)));
+		assertTrue(entries.get(1).getFormat() instanceof WebVttFormat);
+		assertEquals(Arrays.asList("Hello"), texts(entries.get(1).load(false)));
+		try {
+			new ArchiveEntrySource(archive, "Absent.srt").load(false);
+			fail("Absent entry read");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,131 @@
+package org.moussel.resynchrosub;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedList;
+import java.util.Random;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+
+/**
+ * Compares {@link CharArrayDiff} with the {@link diff_match_patch} diff it
+ * replaces, on generated texts to compare of two versions of a film: time and
+ * memory allocated per diff, in line mode (the texts of whole tracks) and char
+ * by char (the texts of a few hundred cues).
+ *
+ * Run with: java org.moussel.resynchrosub.CharArrayDiffBenchmark [cueCount]
+ */
+public class CharArrayDiffBenchmark {
+	private static final int ROUNDS = 10;
+	private static final String[] WORDS = {"you", "i", "the", "what", "know", "here", "don't", "come", "right", "now",
+			"we", "think", "go", "tell", "back", "time", "well", "look", "one", "see"};
+
+	/**
+	 * @return the memory allocated by the current thread, <code>-1</code> if the
+	 *         JVM does not measure it
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threadBean)
+					.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	private static void compare(String title, String text1, String text2, boolean checklines) {
+		// No timeout, for the same diffs whatever the time they take
+		diff_match_patch legacyDiff = new diff_match_patch();
+		legacyDiff.Diff_Timeout = 0;
+		CharArrayDiff arrayDiff = new CharArrayDiff();
+		arrayDiff.Diff_Timeout = 0;
+		if (!legacyDiff.diff_main(text1, text2, checklines).equals(arrayDiff.diff_main(text1, text2, checklines))) {
+			throw new IllegalStateException("Diffs disagree");
+		}
+		long[] legacy = measure(legacyDiff, text1, text2, checklines);
+		long[] array = measure(arrayDiff, text1, text2, checklines);
+		System.out.println(title + " (" + text1.length() / 1024 + " KiB)");
+		System.out.println(
+				"  diff_match_patch: " + legacy[0] / 1000000 + " ms, " + legacy[1] / 1024 + " KiB allocated");
+		System.out.println(
+				"  CharArrayDiff:    " + array[0] / 1000000 + " ms, " + array[1] / 1024 + " KiB allocated");
+		System.out.println(String.format("  Speedup: %.1fx", (double) legacy[0] / array[0]));
+	}
+
+	/**
+	 * @return the text to compare of the cues of a film, and of another version
+	 *         of it with edited, split, merged, missing and added cues
+	 */
+	static String[] generate(int cueCount) {
+		Random random = new Random(cueCount);
+		StringBuilder text1 = new StringBuilder();
+		StringBuilder text2 = new StringBuilder();
+		for (int i = 0; i < cueCount; i++) {
+			StringBuilder cue = new StringBuilder();
+			int wordCount = 3 + random.nextInt(8);
+			for (int j = 0; j < wordCount; j++) {
+				cue.append(j > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			text1.append(cue).append(ResynchroCore.SUB_SEPARATOR);
+			switch (random.nextInt(20)) {
+				case 0 :
+					// Edited
+					text2.append(WORDS[random.nextInt(WORDS.length)]).append(cue, cue.indexOf(" "), cue.length())
+							.append(ResynchroCore.SUB_SEPARATOR);
+					break;
+				case 1 :
+					// Split
+					int split = cue.lastIndexOf(" ");
+					text2.append(cue, 0, split).append(ResynchroCore.SUB_SEPARATOR)
+							.append(cue, split + 1, cue.length()).append(ResynchroCore.SUB_SEPARATOR);
+					break;
+				case 2 :
+					// Merged with the next one
+					text2.append(cue).append(' ');
+					break;
+				case 3 :
+					// Missing
+					break;
+				case 4 :
+					// Added before
+					text2.append(WORDS[random.nextInt(WORDS.length)]).append(ResynchroCore.SUB_SEPARATOR);
+					text2.append(cue).append(ResynchroCore.SUB_SEPARATOR);
+					break;
+				default :
+					text2.append(cue).append(ResynchroCore.SUB_SEPARATOR);
+					break;
+			}
+		}
+		return new String[]{text1.toString(), text2.toString()};
+	}
+
+	public static void main(String[] args) {
+		int cueCount = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		String[] track = generate(cueCount);
+		compare("Line mode, " + cueCount + " cues", track[0], track[1], true);
+		String[] region = generate(Math.max(1, cueCount / 20));
+		compare("Char by char, " + Math.max(1, cueCount / 20) + " cues", region[0], region[1], false);
+	}
+
+	/**
+	 * @return the best time of a diff in nanoseconds, and the memory it
+	 *         allocated in bytes
+	 */
+	private static long[] measure(diff_match_patch diff, String text1, String text2, boolean checklines) {
+		long best = Long.MAX_VALUE;
+		long allocated = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long bytes = allocatedBytes();
+			long t0 = System.nanoTime();
+			LinkedList<Diff> diffs = diff.diff_main(text1, text2, checklines);
+			long t1 = System.nanoTime();
+			allocated = Math.min(allocated, allocatedBytes() - bytes);
+			best = Math.min(best, t1 - t0);
+			if (diffs.isEmpty()) {
+				throw new IllegalStateException("No diff");
+			}
+		}
+		return new long[]{best, allocated};
+	}
+}
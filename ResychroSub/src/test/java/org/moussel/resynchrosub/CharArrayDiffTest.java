@@ -0,0 +1,123 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import name.fraser.neil.plaintext.diff_match_patch;
+
+/**
+ * {@link CharArrayDiff} has to give the same diffs as
+ * {@link diff_match_patch#diff_main(String, String, boolean)}, in line mode or
+ * not, with no timeout (no half match) or with a timeout long enough never to
+ * be reached (half match).
+ */
+public class CharArrayDiffTest {
+	private static final String[] ALPHABETS = {"ab", "abc\n", "abcdefgh \n", "the quick\n", "ab\n\n", "éà€\n"};
+	/**
+	 * Seconds, never reached by the diffs of the test
+	 */
+	private static final float LONG_TIMEOUT = 1000f;
+	private static final int ROUNDS = 300;
+
+	private static void assertSameDiff(String text1, String text2, boolean checklines, float timeout) {
+		diff_match_patch expectedDiff = new diff_match_patch();
+		expectedDiff.Diff_Timeout = timeout;
+		CharArrayDiff actualDiff = new CharArrayDiff();
+		actualDiff.Diff_Timeout = timeout;
+		assertEquals(text1 + "\n/\n" + text2, expectedDiff.diff_main(text1, text2, checklines),
+				actualDiff.diff_main(text1, text2, checklines));
+	}
+
+	/**
+	 * @return the text with random insertions, deletions and substitutions
+	 */
+	private static String edited(Random random, String text, String alphabet) {
+		StringBuilder edited = new StringBuilder(text);
+		int editCount = random.nextInt(1 + text.length() / 5);
+		for (int i = 0; i < editCount; i++) {
+			int offset = edited.length() == 0 ? 0 : random.nextInt(edited.length());
+			switch (random.nextInt(3)) {
+				case 0 :
+					edited.insert(offset, random(random, 1 + random.nextInt(8), alphabet));
+					break;
+				case 1 :
+					edited.delete(offset, Math.min(edited.length(), offset + 1 + random.nextInt(8)));
+					break;
+				default :
+					if (edited.length() > 0) {
+						edited.setCharAt(offset, alphabet.charAt(random.nextInt(alphabet.length())));
+					}
+					break;
+			}
+		}
+		return edited.toString();
+	}
+
+	private static String random(Random random, int length, String alphabet) {
+		StringBuilder text = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+		}
+		return text.toString();
+	}
+
+	private void assertSameDiffs(boolean checklines, float timeout) {
+		Random random = new Random(21);
+		for (int round = 0; round < ROUNDS; round++) {
+			String alphabet = ALPHABETS[random.nextInt(ALPHABETS.length)];
+			String text1 = random(random, random.nextInt(random.nextBoolean() ? 20 : 600), alphabet);
+			String text2 = random.nextInt(4) == 0 ? random(random, random.nextInt(600), alphabet)
+					: edited(random, text1, alphabet);
+			assertSameDiff(text1, text2, checklines, timeout);
+		}
+	}
+
+	@Test
+	public void testCharsWithoutTimeout() {
+		assertSameDiffs(false, 0);
+	}
+
+	@Test
+	public void testCharsWithTimeout() {
+		assertSameDiffs(false, LONG_TIMEOUT);
+	}
+
+	@Test
+	public void testLinesWithoutTimeout() {
+		assertSameDiffs(true, 0);
+	}
+
+	@Test
+	public void testLinesWithTimeout() {
+		assertSameDiffs(true, LONG_TIMEOUT);
+	}
+
+	@Test
+	public void testTracks() {
+		// Texts to compare of two versions of a film, in line mode and char by char
+		for (int cueCount : new int[]{1, 10, 200, 500}) {
+			String[] texts = CharArrayDiffBenchmark.generate(cueCount);
+			for (boolean checklines : new boolean[]{false, true}) {
+				assertSameDiff(texts[0], texts[1], checklines, 0);
+				assertSameDiff(texts[0], texts[1], checklines, LONG_TIMEOUT);
+			}
+		}
+	}
+
+	@Test
+	public void testTrivialTexts() {
+		for (float timeout : new float[]{0, LONG_TIMEOUT}) {
+			for (boolean checklines : new boolean[]{false, true}) {
+				assertSameDiff("", "", checklines, timeout);
+				assertSameDiff("abc", "", checklines, timeout);
+				assertSameDiff("", "abc", checklines, timeout);
+				assertSameDiff("abc", "abc", checklines, timeout);
+				assertSameDiff("abc", "xyz", checklines, timeout);
+				assertSameDiff("ab\ncd\n", "ab\nxx\ncd\n", checklines, timeout);
+			}
+		}
+	}
+}
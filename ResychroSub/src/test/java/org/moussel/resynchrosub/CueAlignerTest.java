@@ -0,0 +1,147 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Matches of the cue alignment, and the same path whether the band is split
+ * (Hirschberg) or aligned at once with the moves kept.
+ */
+public class CueAlignerTest {
+	private static final String[] WORDS = {"alors", "bien", "chez", "demain", "encore", "faire", "gens", "hier",
+			"ici", "jamais", "loin", "maison", "nuit", "oui", "parce", "quand", "rien", "soir", "toujours", "vite"};
+
+	/**
+	 * @return the mode of each match, with the numbers of its cues
+	 */
+	private static List<String> keys(List<SubtitleMatch> matchList) {
+		List<String> keys = new ArrayList<>();
+		for (SubtitleMatch match : matchList) {
+			StringBuilder key = new StringBuilder(match.getMode().toString());
+			for (Subtitle sub : match.getSubAList()) {
+				key.append(" a").append(sub.getSubNumber());
+			}
+			for (Subtitle sub : match.getSubBList()) {
+				key.append(" b").append(sub.getSubNumber());
+			}
+			keys.add(key.toString());
+		}
+		return keys;
+	}
+
+	private static List<String> matched(String[] texts1, String[] texts2) {
+		return keys(CueAligner.computeMatchSameLanguage(track(texts1), track(texts2)));
+	}
+
+	/**
+	 * @return a track of cues every 3 s
+	 */
+	private static SubtitleTrack track(String... texts) {
+		SubtitleTrack track = new SubtitleTrack();
+		for (int i = 0; i < texts.length; i++) {
+			track.add(i * 3000L, i * 3000L + 2000, texts[i]);
+		}
+		return track;
+	}
+
+	private static String[] texts(String... texts) {
+		return texts;
+	}
+
+	@Test
+	public void testEdited() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "APPROX_MATCH a2 b2", "PERFECT_MATCH a3 b3"),
+				matched(texts("Bonjour.", "Je ne sais vraiment pas ce que tu veux dire par là.", "Au revoir."),
+						texts("Bonjour.", "Je ne sais vraiment pas ce que vous voulez dire par là.", "Au revoir.")));
+		// Too different to be the same cue
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "MISSING_A b2", "MISSING_B a2", "PERFECT_MATCH a3 b3"),
+				matched(texts("Bonjour.", "Je ne sais pas.", "Au revoir."),
+						texts("Bonjour.", "Quelle heure est-il ?", "Au revoir.")));
+	}
+
+	/**
+	 * More cells than {@link CueAligner#BASE_CELL_COUNT}: the band is split,
+	 * the path has to be the one of the band aligned at once.
+	 */
+	@Test
+	public void testHirschbergIsBase() {
+		Random random = new Random(23);
+		SubtitleTrack track1 = new SubtitleTrack();
+		SubtitleTrack track2 = new SubtitleTrack();
+		long time2 = 0;
+		String merged = null;
+		for (int i = 0; i < 3000; i++) {
+			StringBuilder text = new StringBuilder("Réplique " + i);
+			for (int k = 0; k < 6; k++) {
+				text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			String cue = text.toString();
+			track1.add(i * 400L, i * 400L + 300, cue);
+			int operation = random.nextInt(10);
+			if (merged != null) {
+				track2.add(time2 - 400, time2 + 300, merged + " " + cue);
+				merged = null;
+			} else if (operation == 0) {
+				// Split
+				int middle = cue.indexOf(' ', cue.length() / 2);
+				track2.add(time2, time2 + 150, cue.substring(0, middle));
+				track2.add(time2 + 150, time2 + 300, cue.substring(middle + 1));
+			} else if (operation == 1) {
+				// Missing
+			} else if (operation == 2) {
+				// Inserted
+				track2.add(time2, time2 + 150, "Ajout " + i);
+				track2.add(time2 + 150, time2 + 300, cue);
+			} else if (operation == 3) {
+				// Edited
+				track2.add(time2, time2 + 300, cue.substring(0, cue.lastIndexOf(' ')) + " autrement");
+			} else if (operation == 4) {
+				// Merged with the next one
+				merged = cue;
+				continue;
+			} else {
+				track2.add(time2, time2 + 300, cue);
+			}
+			time2 += 400 + random.nextInt(50);
+		}
+		List<String> split = keys(CueAligner.computeMatchSameLanguage(track1, track2));
+		List<String> base = keys(CueAligner.computeMatchSameLanguage(track1, track2, Integer.MAX_VALUE));
+		assertEquals(base, split);
+		assertTrue(split.stream().anyMatch(key -> key.startsWith("SPLIT_2B_IS_1A")));
+		assertTrue(split.stream().anyMatch(key -> key.startsWith("SPLIT_2A_IS_1B")));
+		assertTrue(split.stream().anyMatch(key -> key.startsWith("APPROX_MATCH")));
+		assertTrue(split.stream().anyMatch(key -> key.startsWith("MISSING_A")));
+		assertTrue(split.stream().anyMatch(key -> key.startsWith("MISSING_B")));
+		// Split down to the smallest parts
+		assertEquals(base, keys(CueAligner.computeMatchSameLanguage(track1, track2, 1)));
+	}
+
+	@Test
+	public void testMerged() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "SPLIT_2A_IS_1B a2 a3 b2", "PERFECT_MATCH a4 b3"),
+				matched(texts("Bonjour.", "Je ne sais pas", "ce que tu veux dire.", "Au revoir."),
+						texts("Bonjour.", "Je ne sais pas ce que tu veux dire.", "Au revoir.")));
+	}
+
+	@Test
+	public void testMissing() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "MISSING_B a2", "PERFECT_MATCH a3 b2", "MISSING_A b3",
+				"PERFECT_MATCH a4 b4"),
+				matched(texts("Bonjour.", "Tu es là ?", "Oui.", "Au revoir."),
+						texts("Bonjour.", "Oui.", "Entre donc.", "Au revoir.")));
+	}
+
+	@Test
+	public void testSplit() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "SPLIT_2B_IS_1A a2 b2 b3", "PERFECT_MATCH a3 b4"),
+				matched(texts("Bonjour.", "Je ne sais pas ce que tu veux dire.", "Au revoir."),
+						texts("Bonjour.", "Je ne sais pas", "ce que tu veux dire.", "Au revoir.")));
+	}
+}
@@ -0,0 +1,175 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import name.fraser.neil.plaintext.diff_match_patch.Diff;
+import name.fraser.neil.plaintext.diff_match_patch.Operation;
+
+/**
+ * Mapping of the diff of two joined texts to the matches of their cues, from
+ * the diff of {@link ResynchroCore#computeMatchSameLanguage(List, List)} or
+ * from a given diff.
+ */
+public class CueDiffMapperTest {
+	private static Diff delete(String text) {
+		return new Diff(Operation.DELETE, text);
+	}
+
+	private static Diff equal(String text) {
+		return new Diff(Operation.EQUAL, text);
+	}
+
+	private static Diff insert(String text) {
+		return new Diff(Operation.INSERT, text);
+	}
+
+	private static String joined(String... texts) {
+		return String.join(ResynchroCore.SUB_SEPARATOR, texts) + ResynchroCore.SUB_SEPARATOR;
+	}
+
+	/**
+	 * @return the mode of each match, with the numbers of its cues
+	 */
+	private static List<String> keys(List<SubtitleMatch> matchList) {
+		List<String> keys = new ArrayList<>();
+		for (SubtitleMatch match : matchList) {
+			StringBuilder key = new StringBuilder(match.getMode().toString());
+			for (Subtitle sub : match.getSubAList()) {
+				key.append(" a").append(sub.getSubNumber());
+			}
+			for (Subtitle sub : match.getSubBList()) {
+				key.append(" b").append(sub.getSubNumber());
+			}
+			keys.add(key.toString());
+		}
+		return keys;
+	}
+
+	/**
+	 * @return the matches of the given diff of the texts
+	 */
+	private static List<String> mapped(String[] texts1, String[] texts2, Diff... diffs) {
+		return keys(CueDiffMapper.computeMatches(Arrays.asList(diffs), joined(texts1), joined(texts2),
+				subs(texts1), subs(texts2)));
+	}
+
+	/**
+	 * @return the matches of the diff of the texts
+	 */
+	private static List<String> matched(String[] texts1, String[] texts2) {
+		return keys(ResynchroCore.computeMatchSameLanguage(subs(texts1), subs(texts2)));
+	}
+
+	private static List<Subtitle> subs(String... texts) {
+		List<Subtitle> subList = new ArrayList<>();
+		for (int i = 0; i < texts.length; i++) {
+			subList.add(new Subtitle(i + 1, i * 3000L, i * 3000L + 2000, texts[i]));
+		}
+		return subList;
+	}
+
+	private static String[] texts(String... texts) {
+		return texts;
+	}
+
+	@Test
+	public void testApproximateMatch() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "APPROX_MATCH a2 b2", "PERFECT_MATCH a3 b3"),
+				matched(texts("Bonjour.", "Je pars demain matin.", "Au revoir."),
+						texts("Bonjour.", "Je pars demain soir.", "Au revoir.")));
+	}
+
+	@Test
+	public void testBlankDifference() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "PERFECT_MATCH a2 b2"),
+				mapped(texts("je pars", "au revoir"), texts("je  pars", "au revoir"), equal("je "), insert(" "),
+						equal("pars\nau revoir\n")));
+	}
+
+	@Test
+	public void testDiffEndingInCue() {
+		// A diff which ran out of time: the cues it does not cover are missing
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "MISSING_B a2", "MISSING_B a3", "MISSING_A b2"),
+				mapped(texts("bonjour", "je pars", "au revoir"), texts("bonjour", "je pars"),
+						equal("bonjour\nje p")));
+	}
+
+	@Test
+	public void testMissingInFirst() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "MISSING_A b2", "PERFECT_MATCH a2 b3"),
+				matched(texts("Bonjour.", "Au revoir."), texts("Bonjour.", "Qui est là ?", "Au revoir.")));
+	}
+
+	@Test
+	public void testMissingInSecond() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "MISSING_B a2", "PERFECT_MATCH a3 b2"),
+				matched(texts("Bonjour.", "Qui est là ?", "Au revoir."), texts("Bonjour.", "Au revoir.")));
+	}
+
+	@Test
+	public void testMissingAtEnds() {
+		assertEquals(Arrays.asList("MISSING_A b1", "PERFECT_MATCH a1 b2", "MISSING_B a2"),
+				matched(texts("Je pars demain matin.", "Qui est là ?"),
+						texts("Bonjour.", "Je pars demain matin.")));
+	}
+
+	@Test
+	public void testOldSeparatorInText() {
+		// The cues used to be joined with this marker
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "PERFECT_MATCH a2 b2"),
+				matched(texts("Il a dit &§& non.", "Au revoir."), texts("Il a dit &§& non.", "Au revoir.")));
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "APPROX_MATCH a2 b2", "PERFECT_MATCH a3 b3"),
+				mapped(texts("bonjour", "il a dit &§& non", "au revoir"),
+						texts("bonjour", "il a dit non", "au revoir"), equal("bonjour\nil a dit "), delete("&§& "),
+						equal("non\nau revoir\n")));
+	}
+
+	@Test
+	public void testPerfectMatch() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "PERFECT_MATCH a2 b2"),
+				matched(texts("Bonjour.", "<i>Comment vas-tu ?</i>"), texts("Bonjour.", "Comment  vas-tu ?")));
+	}
+
+	@Test
+	public void testSplitInFirst() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "SPLIT_2A_IS_1B a2 a3 b2", "PERFECT_MATCH a4 b3"),
+				matched(texts("Bonjour.", "Je pars", "demain matin.", "Au revoir."),
+						texts("Bonjour.", "Je pars demain matin.", "Au revoir.")));
+	}
+
+	@Test
+	public void testSplitInFirstWithBlanks() {
+		// The line break of the first text is two spaces in the second one
+		assertEquals(Arrays.asList("SPLIT_2A_IS_1B a1 a2 b1", "PERFECT_MATCH a3 b2"),
+				mapped(texts("je pars", "demain", "au revoir"), texts("je pars  demain", "au revoir"),
+						equal("je pars"), delete("\n"), insert("  "), equal("demain\nau revoir\n")));
+	}
+
+	@Test
+	public void testSplitInSecond() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "SPLIT_2B_IS_1A a2 b2 b3", "PERFECT_MATCH a3 b4"),
+				matched(texts("Bonjour.", "Je pars demain matin.", "Au revoir."),
+						texts("Bonjour.", "Je pars", "demain matin.", "Au revoir.")));
+	}
+
+	@Test
+	public void testSplitInSecondWithBlanks() {
+		assertEquals(Arrays.asList("SPLIT_2B_IS_1A a1 b1 b2", "PERFECT_MATCH a2 b3"),
+				mapped(texts("je pars demain", "au revoir"), texts("je pars ", "demain", "au revoir"),
+						equal("je pars "), insert("\n"), equal("demain\nau revoir\n")));
+	}
+
+	@Test
+	public void testSplitWithEdit() {
+		// Not a split: the cues of the group are missing
+		assertEquals(Arrays.asList("MISSING_B a1", "MISSING_B a2", "MISSING_A b1", "PERFECT_MATCH a3 b2"),
+				mapped(texts("je pars", "demain", "au revoir"), texts("je pars ce soir", "au revoir"),
+						equal("je pars"), delete("\ndemain"), insert(" ce soir"), equal("\nau revoir\n")));
+	}
+}
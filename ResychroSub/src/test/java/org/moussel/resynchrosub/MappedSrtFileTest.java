@@ -0,0 +1,97 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The byte scanner of {@link MappedSrtFile} has to find the same cues as
+ * {@link SrtTokenizer}, on random inputs mixing cue headers, line terminators
+ * and non-ASCII characters.
+ */
+public class MappedSrtFileTest {
+	private static final String CUE_HEADER = "3\r\n00:00:01,000 --> 00:00:02,000\r\n";
+	private static final String[] PARTS = {"1", "12", "\r\n", "\r", "\n", "00:00:01,000", " --> ", "1:2:3,4", "abc",
+			" ", " ", " ", "9", "\r\n\r\n", "12345", ",", "<i>", "x\u0085", "\u0085", "é",
+			"é\r"};
+	private static final int ROUNDS = 3000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private void assertSameCues(Charset charset) throws IOException {
+		Random random = new Random(7);
+		Path file = folder.newFile().toPath();
+		for (int round = 0; round < ROUNDS; round++) {
+			StringBuilder content = new StringBuilder();
+			int partCount = random.nextInt(30);
+			for (int i = 0; i < partCount; i++) {
+				if (random.nextInt(4) == 0) {
+					content.append(CUE_HEADER);
+				}
+				content.append(PARTS[random.nextInt(PARTS.length)]);
+			}
+			Files.write(file, content.toString().getBytes(charset));
+			assertEquals(content.toString(), tokenizedCues(file, charset), mappedCues(file, charset));
+		}
+	}
+
+	private List<String> mappedCues(Path file, Charset charset) throws IOException {
+		List<String> cues = new ArrayList<>();
+		MappedSrtFile mapped = MappedSrtFile.map(file, charset);
+		for (int i = 0; i < mapped.size(); i++) {
+			cues.add(mapped.getTrack().getStartMillis(i) + "|" + mapped.getTrack().getEndMillis(i) + "|"
+					+ mapped.getText(i));
+		}
+		return cues;
+	}
+
+	@Test
+	public void testIso88591() throws IOException {
+		assertSameCues(StandardCharsets.ISO_8859_1);
+	}
+
+	@Test
+	public void testSupportedCharsets() {
+		assertTrue(MappedSrtFile.isSupported(StandardCharsets.UTF_8));
+		assertTrue(MappedSrtFile.isSupported(StandardCharsets.ISO_8859_1));
+		assertTrue(MappedSrtFile.isSupported(Charset.forName("windows-1252")));
+		assertFalse(MappedSrtFile.isSupported(StandardCharsets.UTF_16));
+		assertFalse(MappedSrtFile.isSupported(StandardCharsets.UTF_16LE));
+		assertFalse(MappedSrtFile.isSupported(Charset.forName("ISO-2022-JP")));
+	}
+
+	@Test
+	public void testUtf8() throws IOException {
+		assertSameCues(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testWindows1252() throws IOException {
+		assertSameCues(Charset.forName("windows-1252"));
+	}
+
+	private List<String> tokenizedCues(Path file, Charset charset) throws IOException {
+		List<String> cues = new ArrayList<>();
+		try (SrtTokenizer tokenizer = new SrtTokenizer(FileChannel.open(file), charset)) {
+			while (tokenizer.nextCue()) {
+				cues.add(tokenizer.getStartMillis() + "|" + tokenizer.getEndMillis() + "|" + tokenizer.getText());
+			}
+		}
+		return cues;
+	}
+}
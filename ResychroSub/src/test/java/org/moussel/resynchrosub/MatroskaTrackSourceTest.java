@@ -0,0 +1,279 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Text tracks read from small Matroska files written by the test: with and
+ * without Cues, compressed, in clusters of unknown size, and encrypted.
+ */
+public class MatroskaTrackSourceTest {
+	private static final int BLOCK = 0xA1;
+	private static final int BLOCK_DURATION = 0x9B;
+	private static final int BLOCK_GROUP = 0xA0;
+	private static final int CLUSTER = 0x1F43B675;
+	private static final int CLUSTER_TIMESTAMP = 0xE7;
+	private static final int CODEC_ID = 0x86;
+	private static final int CONTENT_COMP_ALGO = 0x4254;
+	private static final int CONTENT_COMP_SETTINGS = 0x4255;
+	private static final int CONTENT_COMPRESSION = 0x5034;
+	private static final int CONTENT_ENCODING = 0x6240;
+	private static final int CONTENT_ENCODINGS = 0x6D80;
+	private static final int CONTENT_ENCRYPTION = 0x5035;
+	private static final int CUE_CLUSTER_POSITION = 0xF1;
+	private static final int CUE_POINT = 0xBB;
+	private static final int CUE_RELATIVE_POSITION = 0xF0;
+	private static final int CUE_TIME = 0xB3;
+	private static final int CUE_TRACK = 0xF7;
+	private static final int CUE_TRACK_POSITIONS = 0xB7;
+	private static final int CUES = 0x1C53BB6B;
+	private static final int DOC_TYPE = 0x4282;
+	private static final int EBML = 0x1A45DFA3;
+	private static final int INFO = 0x1549A966;
+	private static final int LANGUAGE = 0x22B59C;
+	private static final int SEGMENT = 0x18538067;
+	private static final int SIMPLE_BLOCK = 0xA3;
+	private static final int TIMESTAMP_SCALE = 0x2AD7B1;
+	private static final int TRACK_ENTRY = 0xAE;
+	private static final int TRACK_NUMBER = 0xD7;
+	private static final int TRACKS = 0x1654AE6B;
+	/**
+	 * Subtitle track of the files, the other blocks belong to a video track
+	 */
+	private static final int TEXT_TRACK = 1;
+	private static final int VIDEO_TRACK = 2;
+
+	/**
+	 * @return the data of a Block or a SimpleBlock
+	 */
+	private static byte[] blockData(int track, int timestamp, byte[] payload) {
+		byte[] data = new byte[4 + payload.length];
+		data[0] = (byte) (0x80 | track);
+		data[1] = (byte) (timestamp >> 8);
+		data[2] = (byte) timestamp;
+		data[3] = (byte) 0x80;
+		System.arraycopy(payload, 0, data, 4, payload.length);
+		return data;
+	}
+
+	private static byte[] blockGroup(int track, int timestamp, int duration, String text) {
+		return element(BLOCK_GROUP, element(BLOCK, blockData(track, timestamp, utf8(text))),
+				uint(BLOCK_DURATION, duration));
+	}
+
+	private static byte[] cluster(int timestamp, byte[]... blocks) {
+		return element(CLUSTER, concat(uint(CLUSTER_TIMESTAMP, timestamp), concat(blocks)));
+	}
+
+	private static byte[] concat(byte[]... parts) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (byte[] part : parts) {
+			out.write(part, 0, part.length);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return a cue point of the text track, at a block of a cluster
+	 */
+	private static byte[] cuePoint(int time, long clusterPosition, long relativePosition) {
+		return element(CUE_POINT, uint(CUE_TIME, time), element(CUE_TRACK_POSITIONS, uint(CUE_TRACK, TEXT_TRACK),
+				uint(CUE_CLUSTER_POSITION, clusterPosition), uint(CUE_RELATIVE_POSITION, relativePosition)));
+	}
+
+	private static byte[] deflate(String text) {
+		Deflater deflater = new Deflater();
+		deflater.setInput(utf8(text));
+		deflater.finish();
+		byte[] buffer = new byte[256];
+		int length = deflater.deflate(buffer);
+		deflater.end();
+		return Arrays.copyOf(buffer, length);
+	}
+
+	private static byte[] element(int id, byte[]... children) {
+		byte[] data = concat(children);
+		return concat(id(id), size(data.length), data);
+	}
+
+	/**
+	 * @return the element id bytes, with their length marker
+	 */
+	private static byte[] id(int id) {
+		int length = id > 0xFFFFFF ? 4 : id > 0xFFFF ? 3 : id > 0xFF ? 2 : 1;
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = (byte) (id >> (8 * (length - 1 - i)));
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the EBML header and the segment of a file
+	 */
+	private static byte[] matroska(byte[]... segmentChildren) {
+		return concat(element(EBML, string(DOC_TYPE, "matroska")), element(SEGMENT, segmentChildren));
+	}
+
+	private static byte[] segmentHeader(byte[]... textTrackSettings) {
+		return concat(element(INFO, uint(TIMESTAMP_SCALE, 1000000)),
+				element(TRACKS,
+						element(TRACK_ENTRY, concat(uint(TRACK_NUMBER, TEXT_TRACK), string(CODEC_ID, "S_TEXT/UTF8"),
+								string(LANGUAGE, "fre"), concat(textTrackSettings))),
+						element(TRACK_ENTRY, uint(TRACK_NUMBER, VIDEO_TRACK), string(CODEC_ID, "V_MPEG4/ISO/AVC"))));
+	}
+
+	private static byte[] simpleBlock(int track, int timestamp, byte[] payload) {
+		return element(SIMPLE_BLOCK, blockData(track, timestamp, payload));
+	}
+
+	/**
+	 * @return an element size on 8 bytes
+	 */
+	private static byte[] size(long size) {
+		byte[] bytes = new byte[8];
+		bytes[0] = 0x01;
+		for (int i = 1; i < 8; i++) {
+			bytes[i] = (byte) (size >> (8 * (7 - i)));
+		}
+		return bytes;
+	}
+
+	private static byte[] string(int id, String value) {
+		return element(id, utf8(value));
+	}
+
+	/**
+	 * @return the start, end and text of each cue
+	 */
+	private static List<String> texts(SubtitleTrack track) {
+		List<String> texts = new ArrayList<>();
+		for (int i = 0; i < track.size(); i++) {
+			texts.add(track.getStartMillis(i) + "-" + track.getEndMillis(i) + " " + track.getText(i));
+		}
+		return texts;
+	}
+
+	private static byte[] uint(int id, long value) {
+		byte[] bytes = new byte[8];
+		for (int i = 0; i < 8; i++) {
+			bytes[i] = (byte) (value >> (8 * (7 - i)));
+		}
+		return element(id, bytes);
+	}
+
+	private static byte[] utf8(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<String> read(byte[] file) throws IOException {
+		Path path = folder.newFile().toPath();
+		Files.write(path, file);
+		List<MatroskaTrackSource> tracks = MatroskaTrackSource.listTextTracks(path);
+		assertEquals(1, tracks.size());
+		assertEquals("fr", tracks.get(0).getLang());
+		assertEquals(TEXT_TRACK, tracks.get(0).getTrackNumber());
+		return texts(tracks.get(0).load(false));
+	}
+
+	@Test
+	public void testCompressed() throws IOException {
+		byte[] zlib = element(CONTENT_ENCODINGS,
+				element(CONTENT_ENCODING, element(CONTENT_COMPRESSION, uint(CONTENT_COMP_ALGO, 0))));
+		assertEquals(Arrays.asList("1000-3000 Bonjour à tous", "4000-6000 Au revoir"),
+				read(matroska(segmentHeader(zlib), cluster(0, simpleBlock(VIDEO_TRACK, 0, new byte[16]),
+						element(BLOCK_GROUP, element(BLOCK, blockData(TEXT_TRACK, 1000, deflate("Bonjour à tous"))),
+								uint(BLOCK_DURATION, 2000)),
+						element(BLOCK_GROUP, element(BLOCK, blockData(TEXT_TRACK, 4000, deflate("Au revoir"))),
+								uint(BLOCK_DURATION, 2000))))));
+
+		// The stripped bytes are put back before each payload
+		byte[] headerStripping = element(CONTENT_ENCODINGS, element(CONTENT_ENCODING, element(CONTENT_COMPRESSION,
+				uint(CONTENT_COMP_ALGO, 3), element(CONTENT_COMP_SETTINGS, utf8("Bon")))));
+		assertEquals(Arrays.asList("1000-3000 Bonjour", "4000-6000 Bonsoir"),
+				read(matroska(segmentHeader(headerStripping), cluster(0, blockGroup(TEXT_TRACK, 1000, 2000, "jour"),
+						blockGroup(TEXT_TRACK, 4000, 2000, "soir")))));
+	}
+
+	@Test
+	public void testCues() throws IOException {
+		byte[] header = segmentHeader();
+		byte[] firstBlock = blockGroup(TEXT_TRACK, 1000, 2000, "Bonjour");
+		byte[] cluster1 = cluster(0, simpleBlock(VIDEO_TRACK, 0, new byte[16]), firstBlock,
+				blockGroup(TEXT_TRACK, 4000, 2000, "Comment vas-tu ?"));
+		byte[] cluster2 = cluster(10000, blockGroup(TEXT_TRACK, 0, 2000, "Au revoir"));
+		// Positions in the segment, and in the cluster data from its timestamp
+		long cluster1Position = header.length;
+		long cluster2Position = header.length + cluster1.length;
+		long firstBlockPosition = uint(CLUSTER_TIMESTAMP, 0).length + simpleBlock(VIDEO_TRACK, 0, new byte[16]).length;
+		List<String> expected = Arrays.asList("1000-3000 Bonjour", "4000-6000 Comment vas-tu ?",
+				"10000-12000 Au revoir");
+
+		// Every block indexed
+		byte[] cues = element(CUES, cuePoint(1000, cluster1Position, firstBlockPosition),
+				cuePoint(4000, cluster1Position, firstBlockPosition + firstBlock.length),
+				cuePoint(10000, cluster2Position, uint(CLUSTER_TIMESTAMP, 0).length));
+		assertEquals(expected, read(matroska(header, cluster1, cluster2, cues)));
+
+		// Only the first block indexed, the others are found in the clusters
+		cues = element(CUES, cuePoint(1000, cluster1Position, firstBlockPosition));
+		assertEquals(expected, read(matroska(header, cluster1, cluster2, cues)));
+	}
+
+	@Test
+	public void testUnsupportedTracksSkipped() throws IOException {
+		byte[] encrypted = element(CONTENT_ENCODINGS,
+				element(CONTENT_ENCODING, element(CONTENT_ENCRYPTION, uint(0x47E1, 5))));
+		byte[] bzlib = element(CONTENT_ENCODINGS,
+				element(CONTENT_ENCODING, element(CONTENT_COMPRESSION, uint(CONTENT_COMP_ALGO, 1))));
+		for (byte[] contentEncodings : Arrays.asList(encrypted, bzlib)) {
+			Path path = folder.newFile().toPath();
+			Files.write(path, matroska(segmentHeader(contentEncodings),
+					cluster(0, blockGroup(TEXT_TRACK, 1000, 2000, "Bonjour"))));
+			assertEquals(0, MatroskaTrackSource.listTextTracks(path).size());
+		}
+	}
+
+	@Test
+	public void testUnknownSizeClusters() throws IOException {
+		// Clusters of unknown size end where the next top level element starts
+		byte[] cluster1 = cluster(0, simpleBlock(TEXT_TRACK, 1000, utf8("Bonjour")),
+				simpleBlock(VIDEO_TRACK, 2000, new byte[16]));
+		byte[] cluster2 = cluster(10000, simpleBlock(TEXT_TRACK, 0, utf8("Au revoir")));
+		byte[] unknownSize = {0x01, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+				(byte) 0xFF};
+		System.arraycopy(unknownSize, 0, cluster1, 4, 8);
+		System.arraycopy(unknownSize, 0, cluster2, 4, 8);
+		// Without a duration, a cue lasts until the next one
+		assertEquals(Arrays.asList("1000-10000 Bonjour", "10000-10000 Au revoir"),
+				read(matroska(segmentHeader(), cluster1, cluster2)));
+	}
+
+	@Test
+	public void testWithoutCues() throws IOException {
+		assertEquals(Arrays.asList("1000-3000 Bonjour\r\nà tous", "4000-6000 Comment vas-tu ?",
+				"10000-12000 Au revoir"),
+				read(matroska(segmentHeader(),
+						cluster(0, simpleBlock(VIDEO_TRACK, 0, new byte[16]),
+								blockGroup(TEXT_TRACK, 1000, 2000, "Bonjour\nà tous"),
+								simpleBlock(VIDEO_TRACK, 2000, new byte[16]),
+								blockGroup(TEXT_TRACK, 4000, 2000, "Comment vas-tu ?")),
+						cluster(10000, blockGroup(TEXT_TRACK, 0, 2000, "Au revoir")))));
+	}
+}
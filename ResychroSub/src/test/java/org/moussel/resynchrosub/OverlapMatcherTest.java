@@ -0,0 +1,124 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Matching of cues on their times only, see {@link OverlapMatcher}.
+ */
+public class OverlapMatcherTest {
+	private static final long PRECISION = ResynchroTimeHelper.CLOSE_ENOUGH_MILLIS;
+
+	/**
+	 * @return the mode of each match, with the numbers of its cues
+	 */
+	private static List<String> keys(List<SubtitleMatch> matchList) {
+		List<String> keys = new ArrayList<>();
+		for (SubtitleMatch match : matchList) {
+			StringBuilder key = new StringBuilder(match.getMode().toString());
+			for (Subtitle sub : match.getSubAList()) {
+				key.append(" a").append(sub.getSubNumber());
+			}
+			for (Subtitle sub : match.getSubBList()) {
+				key.append(" b").append(sub.getSubNumber());
+			}
+			keys.add(key.toString());
+		}
+		return keys;
+	}
+
+	private static List<String> matched(List<Subtitle> subList1, List<Subtitle> subList2) {
+		return keys(OverlapMatcher.computeMatches(subList1, subList2));
+	}
+
+	/**
+	 * @return cues numbered from 1, from their start and end times
+	 */
+	private static List<Subtitle> subs(long... times) {
+		List<Subtitle> subList = new ArrayList<>();
+		for (int i = 0; i < times.length; i += 2) {
+			subList.add(new Subtitle(i / 2 + 1, times[i], times[i + 1], "Réplique " + (i / 2 + 1)));
+		}
+		return subList;
+	}
+
+	@Test
+	public void testChainedCluster() {
+		// a2 starts in the span of the split, between both parts
+		assertEquals(Arrays.asList("SPLIT_2B_IS_1A a1 b1 b2", "MISSING_B a2"),
+				matched(subs(0, 6000, 2000, 3000), subs(0, 1000, 5000, 6000)));
+		assertEquals(Arrays.asList("SPLIT_2A_IS_1B a1 a2 b1", "MISSING_A b2"),
+				matched(subs(0, 1000, 5000, 6000), subs(0, 6000, 2000, 3000)));
+		// The long cue chains the cluster, a2 and a3 overlap no cue of the other track
+		assertEquals(
+				Arrays.asList("SPLIT_2B_IS_1A a1 b1 b2 b3", "MISSING_B a2", "MISSING_B a3", "PERFECT_MATCH a4 b4"),
+				matched(subs(0, 10000, 2500, 3500, 6500, 7500, 11000, 12000),
+						subs(0, 2000, 4000, 6000, 8000, 10000, 11000, 12000)));
+	}
+
+	@Test
+	public void testMissing() {
+		assertEquals(Arrays.asList("MISSING_A b1", "PERFECT_MATCH a1 b2", "MISSING_B a2", "MISSING_A b3"),
+				matched(subs(2000, 3000, 4000, 5000), subs(0, 1000, 2000, 3000, 6000, 7000)));
+	}
+
+	@Test
+	public void testNToM() {
+		// Cut differently on both sides, each cue overlapping the next one of the other track
+		assertEquals(Arrays.asList("APPROX_MATCH a1 a2 b1 b2 b3"),
+				matched(subs(0, 3000, 3000, 6000), subs(0, 2000, 2000, 4000, 4000, 6000)));
+		assertEquals(Arrays.asList("APPROX_MATCH a1 a2 a3 b1 b2", "PERFECT_MATCH a4 b3"),
+				matched(subs(0, 2000, 2000, 4000, 4000, 6000, 8000, 9000), subs(0, 3000, 3000, 6000, 8000, 9000)));
+	}
+
+	@Test
+	public void testOneToOne() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "PERFECT_MATCH a2 b2"),
+				matched(subs(0, 2000, 3000, 5000), subs(0, 2000, 3000, 5000)));
+		// Starts and ends shifted by less than the precision, or by the precision
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "APPROX_MATCH a2 b2", "APPROX_MATCH a3 b3"),
+				matched(subs(0, 2000, 3000, 5000, 6000, 8000),
+						subs(PRECISION - 1, 2000 - PRECISION + 1, 3000 + PRECISION, 5000, 6000, 8000 - PRECISION)));
+	}
+
+	@Test
+	public void testOverlapRatio() {
+		List<SubtitleMatch> matchList = OverlapMatcher.computeMatches(subs(0, 2000, 3000, 6000, 10000, 14000),
+				subs(0, 2000, 4000, 7000, 10000, 12000, 12000, 14000));
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "APPROX_MATCH a2 b2", "SPLIT_2B_IS_1A a3 b3 b4"),
+				keys(matchList));
+		assertEquals(1, matchList.get(0).getOverlapRatio(), 0);
+		// 2 s of overlap for 4 s of union
+		assertEquals(0.5, matchList.get(1).getOverlapRatio(), 0);
+		assertEquals(1, matchList.get(2).getOverlapRatio(), 0);
+	}
+
+	@Test
+	public void testSplit() {
+		assertEquals(Arrays.asList("SPLIT_2B_IS_1A a1 b1 b2 b3", "PERFECT_MATCH a2 b4"),
+				matched(subs(0, 6000, 7000, 8000), subs(0, 2000, 2000, 4000, 4000, 6000, 7000, 8000)));
+		assertEquals(Arrays.asList("SPLIT_2A_IS_1B a1 a2 a3 b1", "PERFECT_MATCH a4 b2"),
+				matched(subs(0, 2000, 2000, 4000, 4000, 6000, 7000, 8000), subs(0, 6000, 7000, 8000)));
+	}
+
+	@Test
+	public void testUnsorted() {
+		assertEquals(Arrays.asList("PERFECT_MATCH a2 b1", "PERFECT_MATCH a1 b2"),
+				matched(subs(3000, 5000, 0, 2000), subs(0, 2000, 3000, 5000)));
+	}
+
+	@Test
+	public void testZeroDuration() {
+		// A cue of no duration overlaps nothing, even at the same time
+		assertEquals(Arrays.asList("PERFECT_MATCH a1 b1", "MISSING_B a2", "MISSING_A b2", "PERFECT_MATCH a3 b3"),
+				matched(subs(0, 2000, 3000, 3000, 4000, 6000), subs(0, 2000, 3000, 3000, 4000, 6000)));
+		// Nor does it cut the cluster it is in
+		assertEquals(Arrays.asList("SPLIT_2B_IS_1A a1 b1 b3", "MISSING_A b2"),
+				matched(subs(1000, 5000), subs(1000, 2000, 2500, 2500, 3000, 5000)));
+	}
+}
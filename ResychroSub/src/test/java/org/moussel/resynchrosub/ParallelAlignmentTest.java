@@ -0,0 +1,141 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+/**
+ * The regions of an alignment are matched in parallel unless
+ * <code>resynchrosub.parallelAlignment</code> is <code>false</code>: the
+ * matches have to be the same either way.
+ */
+public class ParallelAlignmentTest {
+	private static final int CUE_COUNT = 2000;
+	private static final String PARALLEL_PROPERTY = "resynchrosub.parallelAlignment";
+	private static final String[] WORDS = {"oui", "non", "peut-être", "demain", "jamais", "ici", "là-bas", "vite",
+			"attends", "écoute", "regarde", "viens", "pars", "encore", "toujours", "rien", "tout", "personne"};
+
+	private static String key(List<SubtitleMatch> matchList) {
+		StringBuilder key = new StringBuilder();
+		for (SubtitleMatch match : matchList) {
+			key.append(match.getMode());
+			for (Subtitle sub : match.getSubAList()) {
+				key.append(" a").append(sub.getSubNumber());
+			}
+			for (Subtitle sub : match.getSubBList()) {
+				key.append(" b").append(sub.getSubNumber());
+			}
+			key.append('\n');
+		}
+		return key.toString();
+	}
+
+	private static <T> T withParallelAlignment(boolean parallel, Supplier<T> alignment) {
+		String previous = System.getProperty(PARALLEL_PROPERTY);
+		System.setProperty(PARALLEL_PROPERTY, Boolean.toString(parallel));
+		try {
+			return alignment.get();
+		} finally {
+			if (previous == null) {
+				System.clearProperty(PARALLEL_PROPERTY);
+			} else {
+				System.setProperty(PARALLEL_PROPERTY, previous);
+			}
+		}
+	}
+
+	private final SubtitleTrack reSyncSrcTrack;
+	private final SubtitleTrack srcTrack;
+
+	public ParallelAlignmentTest() {
+		Random random = new Random(19);
+		List<String> texts = new ArrayList<>();
+		for (int i = 0; i < CUE_COUNT; i++) {
+			texts.add(text(random));
+		}
+		srcTrack = new SubtitleTrack(CUE_COUNT);
+		reSyncSrcTrack = new SubtitleTrack(CUE_COUNT);
+		long start = 0;
+		long reSyncStart = 1500;
+		for (int i = 0; i < CUE_COUNT; i++) {
+			String text = texts.get(i);
+			srcTrack.add(start, start + 2000, text);
+			start += 3000;
+			int edit = random.nextInt(40);
+			if (edit == 0) {
+				// Missing cue
+				continue;
+			} else if (edit == 1) {
+				// Added cue
+				reSyncSrcTrack.add(reSyncStart, reSyncStart + 1000, text(random));
+				reSyncStart += 1500;
+			} else if (edit == 2 && text.indexOf(' ') > 0) {
+				// Split cue
+				reSyncSrcTrack.add(reSyncStart, reSyncStart + 1000, text.substring(0, text.indexOf(' ')));
+				reSyncStart += 1500;
+				text = text.substring(text.indexOf(' ') + 1);
+			} else if (edit == 3 && i + 1 < CUE_COUNT) {
+				// Merged cues
+				text = text + " " + texts.get(++i);
+				srcTrack.add(start, start + 2000, texts.get(i));
+				start += 3000;
+			} else if (edit == 4) {
+				// Edited cue
+				text = text + " " + WORDS[random.nextInt(WORDS.length)];
+			}
+			reSyncSrcTrack.add(reSyncStart, reSyncStart + 2000, text);
+			reSyncStart += 3000;
+		}
+	}
+
+	private void assertSameMatches(Supplier<List<SubtitleMatch>> alignment) {
+		String parallelMatches = key(withParallelAlignment(true, alignment));
+		String sequentialMatches = key(withParallelAlignment(false, alignment));
+		assertTrue(parallelMatches.contains("SPLIT"));
+		assertEquals(sequentialMatches, parallelMatches);
+	}
+
+	@Test
+	public void testAnchored() {
+		AnchoredMatcher matcher = new AnchoredMatcher(AnchoredMatcher.DEFAULT_TIME_BUDGET_MILLIS);
+		assertSameMatches(() -> matcher.computeMatchSameLanguage(srcTrack, reSyncSrcTrack).getMatchList());
+	}
+
+	@Test
+	public void testAnchoredWithoutTime() {
+		AnchoredMatcher matcher = new AnchoredMatcher(0);
+		AlignmentResult parallelResult = withParallelAlignment(true,
+				() -> matcher.computeMatchSameLanguage(srcTrack, reSyncSrcTrack));
+		AlignmentResult sequentialResult = withParallelAlignment(false,
+				() -> matcher.computeMatchSameLanguage(srcTrack, reSyncSrcTrack));
+		assertTrue(parallelResult.isDegraded());
+		assertEquals(sequentialResult.getDegradedRegionCount(), parallelResult.getDegradedRegionCount());
+		assertEquals(sequentialResult.getDegradedCueCount(), parallelResult.getDegradedCueCount());
+		assertEquals(key(sequentialResult.getMatchList()), key(parallelResult.getMatchList()));
+	}
+
+	@Test
+	public void testBanded() {
+		assertSameMatches(() -> TimeBandedMatcher.computeMatchSameLanguage(srcTrack, reSyncSrcTrack));
+	}
+
+	@Test
+	public void testCue() {
+		assertSameMatches(() -> CueHashMatcher.computeMatchSameLanguage(srcTrack, reSyncSrcTrack));
+	}
+
+	private String text(Random random) {
+		StringBuilder text = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+		int wordCount = 2 + random.nextInt(6);
+		for (int i = 1; i < wordCount; i++) {
+			text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return text.toString();
+	}
+}
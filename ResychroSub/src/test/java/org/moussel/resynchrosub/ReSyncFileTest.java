@@ -0,0 +1,40 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Resynchronization of a small translation, compared with its expected output:
+ * the synced track misses and splits some cues of the source, and one cue of
+ * the translation is split in two.
+ */
+public class ReSyncFileTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File copy(String name) throws IOException {
+		Path file = folder.getRoot().toPath().resolve(name);
+		try (InputStream in = getClass().getResourceAsStream(name)) {
+			Files.copy(in, file);
+		}
+		return file.toFile();
+	}
+
+	@Test
+	public void testCreateReSyncFile() throws IOException {
+		File translatedSyncFile = new File(folder.getRoot(), "translated.synced.srt");
+		ResynchroCore.createReSyncFile(copy("source.srt"), copy("translated.srt"), copy("synced.srt"),
+				translatedSyncFile);
+		assertArrayEquals(Files.readAllBytes(copy("expected.srt").toPath()),
+				Files.readAllBytes(translatedSyncFile.toPath()));
+	}
+}
@@ -0,0 +1,81 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Resynchronization of a translation from the matches of its source.
+ */
+public class ResynchroCoreTest {
+	/**
+	 * @return cues numbered from 1, from their start and end times
+	 */
+	private static List<Subtitle> subs(long... times) {
+		List<Subtitle> subList = new ArrayList<>();
+		for (int i = 0; i < times.length; i += 2) {
+			subList.add(new Subtitle(i / 2 + 1, times[i], times[i + 1], "Réplique " + (i / 2 + 1)));
+		}
+		return subList;
+	}
+
+	/**
+	 * @return the start and end times of the cues
+	 */
+	private static List<Long> times(List<Subtitle> subList) {
+		List<Long> times = new ArrayList<>();
+		for (Subtitle sub : subList) {
+			times.add(sub.getStartMillis());
+			times.add(sub.getEndMillis());
+		}
+		return times;
+	}
+
+	@Test
+	public void testReSyncNToM() throws IOException {
+		// Two cues of the source translated in three cues, the synced source is 5 s later
+		List<Subtitle> srcSubList = subs(0, 2000, 2000, 4000, 10000, 12000, 20000, 22000);
+		List<Subtitle> syncedSubList = subs(5000, 7000, 7000, 9000, 15000, 17000, 25000, 27000);
+		List<Subtitle> translatedSubList = subs(0, 1300, 1300, 2700, 2700, 4000, 10000, 12000, 20000, 22000);
+		List<SubtitleMatch> resyncMatchList = new ArrayList<>();
+		for (int i = 0; i < srcSubList.size(); i++) {
+			resyncMatchList
+					.add(new SubtitleMatch(srcSubList.get(i), syncedSubList.get(i), MatchingMode.PERFECT_MATCH));
+		}
+		List<SubtitleMatch> translatedMatchList = OverlapMatcher.computeMatches(srcSubList, translatedSubList);
+		assertEquals(MatchingMode.APPROX_MATCH, translatedMatchList.get(0).getMode());
+		assertEquals(2, translatedMatchList.get(0).getSubAList().size());
+		assertEquals(3, translatedMatchList.get(0).getSubBList().size());
+
+		List<Subtitle> resynced = ResynchroCore.reSync(translatedSubList, resyncMatchList, translatedMatchList);
+		// The three cues spread over the synced times of both cues of the source
+		assertEquals(Arrays.asList(5000L, 6300L, 6300L, 7700L, 7700L, 9000L, 15000L, 17000L),
+				times(resynced.subList(0, 4)));
+		for (int i = 0; i < 4; i++) {
+			assertEquals(translatedSubList.get(i).getText(), resynced.get(i).getText());
+		}
+	}
+
+	@Test
+	public void testReSyncNToMWithMissingSource() throws IOException {
+		// The second cue of the source is missing from the synced one: only the first one gives the times
+		List<Subtitle> srcSubList = subs(0, 2000, 2000, 4000, 10000, 12000, 20000, 22000);
+		List<Subtitle> syncedSubList = subs(5000, 7000, 15000, 17000, 25000, 27000);
+		List<Subtitle> translatedSubList = subs(0, 1300, 1300, 2700, 2700, 4000, 10000, 12000, 20000, 22000);
+		List<SubtitleMatch> resyncMatchList = Arrays.asList(
+				new SubtitleMatch(srcSubList.get(0), syncedSubList.get(0), MatchingMode.PERFECT_MATCH),
+				new SubtitleMatch(srcSubList.get(1), MatchingMode.MISSING_B),
+				new SubtitleMatch(srcSubList.get(2), syncedSubList.get(1), MatchingMode.PERFECT_MATCH),
+				new SubtitleMatch(srcSubList.get(3), syncedSubList.get(2), MatchingMode.PERFECT_MATCH));
+		List<SubtitleMatch> translatedMatchList = OverlapMatcher.computeMatches(srcSubList, translatedSubList);
+
+		List<Subtitle> resynced = ResynchroCore.reSync(translatedSubList, resyncMatchList, translatedMatchList);
+		assertEquals(Arrays.asList(5000L, 5650L, 5650L, 6350L, 6350L, 7000L, 15000L, 17000L),
+				times(resynced.subList(0, 4)));
+	}
+}
@@ -0,0 +1,101 @@
+package org.moussel.resynchrosub;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the streaming {@link SrtTokenizer} with the regular expression
+ * parser it replaced, on a generated multi-megabyte SRT file.
+ *
+ * Run with: java org.moussel.resynchrosub.SrtTokenizerBenchmark [cueCount]
+ */
+public class SrtTokenizerBenchmark {
+	private static final Pattern LEGACY_PATTERN = Pattern.compile(
+			"(\\d+)\\r\\n(\\d{1,2}:\\d{1,2}:\\d{1,2},\\d{1,3}) --> (\\d{1,2}:\\d{1,2}:\\d{1,2},\\d{1,3})\\r\\n"
+					+ "([\\s\\S]*?)(?=\\r\\n\\r\\n|$)");
+	private static final int ROUNDS = 10;
+
+	static Path generate(int cueCount) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < cueCount; i++) {
+			long start = i * 2500L;
+			sb.append(i + 1).append("\r\n").append(format(start)).append(" --> ").append(format(start + 2000))
+					.append("\r\n");
+			sb.append("<i>Line number ").append(i).append(", and some words to read.</i>");
+			if (i % 3 == 0) {
+				sb.append("\r\n- Second line of the cue, ♪ with music ♪");
+			}
+			sb.append("\r\n\r\n");
+		}
+		Path file = Files.createTempFile("benchmark", ".srt");
+		file.toFile().deleteOnExit();
+		Files.write(file, sb.toString().getBytes(Charset.defaultCharset()));
+		return file;
+	}
+
+	private static String format(long millis) {
+		return String.format("%02d:%02d:%02d,%03d", millis / 3600000, (millis / 60000) % 60, (millis / 1000) % 60,
+				millis % 1000);
+	}
+
+	static List<String> parseLegacy(Path file) throws IOException {
+		return parseLegacy(new String(Files.readAllBytes(file)));
+	}
+
+	/**
+	 * @return the cues the regular expression parser found, as
+	 *         <code>start|end|text</code>
+	 */
+	static List<String> parseLegacy(String content) {
+		Matcher ma = LEGACY_PATTERN.matcher(content);
+		List<String> cues = new ArrayList<>();
+		while (ma.find()) {
+			cues.add(ResynchroTimeHelper.parseMillis(ma.group(2)) + "|" + ResynchroTimeHelper.parseMillis(ma.group(3))
+					+ "|" + ma.group(4));
+		}
+		return cues;
+	}
+
+	static List<String> parseTokenizer(Path file) throws IOException {
+		List<String> cues = new ArrayList<>();
+		try (SrtTokenizer tokenizer = new SrtTokenizer(FileChannel.open(file, StandardOpenOption.READ),
+				Charset.defaultCharset())) {
+			while (tokenizer.nextCue()) {
+				cues.add(tokenizer.getStartMillis() + "|" + tokenizer.getEndMillis() + "|" + tokenizer.getText());
+			}
+		}
+		return cues;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int cueCount = args.length > 0 ? Integer.parseInt(args[0]) : 60000;
+		Path file = generate(cueCount);
+		System.out.println("File size: " + Files.size(file) / 1024 + " KiB, " + cueCount + " cues");
+
+		if (!parseLegacy(file).equals(parseTokenizer(file))) {
+			throw new IllegalStateException("Tokenizer and regular expression disagree");
+		}
+		long legacy = Long.MAX_VALUE;
+		long tokenizer = Long.MAX_VALUE;
+		for (int i = 0; i < ROUNDS; i++) {
+			long t0 = System.nanoTime();
+			parseLegacy(file);
+			long t1 = System.nanoTime();
+			parseTokenizer(file);
+			long t2 = System.nanoTime();
+			legacy = Math.min(legacy, t1 - t0);
+			tokenizer = Math.min(tokenizer, t2 - t1);
+		}
+		System.out.println("Regex parser:     " + legacy / 1000000 + " ms");
+		System.out.println("Stream tokenizer: " + tokenizer / 1000000 + " ms");
+		System.out.println(String.format("Speedup: %.1fx", (double) legacy / tokenizer));
+	}
+}
@@ -0,0 +1,157 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The {@link SrtTokenizer} has to find the same cues as the regular expression
+ * parser it replaced (see {@link SrtTokenizerBenchmark#parseLegacy(String)}),
+ * whatever the way its input is split by the channel.
+ */
+public class SrtTokenizerTest {
+	/**
+	 * Parts of the random inputs: cue headers, parts of them and line
+	 * terminators
+	 */
+	private static final String[] FRAGMENTS = {"1", "12", "\r\n", "\n", "\r", "\r\n\r\n", "\u2028", "\u0085",
+			"00:00:01,000", "0:0:2,5", "00:00:01.000", " --> ", "-->", ":", ",", "Texte", " ", "\uFEFF",
+			"1\r\n00:00:01,000 --> 00:00:02,000\r\n"};
+
+	/**
+	 * @return a channel giving its bytes one at a time
+	 */
+	private static ReadableByteChannel byteByByte(byte[] bytes) {
+		ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(bytes));
+		return new ReadableByteChannel() {
+			@Override
+			public void close() throws IOException {
+				channel.close();
+			}
+
+			@Override
+			public boolean isOpen() {
+				return channel.isOpen();
+			}
+
+			@Override
+			public int read(ByteBuffer dst) throws IOException {
+				if (!dst.hasRemaining()) {
+					return 0;
+				}
+				ByteBuffer one = ByteBuffer.allocate(1);
+				int read = channel.read(one);
+				if (read > 0) {
+					dst.put(one.get(0));
+				}
+				return read;
+			}
+		};
+	}
+
+	private static List<String> tokenized(ReadableByteChannel channel) throws IOException {
+		List<String> cues = new ArrayList<>();
+		try (SrtTokenizer tokenizer = new SrtTokenizer(channel, StandardCharsets.UTF_8)) {
+			while (tokenizer.nextCue()) {
+				cues.add(tokenizer.getStartMillis() + "|" + tokenizer.getEndMillis() + "|" + tokenizer.getText());
+			}
+		}
+		return cues;
+	}
+
+	/**
+	 * @return the cues of the content, checked to be the ones of the regular
+	 *         expression parser, read at once and byte by byte
+	 */
+	private static List<String> tokenized(String content) throws IOException {
+		byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+		List<String> cues = tokenized(Channels.newChannel(new ByteArrayInputStream(bytes)));
+		assertEquals("Content \"" + content + "\"", SrtTokenizerBenchmark.parseLegacy(content), cues);
+		assertEquals("Content \"" + content + "\" byte by byte", cues, tokenized(byteByByte(bytes)));
+		return cues;
+	}
+
+	@Test
+	public void testBlankLinesInCue() throws IOException {
+		// A blank line ends the cue, what follows is skipped until a cue header
+		assertEquals(Arrays.asList("1000|2000|Un", "3000|4000|Trois"),
+				tokenized("1\r\n00:00:01,000 --> 00:00:02,000\r\nUn\r\n\r\nDeux\r\n\r\n"
+						+ "2\r\n00:00:03,000 --> 00:00:04,000\r\nTrois\r\n\r\n"));
+		// Not blank: spaces, or line feeds only
+		assertEquals(Arrays.asList("1000|2000|Un\r\n \r\nDeux", "3000|4000|Trois\n\nQuatre"),
+				tokenized("1\r\n00:00:01,000 --> 00:00:02,000\r\nUn\r\n \r\nDeux\r\n\r\n"
+						+ "2\r\n00:00:03,000 --> 00:00:04,000\r\nTrois\n\nQuatre\r\n\r\n"));
+		// Empty cue: its text goes on to the next blank line, over the next cue
+		assertEquals(Arrays.asList("1000|2000|\r\n2\r\n00:00:03,000 --> 00:00:04,000\r\nTrois"),
+				tokenized("1\r\n00:00:01,000 --> 00:00:02,000\r\n\r\n"
+						+ "2\r\n00:00:03,000 --> 00:00:04,000\r\nTrois\r\n\r\n"));
+	}
+
+	@Test
+	public void testByteOrderMark() throws IOException {
+		assertEquals(Arrays.asList("1000|2000|Un"),
+				tokenized("\uFEFF1\r\n00:00:01,000 --> 00:00:02,000\r\nUn\r\n"));
+	}
+
+	@Test
+	public void testLineFeeds() throws IOException {
+		String crlf = "1\r\n00:00:01,000 --> 00:00:02,000\r\nUn\r\nDeux\r\n\r\n"
+				+ "2\r\n00:00:03,000 --> 00:00:04,000\r\nTrois\r\n\r\n";
+		assertEquals(Arrays.asList("1000|2000|Un\r\nDeux", "3000|4000|Trois"), tokenized(crlf));
+		// As with the regular expression, cue headers end with CRLF
+		assertEquals(Collections.emptyList(), tokenized(crlf.replace("\r\n", "\n")));
+		// Line feeds in the text are kept
+		assertEquals(Arrays.asList("1000|2000|Un\nDeux", "3000|4000|Trois"),
+				tokenized(crlf.replace("Un\r\nDeux", "Un\nDeux")));
+	}
+
+	@Test
+	public void testMalformedTimestamps() throws IOException {
+		String next = "2\r\n00:00:03,000 --> 00:00:04,000\r\nTrois\r\n\r\n";
+		for (String timing : new String[]{"00:00:01.000 --> 00:00:02,000", "000:00:01,000 --> 00:00:02,000",
+				"00:00:01,0000 --> 00:00:02,000", "00:00:01,000 -> 00:00:02,000", "00:00:01,000-->00:00:02,000",
+				"00:00:01,000 --> 00:00:02", "00:00:01 --> 00:00:02,000", "00:00:01,000 --> 00:00:02,000 X1"}) {
+			// The cue is skipped, the next one is found
+			assertEquals(timing, Arrays.asList("3000|4000|Trois"),
+					tokenized("1\r\n" + timing + "\r\nUn\r\n\r\n" + next));
+		}
+		// One digit fields, one or two digit milliseconds are accepted by the grammar, as milliseconds
+		assertEquals(Arrays.asList("3723005|3723005|Un"), tokenized("1\r\n1:2:3,5 --> 01:02:03,05\r\nUn\r\n"));
+	}
+
+	@Test
+	public void testMissingFinalBlankLine() throws IOException {
+		String cue = "1\r\n00:00:01,000 --> 00:00:02,000\r\nUn";
+		for (String end : new String[]{"", "\r\n", "\n", "\r", "\u2028", "\u2029", "\u0085", "\r\n\r\n",
+				"\n\n", " "}) {
+			tokenized(cue + end);
+		}
+		assertEquals(Arrays.asList("1000|2000|Un"), tokenized(cue));
+		assertEquals(Arrays.asList("1000|2000|Un"), tokenized(cue + "\r\n"));
+		assertEquals(Arrays.asList("1000|2000|Un\n"), tokenized(cue + "\n\n"));
+	}
+
+	@Test
+	public void testRandom() throws IOException {
+		Random random = new Random(1);
+		for (int n = 0; n < 3000; n++) {
+			StringBuilder content = new StringBuilder();
+			for (int k = random.nextInt(20); k > 0; k--) {
+				content.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			}
+			tokenized(content.toString());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The cue texts copied as bytes from a {@link MappedSrtFile} (gathered write)
+ * have to give the same output as the texts decoded, then encoded again.
+ */
+public class SrtWriterTest {
+	private static final int CUE_COUNT = 3000;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private void assertGatheredOutputIsDecodedOutput(Charset charset) throws IOException {
+		Path input = folder.newFile().toPath();
+		try (FileChannel channel = FileChannel.open(input, StandardOpenOption.WRITE)) {
+			SubtitleFormats.SRT.write(track(), channel, charset);
+		}
+		SubtitleTrack decoded;
+		try (FileChannel channel = FileChannel.open(input)) {
+			decoded = SubtitleFormats.SRT.read(channel, charset, false);
+		}
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		SubtitleFormats.SRT.write(decoded, Channels.newChannel(expected), charset);
+
+		MappedSrtFile mapped = MappedSrtFile.map(input, charset);
+		// Into a stream, without gathering write
+		ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+		writeMapped(mapped, Channels.newChannel(streamed), charset);
+		assertArrayEquals(expected.toByteArray(), streamed.toByteArray());
+		// Into a file, with gathering writes
+		Path output = folder.newFile().toPath();
+		writeMapped(mapped, FileChannel.open(output, StandardOpenOption.WRITE), charset);
+		assertArrayEquals(expected.toByteArray(), Files.readAllBytes(output));
+	}
+
+	@Test
+	public void testIso88591() throws IOException {
+		assertGatheredOutputIsDecodedOutput(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @return cues with tags, several lines and non-ASCII characters, some of
+	 *         them after 24h
+	 */
+	private SubtitleTrack track() {
+		SubtitleTrack track = new SubtitleTrack(CUE_COUNT);
+		for (int i = 0; i < CUE_COUNT; i++) {
+			long start = i * 30000L;
+			StringBuilder text = new StringBuilder("<i>Réplique ").append(i).append(", à l'écran.</i>");
+			if (i % 3 == 0) {
+				text.append("\r\n- Deuxième ligne, ").append(i % 7 == 0 ? "€" : "œ");
+			}
+			track.add(start, start + 2000 + i % 1000, text);
+		}
+		return track;
+	}
+
+	@Test
+	public void testUtf8() throws IOException {
+		assertGatheredOutputIsDecodedOutput(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void testWindows1252() throws IOException {
+		assertGatheredOutputIsDecodedOutput(Charset.forName("windows-1252"));
+	}
+
+	private void writeMapped(MappedSrtFile mapped, WritableByteChannel channel, Charset charset)
+			throws IOException {
+		try (SrtWriter writer = new SrtWriter(channel, charset)) {
+			for (int i = 0; i < mapped.size(); i++) {
+				writer.writeCue(i + 1, mapped.getTrack().getStartMillis(i), mapped.getTrack().getEndMillis(i),
+						mapped.getTextBytes(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Reading of the WebVTT, ASS and MicroDVD formats, and write then read round
+ * trips.
+ */
+public class SubtitleFormatTest {
+	private static SubtitleTrack read(SubtitleFormat format, String content) throws IOException {
+		return format.read(Channels.newChannel(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8))),
+				StandardCharsets.UTF_8, true);
+	}
+
+	/**
+	 * @return the cues of the track as "start end text"
+	 */
+	private static List<String> cues(SubtitleTrack track) {
+		List<String> cues = new ArrayList<>();
+		for (int i = 0; i < track.size(); i++) {
+			cues.add(track.getStartMillis(i) + " " + track.getEndMillis(i) + " " + track.getText(i));
+		}
+		return cues;
+	}
+
+	/**
+	 * @return the track written, then read again, with the same format
+	 */
+	private static SubtitleTrack roundTrip(SubtitleFormat format, SubtitleTrack track) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		format.write(track, Channels.newChannel(out), StandardCharsets.UTF_8);
+		return read(format, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @return cues on two lines and with accents, on times every format keeps
+	 *         (centiseconds, 25 fps frames)
+	 */
+	private static SubtitleTrack track() {
+		SubtitleTrack track = new SubtitleTrack();
+		track.add(1000, 2520, "Première ligne\r\nseconde ligne");
+		track.add(3040, 4000, "Ça va ?");
+		track.add(3661200, 3663000, "Après une heure");
+		return track;
+	}
+
+	@Test
+	public void testAssEventFormatOrder() throws IOException {
+		// End before start, events out of order, a Dialogue line outside of [Events]
+		String content = "[Script Info]\r\nScriptType: v4.00+\r\n\r\n[V4+ Styles]\r\n"
+				+ "Format: Name, Fontname\r\nDialogue: 0:00:09.00,0:00:10.00,Not an event\r\n\r\n[Events]\r\n"
+				+ "Format: End, Style, Start, Text\r\n"
+				+ "Dialogue: 0:00:07.00,Default,0:00:05.50,Second\\Nligne, {\\i1}avec virgule{\\i0}\r\n"
+				+ "Comment: 0:00:02.00,Default,0:00:01.00,Ignored\r\n"
+				+ "Dialogue: 0:00:02.25,Default,0:00:01.00,Première\r\n";
+		SubtitleTrack track = read(new AssFormat(), content);
+		assertEquals(Arrays.asList("1000 2250 Première", "5500 7000 Second\r\nligne, avec virgule"), cues(track));
+		assertEquals("second ligne avec virgule", track.getNormalizedText(1));
+	}
+
+	@Test
+	public void testAssRoundTrip() throws IOException {
+		assertEquals(cues(track()), cues(roundTrip(new AssFormat(), track())));
+	}
+
+	@Test
+	public void testMicroDvdFrameRate() throws IOException {
+		SubtitleTrack track = read(new MicroDvdFormat(), "{1}{1}25.000\r\n{25}{50}Une ligne|{y:i}deux\r\n");
+		assertEquals(Arrays.asList("1000 2000 Une ligne\r\ndeux"), cues(track));
+		// Without the declaration, the frame rate given at creation
+		track = read(new MicroDvdFormat(10), "{25}{50}Une ligne\r\n");
+		assertEquals(Arrays.asList("2500 5000 Une ligne"), cues(track));
+		// A regular cue on the first frame
+		track = read(new MicroDvdFormat(25), "{1}{1}Bonjour\r\n{25}{50}Une ligne\r\n");
+		assertEquals(Arrays.asList("40 40 Bonjour", "1000 2000 Une ligne"), cues(track));
+	}
+
+	@Test
+	public void testMicroDvdMatches() throws IOException {
+		MicroDvdFormat format = new MicroDvdFormat();
+		assertTrue(
+				format.matches(new ByteArrayInputStream("\uFEFF\r\n{1}{1}25\r\n".getBytes(StandardCharsets.UTF_8))));
+		assertTrue(format.matches(new ByteArrayInputStream("{0}{25}Bonjour".getBytes(StandardCharsets.UTF_8))));
+		// VobSub: an MPEG program stream
+		assertFalse(format.matches(new ByteArrayInputStream(new byte[]{0, 0, 1, (byte) 0xBA, 0x44, 0, 4, 0})));
+		assertFalse(format.matches(new ByteArrayInputStream(new byte[0])));
+	}
+
+	@Test
+	public void testMicroDvdRoundTrip() throws IOException {
+		assertEquals(cues(track()), cues(roundTrip(new MicroDvdFormat(25), track())));
+		// The frame rate declared in the file is used, whatever the one given at creation
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new MicroDvdFormat(25).write(track(), Channels.newChannel(out), StandardCharsets.UTF_8);
+		assertEquals(cues(track()),
+				cues(read(new MicroDvdFormat(), new String(out.toByteArray(), StandardCharsets.UTF_8))));
+	}
+
+	@Test
+	public void testWebVtt() throws IOException {
+		String content = "\uFEFFWEBVTT - Titre\nKind: captions\n\nNOTE une note\nsur deux lignes\n\n"
+				+ "STYLE\n::cue { color: yellow }\n\n"
+				+ "intro\n00:01.000 --> 00:02.500 align:start position:10%\n<i>Première</i>\nligne\n\n"
+				+ "01:00:03.250 --> 01:00:04.000\nSans identifiant\n";
+		SubtitleTrack track = read(new WebVttFormat(), content);
+		assertEquals(Arrays.asList("1000 2500 <i>Première</i>\r\nligne", "3603250 3604000 Sans identifiant"),
+				cues(track));
+		assertEquals("première ligne", track.getNormalizedText(0));
+	}
+
+	@Test(expected = IOException.class)
+	public void testWebVttWithoutHeader() throws IOException {
+		read(new WebVttFormat(), "00:01.000 --> 00:02.500\nligne\n");
+	}
+
+	@Test
+	public void testWebVttRoundTrip() throws IOException {
+		assertEquals(cues(track()), cues(roundTrip(new WebVttFormat(), track())));
+	}
+}
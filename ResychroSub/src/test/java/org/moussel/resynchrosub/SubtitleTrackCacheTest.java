@@ -0,0 +1,98 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Eviction and invalidation of the {@link SubtitleTrackCache}. A file whose
+ * path, size and modification time are unchanged is not read again: rewriting
+ * it with another text of the same length, and its previous modification time,
+ * tells whether its track was still cached.
+ */
+public class SubtitleTrackCacheTest {
+	private static final long MODIFIED_MILLIS = 1500000000000L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String firstText(SubtitleTrackCache cache, Path file) throws IOException {
+		return cache.load(new SubtitleFile(file.toFile()), true).getText(0);
+	}
+
+	/**
+	 * Write a one cue SRT file, with the given modification time.
+	 */
+	private static void write(Path file, String text, long modifiedMillis) throws IOException {
+		Files.write(file, ("1\r\n00:00:01,000 --> 00:00:02,000\r\n" + text + "\r\n\r\n")
+				.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file, FileTime.fromMillis(modifiedMillis));
+	}
+
+	@Test
+	public void testChangedModificationTime() throws IOException {
+		Path file = folder.newFile("a.srt").toPath();
+		write(file, "Bonjour", MODIFIED_MILLIS);
+		SubtitleTrackCache cache = new SubtitleTrackCache(SubtitleTrackCache.DEFAULT_MAX_SIZE);
+		assertEquals("Bonjour", firstText(cache, file));
+		// Same path, size and time: not read again
+		write(file, "Bonsoir", MODIFIED_MILLIS);
+		assertEquals("Bonjour", firstText(cache, file));
+		// Modified: hashed and parsed again
+		write(file, "Bonsoir", MODIFIED_MILLIS + 1000);
+		assertEquals("Bonsoir", firstText(cache, file));
+		long size = cache.getSize();
+		// Modified with the same content: hashed again, the cached track is used
+		write(file, "Bonsoir", MODIFIED_MILLIS + 2000);
+		assertEquals("Bonsoir", firstText(cache, file));
+		assertEquals(size, cache.getSize());
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		Path[] files = new Path[3];
+		for (int i = 0; i < files.length; i++) {
+			files[i] = folder.newFile(i + ".srt").toPath();
+			write(files[i], "Replique " + i, MODIFIED_MILLIS);
+		}
+		SubtitleTrackCache probe = new SubtitleTrackCache(SubtitleTrackCache.DEFAULT_MAX_SIZE);
+		firstText(probe, files[0]);
+		long trackSize = probe.getSize();
+		// Room for two tracks
+		SubtitleTrackCache cache = new SubtitleTrackCache(2 * trackSize + trackSize / 2);
+		firstText(cache, files[0]);
+		firstText(cache, files[1]);
+		assertEquals(2 * trackSize, cache.getSize());
+		// Used again, 1 is now the least recently used
+		firstText(cache, files[0]);
+		firstText(cache, files[2]);
+		assertEquals(2 * trackSize, cache.getSize());
+		for (int i = 0; i < files.length; i++) {
+			write(files[i], "Remplace " + i, MODIFIED_MILLIS);
+		}
+		assertEquals("Replique 0", firstText(cache, files[0]));
+		assertEquals("Replique 2", firstText(cache, files[2]));
+		assertEquals("Remplace 1", firstText(cache, files[1]));
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+	}
+
+	@Test
+	public void testTrackLargerThanCache() throws IOException {
+		Path file = folder.newFile("a.srt").toPath();
+		write(file, "Bonjour", MODIFIED_MILLIS);
+		SubtitleTrackCache cache = new SubtitleTrackCache(1);
+		assertEquals("Bonjour", firstText(cache, file));
+		assertEquals(0, cache.getSize());
+		write(file, "Bonsoir", MODIFIED_MILLIS);
+		assertEquals("Bonsoir", firstText(cache, file));
+	}
+}
@@ -0,0 +1,91 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The single pass {@link TextNormalizer} has to give the same result as the
+ * chain of regular expressions it replaces.
+ */
+public class TextNormalizerTest {
+	/**
+	 * Characters of the random texts: the ones the chain handles in a special
+	 * way, line terminators of <code>$</code>, and the letters whose lower case
+	 * depends on the locale
+	 */
+	private static final String ALPHABET = "aZé <>\r\n\t\u000B\f-_.=+,*&♪\u0085\u2028\u2029IİıΣ";
+
+	private static final Locale[] LOCALES = {Locale.ROOT, Locale.FRENCH, new Locale("tr"), new Locale("az"),
+			new Locale("lt")};
+
+	private static void assertSameAsRegex(String text) {
+		assertEquals("Text \"" + text + "\" in " + Locale.getDefault(), regexNormalize(text),
+				TextNormalizer.normalize(text));
+		// Fed in two parts, the way a cue is read
+		TextNormalizer normalizer = new TextNormalizer();
+		normalizer.append(text, 0, text.length() / 2).append(text.toCharArray(), text.length() / 2,
+				text.length() - text.length() / 2);
+		assertEquals("Text \"" + text + "\" in two parts", regexNormalize(text), normalizer.finish());
+	}
+
+	private static String regexNormalize(String text) {
+		return text.replaceAll("[\\r\\n]+", " ").replaceAll("<[^>]*>", "").replaceAll("[-_\\.=+,*&♪]", "")
+				.replaceAll("[\\s\\t]+", " ").replaceAll("^ | $", "").toLowerCase();
+	}
+
+	@Test
+	public void testCases() {
+		String[] texts = {"", " ", "\r\n", "Bonjour.", "  <i>Bonjour</i>,\r\n  - Salut !  ", "♪ La la la ♪",
+				"<font color=\"#ffffff\">Texte</font>", "a < b", "Pas de fin <i", "<", "a<", "<b>a</b>< c",
+				"A\u00A0B", "fin \u2028", "fin \u2028 ", "fin\u2028", "fin \u0085", "fin \u2029", " \u2028",
+				"\u2028 début", "TITRE\r\n\r\nSUITE", "É À Ç", "Tab\tulé\u000Bet\fsaut"};
+		Locale defaultLocale = Locale.getDefault();
+		try {
+			for (Locale locale : LOCALES) {
+				Locale.setDefault(locale);
+				for (String text : texts) {
+					assertSameAsRegex(text);
+				}
+			}
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	@Test
+	public void testLocaleSensitive() {
+		Locale defaultLocale = Locale.getDefault();
+		try {
+			Locale.setDefault(new Locale("tr"));
+			assertEquals("ıstanbul", TextNormalizer.normalize("ISTANBUL"));
+			Locale.setDefault(Locale.ROOT);
+			assertEquals("istanbul", TextNormalizer.normalize("ISTANBUL"));
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+
+	@Test
+	public void testRandom() {
+		Random random = new Random(5);
+		Locale defaultLocale = Locale.getDefault();
+		try {
+			for (Locale locale : LOCALES) {
+				Locale.setDefault(locale);
+				for (int n = 0; n < 2000; n++) {
+					char[] text = new char[random.nextInt(16)];
+					for (int i = 0; i < text.length; i++) {
+						text[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+					}
+					assertSameAsRegex(new String(text));
+				}
+			}
+		} finally {
+			Locale.setDefault(defaultLocale);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package org.moussel.resynchrosub;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * {@link TrackIndex} files written then mapped again, and the
+ * {@link TrackIndexCache} falling back to parsing the subtitle file when its
+ * index is missing, of another file or unreadable.
+ */
+public class TrackIndexCacheTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * @return the cues of the track as "start end text|normalized text"
+	 */
+	private static List<String> cues(SubtitleTrack track) {
+		List<String> cues = new ArrayList<>();
+		for (int i = 0; i < track.size(); i++) {
+			cues.add(track.getStartMillis(i) + " " + track.getEndMillis(i) + " " + track.getText(i) + "|"
+					+ track.getNormalizedText(i));
+		}
+		return cues;
+	}
+
+	private static byte[] key(SubtitleFile subtitleFile) throws IOException {
+		return TrackIndexCache.computeKey(subtitleFile.getSrtFile().toPath(), subtitleFile.getFormat(),
+				subtitleFile.getCharset());
+	}
+
+	/**
+	 * @return a track with several lines, tags, an empty cue, a character
+	 *         outside of the BMP and an odd text length
+	 */
+	private static SubtitleTrack track() {
+		SubtitleTrack track = new SubtitleTrack();
+		track.add(1000, 2000, "<i>Première</i> ligne\r\nSeconde - ligne");
+		track.add(2500, 3000, "");
+		track.add(90000000, 90001000, "Après 25 h \uD83C\uDFB5 ♪");
+		return track;
+	}
+
+	private static void writeIndex(Path file, SubtitleTrack track, byte[] key) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			TrackIndex.build(track).write(channel, key);
+		}
+	}
+
+	private List<Path> indexFiles() throws IOException {
+		try (Stream<Path> files = Files.list(folder.getRoot().toPath().resolve("index"))) {
+			return files.filter(p -> p.toString().endsWith(TrackIndexCache.EXTENSION)).collect(Collectors.toList());
+		}
+	}
+
+	private SubtitleFile srtFile(String name, String... texts) throws IOException {
+		StringBuilder content = new StringBuilder();
+		for (int i = 0; i < texts.length; i++) {
+			content.append(i + 1).append("\r\n00:00:0").append(i).append(",000 --> 00:00:0").append(i)
+					.append(",500\r\n").append(texts[i]).append("\r\n\r\n");
+		}
+		Path file = folder.getRoot().toPath().resolve(name);
+		Files.write(file, content.toString().getBytes(StandardCharsets.US_ASCII));
+		return new SubtitleFile(file.toFile());
+	}
+
+	@Test
+	public void testChangedSource() throws IOException {
+		TrackIndexCache cache = new TrackIndexCache(folder.getRoot().toPath().resolve("index"));
+		SubtitleFile subtitleFile = srtFile("a.srt", "Bonjour", "Au revoir");
+		assertEquals(Arrays.asList("0 500 Bonjour|bonjour", "1000 1500 Au revoir|au revoir"),
+				cues(cache.load(subtitleFile).getTrack()));
+		assertEquals(1, indexFiles().size());
+		// Another content is another key: parsed, not the index of the former content
+		subtitleFile = srtFile("a.srt", "Bonsoir", "Au revoir");
+		assertEquals(Arrays.asList("0 500 Bonsoir|bonsoir", "1000 1500 Au revoir|au revoir"),
+				cues(cache.load(subtitleFile).getTrack()));
+		assertEquals(2, indexFiles().size());
+	}
+
+	@Test
+	public void testIndexUsed() throws IOException {
+		TrackIndexCache cache = new TrackIndexCache(folder.getRoot().toPath().resolve("index"));
+		SubtitleFile subtitleFile = srtFile("a.srt", "Bonjour");
+		cache.load(subtitleFile);
+		// The track of the index is loaded, the file is not parsed again
+		writeIndex(indexFiles().get(0), track(), key(subtitleFile));
+		assertEquals(cues(track()), cues(cache.load(subtitleFile).getTrack()));
+		// Same content under another name
+		assertEquals(cues(track()), cues(cache.load(srtFile("b.srt", "Bonjour")).getTrack()));
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Path file = folder.newFile().toPath();
+		byte[] key = new byte[TrackIndex.KEY_LENGTH];
+		Arrays.fill(key, (byte) 7);
+		writeIndex(file, track(), key);
+		TrackIndex index = TrackIndex.load(file, key);
+		assertNotNull(index);
+		assertEquals(cues(track()), cues(index.getTrack()));
+		assertArrayEquals(new int[]{90000000, 90001000},
+				new int[]{index.getTrack().getStartMillis(2), index.getTrack().getEndMillis(2)});
+		// Another key
+		key[0] = 8;
+		assertNull(TrackIndex.load(file, key));
+		// Empty track
+		writeIndex(file, new SubtitleTrack(), key);
+		assertEquals(0, TrackIndex.load(file, key).getTrack().size());
+	}
+
+	@Test
+	public void testUnreadableIndex() throws IOException {
+		TrackIndexCache cache = new TrackIndexCache(folder.getRoot().toPath().resolve("index"));
+		SubtitleFile subtitleFile = srtFile("a.srt", "Bonjour", "Au revoir");
+		List<String> expected = cues(cache.load(subtitleFile).getTrack());
+		Path indexFile = indexFiles().get(0);
+		byte[] valid = Files.readAllBytes(indexFile);
+		// Truncated in the header, then in the texts
+		for (int length : new int[]{10, valid.length - 4}) {
+			Files.write(indexFile, Arrays.copyOf(valid, length));
+			assertEquals(expected, cues(cache.load(subtitleFile).getTrack()));
+			assertArrayEquals("Index written again", valid, Files.readAllBytes(indexFile));
+		}
+		// Another version
+		byte[] otherVersion = valid.clone();
+		ByteBuffer.wrap(otherVersion).order(ByteOrder.LITTLE_ENDIAN).putInt(4, TrackIndex.VERSION + 1);
+		Files.write(indexFile, otherVersion);
+		assertNull(TrackIndex.load(indexFile, key(subtitleFile)));
+		assertEquals(expected, cues(cache.load(subtitleFile).getTrack()));
+		assertArrayEquals(valid, Files.readAllBytes(indexFile));
+		// Not an index
+		Files.write(indexFile, new byte[valid.length]);
+		assertEquals(expected, cues(cache.load(subtitleFile).getTrack()));
+		assertArrayEquals(valid, Files.readAllBytes(indexFile));
+	}
+}